@@ -26,8 +26,6 @@
 
 package org.nfc.eclipse.plugin;
 
-import java.util.List;
-
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.jface.action.IContributionItem;
 import org.eclipse.jface.action.IStatusLineManager;
@@ -86,10 +84,8 @@ import org.nfc.eclipse.plugin.model.editing.NdefRecordModelEditingSupport;
 import org.nfc.eclipse.plugin.operation.NdefModelOperation;
 import org.nfc.eclipse.plugin.terminal.NdefTerminalListener;
 import org.nfc.eclipse.plugin.terminal.NdefTerminalWrapper;
-import org.nfctools.ndef.NdefContext;
+import org.nfc.eclipse.plugin.terminal.NdefTerminalWriteCommand;
 import org.nfctools.ndef.NdefException;
-import org.nfctools.ndef.NdefMessageEncoder;
-import org.nfctools.ndef.NdefOperations;
 import org.nfctools.ndef.Record;
 
 
@@ -199,26 +195,36 @@ public class NdefEditorPart extends EditorPart implements NdefRecordModelChangeL
 			if(ndefTerminalListener != null) {
 				if(ndefTerminalListener == ndefMultiPageEditor) {
 					
-					NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-					
-					if(ndefOperations != null) {
-						List<Record> records = operator.getRecords();
+					// encode here, the records belong to the editor
+					byte[] ndef;
+					try {
+						ndef = operator.toNdefMessage();
+					} catch(Exception e) {
+						// tags arriving later are not written either
+						NdefTerminalWrapper.setNdefTerminalWriteMessage(ndefMultiPageEditor, null);
 						
-		        		// add write option IF message can in fact be written
-						NdefMessageEncoder ndefMessageEncoder = NdefContext.getNdefMessageEncoder();
-		        		
-		        		try {
-		        			ndefMessageEncoder.encode(records);
-
-							if(ndefOperations.isFormatted()) {
-								ndefOperations.writeNdefMessage(records.toArray(new Record[records.size()]));
-							} else {
-								ndefOperations.format(records.toArray(new Record[records.size()]));
+	        			setStatus("Auto-write not possible.");
+	        			
+	        			return;
+					}
+					
+					// for tags arriving later
+					NdefTerminalWrapper.setNdefTerminalWriteMessage(ndefMultiPageEditor, ndef);
+					
+					if(NdefTerminalWrapper.getNdefOperations() != null) {
+						// only the newest contents are written after a burst of edits
+						NdefTerminalWrapper.submitLatest(new NdefTerminalWriteCommand("Auto-write", ndef) {
+							
+							@Override
+							protected void onSuccess(Void result) {
+			        			setStatus("Auto-write successful.");
 							}
-		        			setStatus("Auto-write successful.");
-		        		} catch(Exception e) {
-		        			setStatus("Auto-write not possible.");
-		        		}
+							
+							@Override
+							protected void onFailure(String message) {
+			        			setStatus("Auto-write not possible.");
+							}
+						});
 					}
 				}
 			}			
@@ -261,7 +267,9 @@ public class NdefEditorPart extends EditorPart implements NdefRecordModelChangeL
 								StatusLineContributionItem size = (StatusLineContributionItem)item;
 								
 								try {
-									size.setText(operator.toNdefMessage().length + " bytes ");
+									byte[] ndef = operator.toNdefMessage();
+									
+									size.setText(ndef.length + " bytes, " + NdefModelOperator.getBinaryQRSummary(ndef) + " ");
 								} catch(NdefException e) {
 									size.setText("-");
 								}
@@ -712,19 +720,13 @@ public class NdefEditorPart extends EditorPart implements NdefRecordModelChangeL
 		
 		if(NdefTerminalWrapper.isAvailable()) {
 			
-			NdefTerminalListener ndefTerminalReadListener = NdefTerminalWrapper.getNdefTerminalReadListener();
-			
-			if(ndefTerminalReadListener != null) {
-				if(ndefTerminalReadListener == ndefMultiPageEditor) {
-					NdefTerminalWrapper.setNdefTerminalReadListener(null);
-				}
-			}
+			NdefTerminalWrapper.removeNdefTerminalReadListener(ndefMultiPageEditor);
 			
 			NdefTerminalListener ndefTerminalWriteListener = NdefTerminalWrapper.getNdefTerminalWriteListener();
 			
 			if(ndefTerminalWriteListener != null) {
 				if(ndefTerminalWriteListener == ndefMultiPageEditor) {
-					NdefTerminalWrapper.setNdefTerminalWriteListener(null);
+					NdefTerminalWrapper.setNdefTerminalWriteListener(null, null);
 				}
 			}
 
@@ -33,10 +33,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Stack;
 
 import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.preferences.ConfigurationScope;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.PaletteData;
@@ -71,13 +77,57 @@ import org.nfctools.ndef.Record;
 import org.nfctools.ndef.wkt.handover.records.HandoverCarrierRecord;
 import org.nfctools.ndef.wkt.records.GcActionRecord;
 import org.nfctools.ndef.wkt.records.GcTargetRecord;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
 
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.binary.CompressedPayload;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.binary.StructuredAppend;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 
 public class NdefModelOperator implements NdefRecordModelChangeListener {
 	
-	public static final int MAX_BINARY_QR_PAYLOAD = 2953;
+	public static final int MAX_BINARY_QR_PAYLOAD = QrCapacityPlanner.MAX_PAYLOAD;
+
+	public static boolean isQRCompressionPreference() {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences qr = preferences.node("qr");
+
+		return qr.getBoolean("compress", false);
+	}
+
+	public static void setQRCompressionPreference(boolean enabled) {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences qr = preferences.node("qr");
+
+		if(qr.getBoolean("compress", false) != enabled) {
+			qr.putBoolean("compress", enabled);
+			
+			try {
+				  // Forces the application to save the preferences
+				  preferences.flush();
+			} catch (BackingStoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Wrap the NDEF message in a compressed envelope, if enabled and if that gives a smaller QR code.
+	 * 
+	 */
+	
+	public static byte[] toBinaryQRPayload(byte[] ndef) {
+		if(ndef.length > 0 && isQRCompressionPreference()) {
+			return CompressedPayload.compressIfSmaller(ndef);
+		}
+		return ndef;
+	}
 
 	// IEditorInput input = getEditorInput();
 	
@@ -104,6 +154,23 @@ public class NdefModelOperator implements NdefRecordModelChangeListener {
 	}
 	
 	private BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+	
+	/** Idle time in milliseconds before a draft QR code is replaced by the optimal one */
+	private static final int BINARY_QR_REFINE_DELAY = 500;
+	
+	/**
+	 * 
+	 * What is currently shown in a QR code label. The same model may be shown in several labels (i.e. editor pages).
+	 * 
+	 */
+	
+	private static class BinaryQR {
+		private NdefQRStream stream;
+		private Runnable refinement;
+		private Image image;
+	}
+
+	private Map<Label, BinaryQR> binaryQRs = new HashMap<Label, BinaryQR>();
 
 	private NdefRecordModelFactory ndefRecordModelFactory = new NdefRecordModelFactory();
 
@@ -297,64 +364,246 @@ public class NdefModelOperator implements NdefRecordModelChangeListener {
 	public NdefRecordModelParent getModel() {
 		return model;
 	}
+	/**
+	 * 
+	 * Show the NDEF message as a binary QR code. A single QR code is first rendered as a draft (without the full mask search)
+	 * for a quick response while editing, then refined once the editor has been idle for a while.
+	 * 
+	 */
+	
 	public boolean refreshBinaryQR(Label label) {
+		return refreshBinaryQR(label, true);
+	}
+
+	private boolean refreshBinaryQR(Label label, boolean draft) {
 		
 		// implementation note: Label seems to display an image OR an label, whatever is set last.
+		BinaryQR binaryQR = getBinaryQR(label);
+		stopQRStream(binaryQR);
+		cancelBinaryQRRefinement(binaryQR);
+		
 		try {
 
-			byte[] ndef = toNdefMessage();
+			byte[] ndef = toBinaryQRPayload(toNdefMessage());
 
 			if(ndef.length > 0) {
 				// do not encode if too large. the encoding takes a lot of time to fail
-				if(ndef.length > MAX_BINARY_QR_PAYLOAD) {
-					label.setText("NDEF payload size of " + ndef.length + " exceeeds QR code capacity of " + NdefModelOperator.MAX_BINARY_QR_PAYLOAD + " by " + (ndef.length - NdefModelOperator.MAX_BINARY_QR_PAYLOAD) + " bytes.\nIf you wish to use larger payloads:\n - use a NFC reader terminal, or\n - transfer as file to phone memory and use 'Load file' option.");
-					
-					Activator.info("NDEF size is too large, " + ndef.length);
-
+				QrCapacityPlanner.Plan plan = QrCapacityPlanner.plan(ndef.length);
+				if(plan == null) {
+					if(ndef.length > StructuredAppend.getMaxPayload(ErrorCorrectionLevel.L) || NdefQRStream.isStreamPreference()) {
+						setBinaryQRImage(label, binaryQR, null);
+
+						NdefQRStream stream = new NdefQRStream(label, ndef);
+						stream.start();
+						
+						binaryQR.stream = stream;
+						
+						Activator.info("NDEF size is " + ndef.length + ", stream " + stream.getBlockCount() + " blocks at " + stream.getThroughput() + " bytes/s");
+					} else {
+						refreshStructuredAppendQR(label, binaryQR, ndef);
+					}
 				} else {
 					Point size = label.getSize();
 
 					int parent = Math.min(size.x, size.y);
 
 					writer.setAligment(0, 0);
+					writer.setDraft(draft);
+
+					// use the strongest error correction which does not increase the version
+					Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+					hints.put(EncodeHintType.ERROR_CORRECTION, plan.getErrorCorrectionLevel());
 
 					//get a byte matrix for the data
-					BitMatrix matrix = writer.encode(ndef, com.google.zxing.BarcodeFormat.QR_CODE, parent, parent);
+					BitMatrix matrix = writer.encode(ndef, com.google.zxing.BarcodeFormat.QR_CODE, parent, parent, hints);
 
 					//generate an image from the byte matrix
 					int width = matrix.getWidth(); 
 					int height = matrix.getHeight(); 
 
 					//create buffered image to draw to
-					ImageData imageData = new ImageData(width, height, 1, new PaletteData(new RGB[]{new RGB(0xFF, 0xFF, 0xFF), new RGB(0x00, 0x00, 0x00)}));
-					//iterate through the matrix and draw the pixels to the image
-					for (int y = 0; y < height; y++) { 
-						for (int x = 0; x < width; x++) { 
-							int grayValue = matrix.get(x, y) ? 0 : 0xff; 
-							imageData.setPixel(x, y, (grayValue != 0 ? 0 : 0xFFFFFF));
-						}
-					}
+					ImageData imageData = createImageData(width, height);
+					drawMatrix(imageData, matrix, 0, 0);
 
-					label.setImage(new Image(getDisplay(), imageData));
-					Activator.info("NDEF size is " + ndef.length + ", set image size " + parent + "x" + parent);
+					setBinaryQRImage(label, binaryQR, new Image(getDisplay(), imageData));
+					Activator.info("NDEF size is " + ndef.length + ", " + (draft ? "draft " : "") + "QR code " + plan + " with " + plan.getRemainingBytes() + " bytes to spare, set image size " + parent + "x" + parent);
+					
+					if(draft) {
+						scheduleBinaryQRRefinement(label, binaryQR);
+					}
 				}
 				
 				return true;
 			} else {
 				Activator.info("NDEF size is zero");
 				
-				label.setImage(null);
+				setBinaryQRImage(label, binaryQR, null);
 			}
 		} catch(NdefEncoderException e) {
 			Activator.error("Cannot create: " + e.getMessage());
-			label.setImage(null);
+			setBinaryQRImage(label, binaryQR, null);
 		} catch (Exception e) {
 			Activator.error("Cannot create ", e);
-			label.setImage(null);
+			setBinaryQRImage(label, binaryQR, null);
 		}
 		return false;
 	}
 
+	/**
+	 * 
+	 * Show a message too large for a single QR code as a grid of structured append QR codes, in reading order.
+	 * 
+	 */
+
+	private void refreshStructuredAppendQR(Label label, BinaryQR binaryQR, byte[] ndef) throws WriterException {
+		int count = StructuredAppend.getSymbolCount(ndef.length, ErrorCorrectionLevel.L);
+		
+		int columns = (int)Math.ceil(Math.sqrt(count));
+		int rows = (count + columns - 1) / columns;
+
+		Point size = label.getSize();
+		int cell = Math.min(size.x / columns, size.y / rows);
+
+		writer.setAligment(0, 0);
+
+		BitMatrix[] matrices = writer.encodeStructuredAppend(ndef, com.google.zxing.BarcodeFormat.QR_CODE, cell, cell, null);
+
+		// symbols are at least as large as the requested cell size, including quiet zone
+		int cellWidth = 0;
+		int cellHeight = 0;
+		for(BitMatrix matrix : matrices) {
+			cellWidth = Math.max(cellWidth, matrix.getWidth());
+			cellHeight = Math.max(cellHeight, matrix.getHeight());
+		}
+		
+		ImageData imageData = createImageData(cellWidth * columns, cellHeight * rows);
+		for(int i = 0; i < matrices.length; i++) {
+			drawMatrix(imageData, matrices[i], (i % columns) * cellWidth, (i / columns) * cellHeight);
+		}
+
+		setBinaryQRImage(label, binaryQR, new Image(getDisplay(), imageData));
+		Activator.info("NDEF size is " + ndef.length + ", " + count + " structured append QR codes, set image size " + imageData.width + "x" + imageData.height);
+	}
+	
+	private BinaryQR getBinaryQR(final Label label) {
+		BinaryQR binaryQR = binaryQRs.get(label);
+		if(binaryQR == null) {
+			binaryQR = new BinaryQR();
+			binaryQRs.put(label, binaryQR);
+			
+			label.addDisposeListener(new DisposeListener() {
+				@Override
+				public void widgetDisposed(DisposeEvent e) {
+					disposeBinaryQR(label);
+				}
+			});
+		}
+		return binaryQR;
+	}
+
+	private void setBinaryQRImage(Label label, BinaryQR binaryQR, Image image) {
+		if(!label.isDisposed()) {
+			label.setImage(image);
+		}
+		
+		if(binaryQR.image != null) {
+			binaryQR.image.dispose();
+		}
+		binaryQR.image = image;
+	}
+
+	private void scheduleBinaryQRRefinement(final Label label, final BinaryQR binaryQR) {
+		binaryQR.refinement = new Runnable() {
+			@Override
+			public void run() {
+				binaryQR.refinement = null;
+				
+				if(!label.isDisposed()) {
+					refreshBinaryQR(label, false);
+				}
+			}
+		};
+		label.getDisplay().timerExec(BINARY_QR_REFINE_DELAY, binaryQR.refinement);
+	}
+
+	private void cancelBinaryQRRefinement(BinaryQR binaryQR) {
+		if(binaryQR.refinement != null) {
+			getDisplay().timerExec(-1, binaryQR.refinement);
+			
+			binaryQR.refinement = null;
+		}
+	}
+
+	private void stopQRStream(BinaryQR binaryQR) {
+		if(binaryQR.stream != null) {
+			binaryQR.stream.stop();
+			binaryQR.stream = null;
+		}
+	}
+
+	/**
+	 * 
+	 * Stop cycling QR code frames and pending refinement for a label, and dispose the image it shows.
+	 * 
+	 */
+	
+	public void disposeBinaryQR(Label label) {
+		BinaryQR binaryQR = binaryQRs.remove(label);
+		if(binaryQR != null) {
+			stopQRStream(binaryQR);
+			cancelBinaryQRRefinement(binaryQR);
+			setBinaryQRImage(label, binaryQR, null);
+		}
+	}
+	
+	static ImageData createImageData(int width, int height) {
+		return new ImageData(width, height, 1, new PaletteData(new RGB[]{new RGB(0xFF, 0xFF, 0xFF), new RGB(0x00, 0x00, 0x00)}));
+	}
+
+	static void drawMatrix(ImageData imageData, BitMatrix matrix, int left, int top) {
+		int width = matrix.getWidth(); 
+		int height = matrix.getHeight(); 
+
+		//iterate through the matrix and draw the pixels to the image
+		for (int y = 0; y < height; y++) { 
+			for (int x = 0; x < width; x++) { 
+				int grayValue = matrix.get(x, y) ? 0 : 0xff; 
+				imageData.setPixel(left + x, top + y, (grayValue != 0 ? 0 : 0xFFFFFF));
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Describe how a message fits in a binary QR code, for use in the status line.
+	 * 
+	 * @param ndef NDEF message
+	 * @return short description of compressed size, QR code version and error correction level
+	 */
+	
+	public static String getBinaryQRSummary(byte[] ndef) {
+		if(ndef.length == 0) {
+			return "no QR";
+		}
+		byte[] payload = toBinaryQRPayload(ndef);
+		if(payload != ndef) {
+			return "deflated to " + payload.length + " bytes, " + getBinaryQRSummary(payload.length);
+		}
+		return getBinaryQRSummary(ndef.length);
+	}
+
+	private static String getBinaryQRSummary(int length) {
+		QrCapacityPlanner.Plan plan = QrCapacityPlanner.plan(length);
+		if(plan == null) {
+			int count = StructuredAppend.getSymbolCount(length, ErrorCorrectionLevel.L);
+			if(count == -1 || NdefQRStream.isStreamPreference()) {
+				return "QR stream of " + NdefQRStream.getMinimumFrames(length) + "+ frames";
+			}
+			return count + " QR codes";
+		}
+		return "QR " + plan + ", " + plan.getRemainingBytes() + " bytes free";
+	}
+
 	public static Display getDisplay() {
 	      Display display = Display.getCurrent();
 	      //may be null if outside the UI thread
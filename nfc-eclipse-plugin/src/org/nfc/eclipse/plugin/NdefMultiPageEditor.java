@@ -193,6 +193,7 @@ public class NdefMultiPageEditor extends MultiPageEditorPart implements IResourc
 	 */
 	public void dispose() {
 		ResourcesPlugin.getWorkspace().removeResourceChangeListener(this);
+		modelOperator.disposeBinaryQR(binaryQRLabel);
 		super.dispose();
 	}
 	/**
@@ -0,0 +1,245 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.core.runtime.preferences.ConfigurationScope;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.swt.widgets.DirectoryDialog;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.ui.handlers.HandlerUtil;
+import org.osgi.service.prefs.Preferences;
+
+import com.google.zxing.qrcode.binary.BinaryQRExporter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * 
+ * Export the selected NDEF files, or all NDEF files in the selected folders, as binary QR code images. 
+ * The folder structure below the selection is mirrored in the output directory, so that files with the 
+ * same name in different folders do not overwrite each other. Output format, module size, quiet zone and error correction level are read from the preferences.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefQRExportHandler extends AbstractHandler {
+
+	public static BinaryQRExporter createExporter() {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences export = preferences.node("qr").node("export");
+		
+		BinaryQRExporter exporter = new BinaryQRExporter();
+		
+		try {
+			exporter.setFormat(BinaryQRExporter.Format.valueOf(export.get("format", BinaryQRExporter.Format.PNG.name())));
+		} catch(IllegalArgumentException e) {
+			Activator.warn("Unknown QR export format " + export.get("format", null));
+		}
+		exporter.setModuleSize(Math.max(1, export.getInt("moduleSize", 4)));
+		exporter.setQuietZone(Math.max(0, export.getInt("quietZone", 4)));
+
+		String errorCorrection = export.get("errorCorrection", null);
+		if(errorCorrection != null) {
+			try {
+				exporter.setErrorCorrectionLevel(ErrorCorrectionLevel.valueOf(errorCorrection));
+			} catch(IllegalArgumentException e) {
+				Activator.warn("Unknown QR export error correction level " + errorCorrection);
+			}
+		}
+		
+		return exporter;
+	}
+	
+	@Override
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		Shell shell = HandlerUtil.getActiveShell(event);
+
+		final Map<File, IPath> ndefFiles = getNdefFiles(HandlerUtil.getCurrentSelection(event));
+		final List<File> files = new ArrayList<File>(ndefFiles.keySet());
+		if(files.isEmpty()) {
+			MessageDialog.openInformation(shell, "Export QR codes", "No NDEF files selected.");
+			
+			return null;
+		}
+		
+		DirectoryDialog dialog = new DirectoryDialog(shell);
+		dialog.setText("Export QR codes");
+		dialog.setMessage("Export " + files.size() + " NDEF file(s) as QR codes to");
+		dialog.setFilterPath(files.get(0).getParent());
+		
+		String directory = dialog.open();
+		if(directory == null) {
+			return null;
+		}
+		final File outputDirectory = new File(directory);
+		
+		Job job = new Job("Export QR codes") {
+			@Override
+			protected IStatus run(final IProgressMonitor monitor) {
+				BinaryQRExporter exporter = createExporter();
+				
+				List<File> outputs = new ArrayList<File>(files.size());
+				for(File file : files) {
+					outputs.add(exporter.getOutputFile(file, new File(outputDirectory, ndefFiles.get(file).removeLastSegments(1).toOSString())));
+				}
+				
+				monitor.beginTask("Export QR codes", files.size());
+				
+				List<BinaryQRExporter.Result> results;
+				try {
+					results = exporter.export(files, outputs, new BinaryQRExporter.Progress() {
+						
+						@Override
+						public boolean isCanceled() {
+							return monitor.isCanceled();
+						}
+						
+						@Override
+						public void exported(BinaryQRExporter.Result result) {
+							monitor.subTask(result.getInput().getName());
+							monitor.worked(1);
+						}
+					});
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					
+					return Status.CANCEL_STATUS;
+				} finally {
+					monitor.done();
+				}
+				
+				int failed = 0;
+				for(BinaryQRExporter.Result result : results) {
+					if(!result.isSuccess()) {
+						Activator.warn(result.toString());
+						
+						failed++;
+					}
+				}
+				
+				refresh(outputDirectory, null);
+				
+				if(monitor.isCanceled()) {
+					Activator.info("Export of QR codes canceled, exported " + (results.size() - failed) + " of " + results.size());
+					
+					return Status.CANCEL_STATUS;
+				}
+				
+				String message = "Exported " + (results.size() - failed) + " of " + results.size() + " QR codes as " + exporter.getFormat() + " to " + outputDirectory;
+				if(failed > 0) {
+					return new Status(IStatus.WARNING, Activator.PLUGIN_ID, message + ", see log for failures");
+				}
+				Activator.info(message);
+				
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+		
+		return null;
+	}
+
+	private static void refresh(File directory, IProgressMonitor monitor) {
+		for(IContainer container : ResourcesPlugin.getWorkspace().getRoot().findContainersForLocationURI(directory.toURI())) {
+			try {
+				container.refreshLocal(IResource.DEPTH_INFINITE, monitor);
+			} catch (CoreException e) {
+				Activator.warn("Unable to refresh " + container, e);
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * @return NDEF files, each with its path relative to the parent of the selected resource it was found in
+	 */
+	
+	private static Map<File, IPath> getNdefFiles(ISelection selection) {
+		final Map<File, IPath> files = new LinkedHashMap<File, IPath>();
+
+		if(selection instanceof IStructuredSelection) {
+			Iterator<?> iterator = ((IStructuredSelection)selection).iterator();
+			while(iterator.hasNext()) {
+				Object element = iterator.next();
+				
+				IResource resource = null;
+				if(element instanceof IResource) {
+					resource = (IResource)element;
+				} else if(element instanceof IAdaptable) {
+					resource = (IResource)((IAdaptable)element).getAdapter(IResource.class);
+				}
+				if(resource == null) {
+					continue;
+				}
+				
+				final IPath base = resource.getFullPath().removeLastSegments(1);
+				try {
+					resource.accept(new IResourceVisitor() {
+						@Override
+						public boolean visit(IResource resource) throws CoreException {
+							if(resource instanceof IFile && "ndef".equals(resource.getFileExtension()) && resource.getLocation() != null) {
+								File file = resource.getLocation().toFile();
+								if(!files.containsKey(file)) {
+									files.put(file, resource.getFullPath().makeRelativeTo(base));
+								}
+							}
+							return true;
+						}
+					});
+				} catch (CoreException e) {
+					Activator.warn("Unable to list " + resource, e);
+				}
+			}
+		}
+		return files;
+	}
+}
@@ -0,0 +1,246 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.preferences.ConfigurationScope;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.binary.FountainCode;
+import com.google.zxing.qrcode.binary.FountainEncoder;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * 
+ * Animated QR code: cycles through an endless sequence of fountain coded frames, so that a scanner can reconstruct 
+ * the NDEF message from any sufficiently large subset of frames. Frame size (QR version) and frame rate are read from the preferences.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefQRStream implements Runnable {
+
+	public static final int DEFAULT_FRAME_VERSION = 10;
+	public static final int DEFAULT_FRAME_RATE = 5;
+
+	private static final ErrorCorrectionLevel FRAME_ERROR_CORRECTION = ErrorCorrectionLevel.L;
+
+	public static boolean isStreamPreference() {
+		return getPreferences().getBoolean("stream", false);
+	}
+
+	public static void setStreamPreference(boolean enabled) {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences qr = preferences.node("qr");
+
+		if(qr.getBoolean("stream", false) != enabled) {
+			qr.putBoolean("stream", enabled);
+			
+			try {
+				  // Forces the application to save the preferences
+				  preferences.flush();
+			} catch (BackingStoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return QR code version of each frame, determines the throughput per frame
+	 */
+	
+	public static int getFrameVersionPreference() {
+		int version = getPreferences().getInt("frameVersion", DEFAULT_FRAME_VERSION);
+		
+		return Math.max(5, Math.min(40, version));
+	}
+
+	public static void setFrameVersionPreference(int version) {
+		setPreference("frameVersion", version);
+	}
+
+	/**
+	 * 
+	 * @return frames per second
+	 */
+
+	public static int getFrameRatePreference() {
+		int rate = getPreferences().getInt("frameRate", DEFAULT_FRAME_RATE);
+		
+		return Math.max(1, Math.min(30, rate));
+	}
+
+	public static void setFrameRatePreference(int rate) {
+		setPreference("frameRate", rate);
+	}
+
+	private static void setPreference(String key, int value) {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences qr = preferences.node("qr");
+
+		if(qr.getInt(key, -1) != value) {
+			qr.putInt(key, value);
+			
+			try {
+				  // Forces the application to save the preferences
+				  preferences.flush();
+			} catch (BackingStoreException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private static Preferences getPreferences() {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		return preferences.node("qr");
+	}
+
+	/**
+	 * 
+	 * @return number of frames a scanner needs at a minimum, given the current preferences
+	 */
+	
+	public static int getMinimumFrames(int length) {
+		return FountainCode.getBlockCount(length, FountainCode.getBlockSize(getFrameVersionPreference(), FRAME_ERROR_CORRECTION));
+	}
+
+	private final Label label;
+	private final FountainEncoder encoder;
+	private final int delay;
+	
+	private BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+	private Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+
+	private Image image;
+	private boolean running = false;
+
+	public NdefQRStream(Label label, byte[] ndef) {
+		this(label, ndef, getFrameVersionPreference(), getFrameRatePreference());
+	}
+
+	public NdefQRStream(Label label, byte[] ndef, int frameVersion, int frameRate) {
+		this.label = label;
+		this.encoder = new FountainEncoder(ndef, FountainCode.getBlockSize(frameVersion, FRAME_ERROR_CORRECTION));
+		this.delay = 1000 / frameRate;
+		
+		hints.put(EncodeHintType.ERROR_CORRECTION, FRAME_ERROR_CORRECTION);
+		writer.setAligment(0, 0);
+	}
+
+	public int getBlockCount() {
+		return encoder.getBlockCount();
+	}
+	
+	/**
+	 * 
+	 * @return payload bytes per second
+	 */
+	
+	public int getThroughput() {
+		return encoder.getBlockSize() * 1000 / delay;
+	}
+
+	public void start() {
+		running = true;
+		
+		label.getDisplay().timerExec(0, this);
+	}
+
+	public void stop() {
+		running = false;
+		
+		if(!label.isDisposed()) {
+			label.getDisplay().timerExec(-1, this);
+		}
+		disposeImage();
+	}
+
+	private void disposeImage() {
+		if(image != null) {
+			// do not leave the label showing a disposed image
+			if(!label.isDisposed() && label.getImage() == image) {
+				label.setImage(null);
+			}
+			image.dispose();
+			image = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		if(!running) {
+			return;
+		}
+		if(label.isDisposed()) {
+			running = false;
+			disposeImage();
+			
+			return;
+		}
+		
+		Display display = label.getDisplay();
+		try {
+			Point size = label.getSize();
+			int parent = Math.min(size.x, size.y);
+
+			BitMatrix matrix = writer.encode(encoder.nextFrame(), com.google.zxing.BarcodeFormat.QR_CODE, parent, parent, hints);
+
+			ImageData imageData = NdefModelOperator.createImageData(matrix.getWidth(), matrix.getHeight());
+			NdefModelOperator.drawMatrix(imageData, matrix, 0, 0);
+
+			Image previous = image;
+			image = new Image(display, imageData);
+			label.setImage(image);
+			
+			if(previous != null) {
+				previous.dispose();
+			}
+		} catch (WriterException e) {
+			Activator.error("Cannot create QR frame", e);
+			
+			running = false;
+			
+			return;
+		}
+		
+		display.timerExec(delay, this);
+	}
+}
@@ -30,8 +30,12 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.jface.action.Action;
 import org.eclipse.jface.action.IMenuListener;
@@ -50,14 +54,27 @@ import org.eclipse.swt.widgets.Shell;
 import org.eclipse.ui.PlatformUI;
 import org.nfc.eclipse.plugin.Activator;
 import org.nfc.eclipse.plugin.NdefEditorPart;
+import org.nfc.eclipse.plugin.NdefModelOperator;
 import org.nfc.eclipse.plugin.NdefMultiPageEditor;
+import org.nfc.eclipse.plugin.NdefQREditorPart;
+import org.nfc.eclipse.plugin.NdefQRStream;
 import org.nfc.eclipse.plugin.model.editing.DefaultRecordEditingSupport;
 import org.nfc.eclipse.plugin.model.editing.ExternalTypeRecordEditingSupport;
 import org.nfc.eclipse.plugin.model.editing.MimeRecordEditingSupport;
 import org.nfc.eclipse.plugin.model.editing.UnknownRecordEditingSupport;
 import org.nfc.eclipse.plugin.operation.NdefModelOperation;
+import org.nfc.eclipse.plugin.terminal.NdefCaptureDialog;
+import org.nfc.eclipse.plugin.terminal.NdefCaptureFile;
+import org.nfc.eclipse.plugin.terminal.NdefCaptureIndex;
+import org.nfc.eclipse.plugin.terminal.NdefMessageTemplate;
+import org.nfc.eclipse.plugin.terminal.NdefProvisioner;
+import org.nfc.eclipse.plugin.terminal.NdefTagImage;
+import org.nfc.eclipse.plugin.terminal.NdefTagImageDialog;
+import org.nfc.eclipse.plugin.terminal.NdefTerminalCommand;
 import org.nfc.eclipse.plugin.terminal.NdefTerminalListener;
 import org.nfc.eclipse.plugin.terminal.NdefTerminalWrapper;
+import org.nfc.eclipse.plugin.terminal.NdefTerminalWriteCommand;
+import org.nfc.eclipse.plugin.terminal.NdefType2Operations;
 import org.nfc.eclipse.plugin.util.FileDialogUtil;
 import org.nfctools.ndef.NdefContext;
 import org.nfctools.ndef.NdefMessageEncoder;
@@ -227,13 +244,105 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 	private AutoWriteTerminal autoWriteTerminal = new AutoWriteTerminal();
 	private FormatTerminal formatTerminal = new FormatTerminal();
 	private ReadOnlyTerminal readOnlyTerminal = new ReadOnlyTerminal();
+	private ProvisionTerminal provisionTerminal = new ProvisionTerminal();
+	private ProvisionVerifyTerminal provisionVerifyTerminal = new ProvisionVerifyTerminal();
+	private ProvisionReadOnlyTerminal provisionReadOnlyTerminal = new ProvisionReadOnlyTerminal();
+	private CaptureTerminal captureTerminal = new CaptureTerminal();
+	private OpenCaptureTerminal openCaptureTerminal = new OpenCaptureTerminal();
+	private DumpTerminal dumpTerminal = new DumpTerminal();
+	private RestoreTerminal restoreTerminal = new RestoreTerminal();
+	private CloneTerminal cloneTerminal = new CloneTerminal();
+	private OpenImageTerminal openImageTerminal = new OpenImageTerminal();
 	private DisableTerminal disableTerminals = new DisableTerminal();
 	private EnableTerminal enableTerminals = new EnableTerminal();
 	
+	// binary QR code
+	private QRCompress qrCompress = new QRCompress();
+	private QRStream qrStream = new QRStream();
+	private QRFrameVersion[] qrFrameVersions = new QRFrameVersion[]{new QRFrameVersion(5), new QRFrameVersion(10), new QRFrameVersion(15), new QRFrameVersion(20), new QRFrameVersion(25)};
+	private QRFrameRate[] qrFrameRates = new QRFrameRate[]{new QRFrameRate(2), new QRFrameRate(5), new QRFrameRate(10), new QRFrameRate(15)};
+	
 	// mime content
 	private SaveContentAction saveContent;
 	private ReloadContentAction reloadContent;
 
+	private class QRCompress extends Action {
+		
+		public QRCompress() {
+			super("Compress", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			NdefModelOperator.setQRCompressionPreference(isChecked());
+			
+			refreshBinaryQR();
+		}
+	}
+
+	private class QRStream extends Action {
+		
+		public QRStream() {
+			super("Animate instead of several codes", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			NdefQRStream.setStreamPreference(isChecked());
+			
+			refreshBinaryQR();
+		}
+	}
+
+	private class QRFrameVersion extends Action {
+		
+		private final int version;
+		
+		public QRFrameVersion(int version) {
+			super("Version " + version, Action.AS_RADIO_BUTTON);
+			
+			this.version = version;
+		}
+		
+		@Override
+		public void run() {
+			if(isChecked()) {
+				NdefQRStream.setFrameVersionPreference(version);
+				
+				refreshBinaryQR();
+			}
+		}
+	}
+
+	private class QRFrameRate extends Action {
+		
+		private final int rate;
+		
+		public QRFrameRate(int rate) {
+			super(rate + " frames per second", Action.AS_RADIO_BUTTON);
+			
+			this.rate = rate;
+		}
+		
+		@Override
+		public void run() {
+			if(isChecked()) {
+				NdefQRStream.setFrameRatePreference(rate);
+				
+				refreshBinaryQR();
+			}
+		}
+	}
+	
+	private void refreshBinaryQR() {
+		if(editorPart instanceof NdefQREditorPart) {
+			((NdefQREditorPart)editorPart).refreshBinaryQR();
+		}
+		ndefMultiPageEditor.refreshBinaryQR();
+		
+		editorPart.refreshStatusLine();
+	}
+
 	private class WriteTerminal extends Action {
 		
 		public WriteTerminal() {	
@@ -244,23 +353,30 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 		public void run() {
 			Activator.info("Export to terminal");
 			
-			List<Record> ndefContent = ndefMultiPageEditor.getNdefRecords();
+			// encode here, the records belong to the editor
+			byte[] ndef;
+			try {
+				ndef = NdefContext.getNdefMessageEncoder().encode(ndefMultiPageEditor.getNdefRecords());
+			} catch(Exception e) {
+				editorPart.setStatus("Write failed: " + e.getMessage());
+				
+				return;
+			}
 			
-			NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-
-			if(ndefOperations != null) {
-
-				try {
-					if(!ndefOperations.isFormatted()) {
-						ndefOperations.format(ndefContent.toArray(new Record[ndefContent.size()]));
-					} else {
-						ndefOperations.writeNdefMessage(ndefContent.toArray(new Record[ndefContent.size()]));
-					}
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalWriteCommand("Write", NdefTerminalCommand.DEFAULT_TIMEOUT, 1, ndef) {
+				
+				@Override
+				protected void onSuccess(Void result) {
 					editorPart.setStatus("Write successful");
-				} catch(Exception e) {
-					editorPart.setStatus("Write failed: " + e.toString());
 				}
-			} else {
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Write failed: " + message);
+				}
+			});
+			
+			if(!submitted) {
 				editorPart.setStatus("Operation not possible");
 			}
 		}
@@ -276,23 +392,30 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 		public void run() {
 			Activator.info("Import from terminal");
 			
-			NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-			
-			if(ndefOperations != null) {
-				try {
-					List<Record> readNdefMessage;
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalCommand<List<Record>>("Read", NdefTerminalCommand.DEFAULT_TIMEOUT, 2) {
+				
+				@Override
+				protected List<Record> execute(NdefOperations ndefOperations) {
 					if(ndefOperations.isFormatted()) {
-						readNdefMessage = ndefOperations.readNdefMessage();
+						return ndefOperations.readNdefMessage();
 					} else {
-						readNdefMessage = new ArrayList<Record>();
+						return new ArrayList<Record>();
 					}
-		
+				}
+				
+				@Override
+				protected void onSuccess(List<Record> readNdefMessage) {
 					ndefMultiPageEditor.setNdefContent(readNdefMessage);
 					editorPart.setStatus("Read successful");
-				} catch(Exception e) {
-					editorPart.setStatus("Read failed: " + e.toString());
 				}
-			} else {
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Read failed: " + message);
+				}
+			});
+			
+			if(!submitted) {
 				editorPart.setStatus("Operation not possible");
 			}
 		}
@@ -339,27 +462,38 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 			Activator.info("Automatically export to terminal");
 			
 			if(isChecked()) {
-				NdefTerminalWrapper.setNdefTerminalWriteListener(ndefMultiPageEditor);
+				// encode here, the records belong to the editor
+				byte[] ndef;
+				try {
+					ndef = NdefContext.getNdefMessageEncoder().encode(ndefMultiPageEditor.getNdefRecords());
+				} catch(Exception e) {
+					editorPart.setStatus("Auto-write failed: " + e.getMessage());
+					
+					setChecked(false);
+					
+					return;
+				}
+				
+				// also written to tags as they arrive
+				NdefTerminalWrapper.setNdefTerminalWriteListener(ndefMultiPageEditor, ndef);
 
 				// write now
-				NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-
-				if(ndefOperations != null) {
-					List<Record> ndefContent = ndefMultiPageEditor.getNdefRecords();
-
-					try {
-						if(!ndefOperations.isFormatted()) {
-							ndefOperations.format(ndefContent.toArray(new Record[ndefContent.size()]));
-						} else {
-							ndefOperations.writeNdefMessage(ndefContent.toArray(new Record[ndefContent.size()]));
+				if(NdefTerminalWrapper.getNdefOperations() != null) {
+					NdefTerminalWrapper.submitLatest(new NdefTerminalWriteCommand("Auto-write", ndef) {
+						
+						@Override
+						protected void onSuccess(Void result) {
+							editorPart.setStatus("Auto-write successful");
 						}
-						editorPart.setStatus("Auto-write successful");
-					} catch(Exception e) {
-						editorPart.setStatus("Auto-write failed: " + e.toString());
-					}
+						
+						@Override
+						protected void onFailure(String message) {
+							editorPart.setStatus("Auto-write failed: " + message);
+						}
+					});
 				}					
 			} else {
-				NdefTerminalWrapper.setNdefTerminalWriteListener(null);
+				NdefTerminalWrapper.setNdefTerminalWriteListener(null, null);
 			}
 			
 		}
@@ -376,9 +510,9 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 			Activator.info("Automatically import from terminal");
 
 			if(isChecked()) {
-				NdefTerminalWrapper.setNdefTerminalReadListener(ndefMultiPageEditor);
+				NdefTerminalWrapper.addNdefTerminalReadListener(ndefMultiPageEditor);
 			} else {
-				NdefTerminalWrapper.setNdefTerminalReadListener(null);
+				NdefTerminalWrapper.removeNdefTerminalReadListener(ndefMultiPageEditor);
 			}
 		}
 	}
@@ -393,17 +527,27 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 		public void run() {
 			Activator.info("Format");
 			
-			NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-
-			if(ndefOperations != null) {
-				try {
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalCommand<Void>("Format", 2 * NdefTerminalCommand.DEFAULT_TIMEOUT, 0) {
+				
+				@Override
+				protected Void execute(NdefOperations ndefOperations) {
 					ndefOperations.format();
 					
+					return null;
+				}
+				
+				@Override
+				protected void onSuccess(Void result) {
 					editorPart.setStatus("Format successful");
-				} catch(Exception e) {
-					editorPart.setStatus("Format failed: " + e.toString());
 				}
-			} else {
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Format failed: " + message);
+				}
+			});
+			
+			if(!submitted) {
 				editorPart.setStatus("Operation not possible");
 			}
 		}
@@ -421,23 +565,415 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 		public void run() {
 			Activator.info("Set to read only");
 			
-			NdefOperations ndefOperations = NdefTerminalWrapper.getNdefOperations();
-
-			if(ndefOperations != null) {
-				try {
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalCommand<Void>("Set read-only") {
+				
+				@Override
+				protected Void execute(NdefOperations ndefOperations) {
 					ndefOperations.makeReadOnly();
 					
+					return null;
+				}
+				
+				@Override
+				protected void onSuccess(Void result) {
 					editorPart.setStatus("Set read-only successful");
+				}
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Set read-only failed: " + message);
+				}
+			});
+			
+			if(!submitted) {
+				editorPart.setStatus("Operation not possible");
+			}
+		}
+		
+	}
+	
+	private class ProvisionTerminal extends Action {
+		
+		public ProvisionTerminal() {
+			super("Provision tags", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Provision tags");
+			
+			if(isChecked()) {
+				// each tag gets the current content of this editor
+				List<Record> records = ndefMultiPageEditor.getNdefRecords();
+				
+				boolean verify = NdefTerminalWrapper.isProvisionVerifyPreference();
+				boolean readOnly = NdefTerminalWrapper.isProvisionReadOnlyPreference();
+				
+				NdefProvisioner ndefProvisioner;
+				try {
+					// placeholders like {uid}, {counter} or {name:width} make a template
+					NdefMessageTemplate template = NdefMessageTemplate.compile(records);
+					if(template.getNames().isEmpty()) {
+						ndefProvisioner = new NdefProvisioner(NdefProvisioner.repeat(records, 0), verify, readOnly);
+					} else {
+						List<Map<String, String>> rows = null;
+						
+						Set<String> names = new HashSet<String>(template.getNames());
+						names.remove(NdefMessageTemplate.UID);
+						names.remove(NdefMessageTemplate.COUNTER);
+						if(!names.isEmpty()) {
+							FileDialog dataDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.OPEN);
+							dataDialog.setText("Provisioning data file with columns " + names);
+							dataDialog.setFilterExtensions(new String[]{"*.csv"});
+							
+							String dataString = dataDialog.open();
+							if(dataString == null) {
+								setChecked(false);
+								
+								return;
+							}
+							rows = NdefProvisioner.readRows(new File(dataString), template);
+						}
+						ndefProvisioner = new NdefProvisioner(template, rows != null ? rows.iterator() : null, verify, readOnly);
+					}
 				} catch(Exception e) {
-					editorPart.setStatus("Set read-only failed: " + e.toString());
+					editorPart.setStatus("Unable to provision: " + e.getMessage());
+					
+					setChecked(false);
+					
+					return;
+				}
+				
+				// optional audit log
+				FileDialog fileDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.SAVE);
+				fileDialog.setText("Provisioning audit log (cancel for none)");
+				fileDialog.setFilterExtensions(new String[]{"*.csv"});
+				
+				String fileString = fileDialog.open();
+				if(fileString != null) {
+					try {
+						ndefProvisioner.setAuditLog(new OutputStreamWriter(new FileOutputStream(fileString, true), "UTF-8"));
+					} catch(IOException e) {
+						editorPart.setStatus("Unable to open audit log: " + e.toString());
+						
+						setChecked(false);
+						
+						return;
+					}
+				}
+				
+				ndefProvisioner.start();
+				
+				NdefTerminalWrapper.setNdefProvisioner(ndefProvisioner);
+
+				editorPart.setStatus("Provisioning started, present tags to the readers");
+			} else {
+				NdefProvisioner ndefProvisioner = NdefTerminalWrapper.getNdefProvisioner();
+				
+				NdefTerminalWrapper.setNdefProvisioner(null);
+				
+				if(ndefProvisioner != null) {
+					editorPart.setStatus("Provisioning stopped. " + ndefProvisioner.getStatistics());
+				}
+			}
+		}
+	}
+
+	private class ProvisionVerifyTerminal extends Action {
+		
+		public ProvisionVerifyTerminal() {
+			super("Verify after write", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			NdefTerminalWrapper.setProvisionVerifyPreference(isChecked());
+		}
+	}
+
+	private class ProvisionReadOnlyTerminal extends Action {
+		
+		public ProvisionReadOnlyTerminal() {
+			super("Set read-only after write", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			NdefTerminalWrapper.setProvisionReadOnlyPreference(isChecked());
+		}
+	}
+
+	private class CaptureTerminal extends Action {
+		
+		public CaptureTerminal() {
+			super("Capture tags", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Capture tags");
+			
+			if(isChecked()) {
+				FileDialog fileDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.SAVE);
+				fileDialog.setText("Capture file (new captures are appended)");
+				fileDialog.setFilterExtensions(new String[]{"*.ndefcapture"});
+				
+				String fileString = fileDialog.open();
+				if(fileString == null) {
+					setChecked(false);
+					
+					return;
+				}
+				
+				try {
+					NdefTerminalWrapper.setCaptureFile(new NdefCaptureFile(new File(fileString)));
+				} catch(IOException e) {
+					editorPart.setStatus("Unable to open capture file: " + e.getMessage());
+					
+					setChecked(false);
+					
+					return;
 				}
+				
+				editorPart.setStatus("Capturing started, tags are captured instead of opened in new editors");
 			} else {
+				NdefCaptureFile captureFile = NdefTerminalWrapper.getCaptureFile();
+				
+				NdefTerminalWrapper.setCaptureFile(null);
+				
+				if(captureFile != null) {
+					editorPart.setStatus("Capturing stopped, " + captureFile.getCount() + " tags in " + captureFile.getFile().getName());
+				}
+			}
+		}
+	}
+
+	private class OpenCaptureTerminal extends Action {
+		
+		public OpenCaptureTerminal() {
+			super("Open capture file...");
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Open capture file");
+			
+			Shell shell = treeViewer.getTree().getShell();
+			
+			FileDialog fileDialog = new FileDialog(shell, SWT.OPEN);
+			fileDialog.setText("Capture file");
+			fileDialog.setFilterExtensions(new String[]{"*.ndefcapture"});
+			
+			String fileString = fileDialog.open();
+			if(fileString != null) {
+				// make recent captures visible
+				NdefCaptureFile captureFile = NdefTerminalWrapper.getCaptureFile();
+				if(captureFile != null) {
+					try {
+						captureFile.flush();
+					} catch(IOException e) {
+						// ignore
+					}
+				}
+				
+				try {
+					new NdefCaptureDialog(shell, NdefCaptureIndex.open(new File(fileString))).open();
+				} catch(IOException e) {
+					editorPart.setStatus("Unable to open capture file: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private class DumpTerminal extends Action {
+		
+		public DumpTerminal() {
+			super("Dump tag...");
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Dump tag");
+			
+			FileDialog fileDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.SAVE);
+			fileDialog.setText("Tag image file");
+			fileDialog.setFilterExtensions(new String[]{"*.bin"});
+			
+			String fileString = fileDialog.open();
+			if(fileString == null) {
+				return;
+			}
+			final File file = new File(fileString);
+			
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalCommand<Integer>("Dump", NdefTerminalCommand.DEFAULT_TIMEOUT, 1) {
+				
+				@Override
+				protected Integer execute(NdefOperations ndefOperations) throws IOException {
+					if(!(ndefOperations instanceof NdefType2Operations)) {
+						throw new IllegalArgumentException("Not a Type 2 tag");
+					}
+					NdefTagImage tagImage = ((NdefType2Operations)ndefOperations).dump(file);
+					try {
+						return tagImage.getPageCount();
+					} finally {
+						tagImage.close();
+					}
+				}
+				
+				@Override
+				protected void onSuccess(Integer pages) {
+					editorPart.setStatus("Dumped " + pages + " pages to " + file.getName());
+				}
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Dump failed: " + message);
+				}
+			});
+			
+			if(!submitted) {
 				editorPart.setStatus("Operation not possible");
 			}
 		}
+	}
+
+	private class RestoreTerminal extends Action {
+		
+		public RestoreTerminal() {
+			super("Restore tag...");
+		}
 		
+		@Override
+		public void run() {
+			Activator.info("Restore tag");
+			
+			FileDialog fileDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.OPEN);
+			fileDialog.setText("Tag image file");
+			fileDialog.setFilterExtensions(new String[]{"*.bin"});
+			
+			String fileString = fileDialog.open();
+			if(fileString == null) {
+				return;
+			}
+			
+			final NdefTagImage tagImage;
+			try {
+				tagImage = NdefTagImage.open(new File(fileString));
+			} catch(IOException e) {
+				editorPart.setStatus("Unable to open tag image: " + e.getMessage());
+				
+				return;
+			}
+			
+			boolean submitted = NdefTerminalWrapper.submit(new NdefTerminalCommand<Integer>("Restore", NdefTerminalCommand.DEFAULT_TIMEOUT, 1) {
+				
+				@Override
+				protected Integer execute(NdefOperations ndefOperations) {
+					if(!(ndefOperations instanceof NdefType2Operations)) {
+						throw new IllegalArgumentException("Not a Type 2 tag");
+					}
+					return ((NdefType2Operations)ndefOperations).restore(tagImage);
+				}
+				
+				@Override
+				protected void onSuccess(Integer pages) {
+					editorPart.setStatus("Restored " + tagImage.getFile().getName() + ", " + pages + " pages written");
+					
+					close(tagImage);
+				}
+				
+				@Override
+				protected void onFailure(String message) {
+					editorPart.setStatus("Restore failed: " + message);
+					
+					close(tagImage);
+				}
+			});
+			
+			if(!submitted) {
+				editorPart.setStatus("Operation not possible");
+				
+				close(tagImage);
+			}
+		}
+		
+		private void close(NdefTagImage tagImage) {
+			try {
+				tagImage.close();
+			} catch(IOException e) {
+				// ignore
+			}
+		}
 	}
-	
+
+	private class CloneTerminal extends Action {
+		
+		public CloneTerminal() {
+			super("Clone to tags", Action.AS_CHECK_BOX);
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Clone to tags");
+			
+			if(isChecked()) {
+				FileDialog fileDialog = new FileDialog(treeViewer.getTree().getShell(), SWT.OPEN);
+				fileDialog.setText("Tag image to clone");
+				fileDialog.setFilterExtensions(new String[]{"*.bin"});
+				
+				String fileString = fileDialog.open();
+				if(fileString == null) {
+					setChecked(false);
+					
+					return;
+				}
+				
+				try {
+					NdefTerminalWrapper.setCloneImage(NdefTagImage.open(new File(fileString)));
+				} catch(IOException e) {
+					editorPart.setStatus("Unable to open tag image: " + e.getMessage());
+					
+					setChecked(false);
+					
+					return;
+				}
+				
+				editorPart.setStatus("Cloning started, the image is restored onto every tag presented");
+			} else {
+				NdefTerminalWrapper.setCloneImage(null);
+				
+				editorPart.setStatus("Cloning stopped");
+			}
+		}
+	}
+
+	private class OpenImageTerminal extends Action {
+		
+		public OpenImageTerminal() {
+			super("Open tag image...");
+		}
+		
+		@Override
+		public void run() {
+			Activator.info("Open tag image");
+			
+			Shell shell = treeViewer.getTree().getShell();
+			
+			FileDialog fileDialog = new FileDialog(shell, SWT.OPEN);
+			fileDialog.setText("Tag image file");
+			fileDialog.setFilterExtensions(new String[]{"*.bin"});
+			
+			String fileString = fileDialog.open();
+			if(fileString != null) {
+				try {
+					new NdefTagImageDialog(shell, NdefTagImage.open(new File(fileString))).open();
+				} catch(IOException e) {
+					editorPart.setStatus("Unable to open tag image: " + e.getMessage());
+				}
+			}
+		}
+	}
+
 	private class InsertSiblingAction extends Action {
 
 		private Class<? extends Record> recordType;
@@ -1140,6 +1676,31 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 			menuManager.add(addRootChildRecord);
 		}
 		
+		// binary QR code settings apply to all editors
+		qrCompress.setChecked(NdefModelOperator.isQRCompressionPreference());
+		qrStream.setChecked(NdefQRStream.isStreamPreference());
+		
+		MenuManager qrMenuManager = new MenuManager("QR code", null);
+		qrMenuManager.add(qrCompress);
+		qrMenuManager.add(qrStream);
+		
+		MenuManager frameVersionMenuManager = new MenuManager("Animation frame size", null);
+		for(QRFrameVersion qrFrameVersion : qrFrameVersions) {
+			qrFrameVersion.setChecked(qrFrameVersion.version == NdefQRStream.getFrameVersionPreference());
+			frameVersionMenuManager.add(qrFrameVersion);
+		}
+		qrMenuManager.add(frameVersionMenuManager);
+		
+		MenuManager frameRateMenuManager = new MenuManager("Animation frame rate", null);
+		for(QRFrameRate qrFrameRate : qrFrameRates) {
+			qrFrameRate.setChecked(qrFrameRate.rate == NdefQRStream.getFrameRatePreference());
+			frameRateMenuManager.add(qrFrameRate);
+		}
+		qrMenuManager.add(frameRateMenuManager);
+		
+		menuManager.add(new Separator());
+		menuManager.add(qrMenuManager);
+		
 			if(NdefTerminalWrapper.isAvailable()) {
 				if(NdefTerminalWrapper.isReaderEnabledPreference()) {
 
@@ -1173,16 +1734,7 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 		        			writeTerminal.setEnabled(false);
 				        }
 				        
-				        NdefTerminalListener read = NdefTerminalWrapper.getNdefTerminalReadListener();
-				        if(read != null) {
-				        	if(read != ndefMultiPageEditor) {
-				        		autoReadTerminal.setChecked(false);
-				        	} else {
-				        		autoReadTerminal.setChecked(true);
-				        	}
-				        } else {
-			        		autoReadTerminal.setChecked(false);
-				        }
+				        autoReadTerminal.setChecked(NdefTerminalWrapper.isNdefTerminalReadListener(ndefMultiPageEditor));
 
 				        NdefTerminalListener write = NdefTerminalWrapper.getNdefTerminalWriteListener();
 				        if(write != null) {
@@ -1198,6 +1750,39 @@ public class NdefRecordModelMenuListener implements IMenuListener, ISelectionCha
 				        // always present
 				        terminalMenuManager.add(autoReadTerminal);
 				        terminalMenuManager.add(autoWriteTerminal);
+				        
+				        // provisioning settings apply when provisioning is started
+				        provisionTerminal.setChecked(NdefTerminalWrapper.getNdefProvisioner() != null);
+				        provisionVerifyTerminal.setChecked(NdefTerminalWrapper.isProvisionVerifyPreference());
+				        provisionReadOnlyTerminal.setChecked(NdefTerminalWrapper.isProvisionReadOnlyPreference());
+				        
+				        MenuManager provisionMenuManager = new MenuManager("Provisioning", null);
+				        provisionMenuManager.add(provisionTerminal);
+				        provisionMenuManager.add(new Separator());
+				        provisionMenuManager.add(provisionVerifyTerminal);
+				        provisionMenuManager.add(provisionReadOnlyTerminal);
+				        terminalMenuManager.add(provisionMenuManager);
+				        
+				        // captures tags which would otherwise open in new editors
+				        captureTerminal.setChecked(NdefTerminalWrapper.getCaptureFile() != null);
+				        
+				        MenuManager captureMenuManager = new MenuManager("Capture", null);
+				        captureMenuManager.add(captureTerminal);
+				        captureMenuManager.add(openCaptureTerminal);
+				        terminalMenuManager.add(captureMenuManager);
+				        
+				        // raw memory images of Type 2 tags
+				        dumpTerminal.setEnabled(ndefOperations instanceof NdefType2Operations);
+				        restoreTerminal.setEnabled(ndefOperations instanceof NdefType2Operations && ndefOperations.isWritable());
+				        cloneTerminal.setChecked(NdefTerminalWrapper.getCloneImage() != null);
+				        
+				        MenuManager imageMenuManager = new MenuManager("Tag image", null);
+				        imageMenuManager.add(dumpTerminal);
+				        imageMenuManager.add(restoreTerminal);
+				        imageMenuManager.add(cloneTerminal);
+				        imageMenuManager.add(new Separator());
+				        imageMenuManager.add(openImageTerminal);
+				        terminalMenuManager.add(imageMenuManager);
 		
 				        if(ndefOperations != null) {
 				        	if(ndefOperations.isWritable()) {
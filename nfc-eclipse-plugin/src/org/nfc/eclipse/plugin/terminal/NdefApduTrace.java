@@ -0,0 +1,442 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.nfctools.api.Tag;
+import org.nfctools.scio.Command;
+import org.nfctools.scio.Response;
+import org.nfctools.scio.TerminalStatus;
+
+/**
+ * 
+ * Binary trace of the traffic on a terminal: status changes, tags and command/response exchanges, 
+ * each with the time since the previous event. Numbers are variable length and times are in 
+ * microseconds, so a typical exchange costs a few bytes more than its APDUs.
+ * 
+ * <pre>
+ * 4 bytes magic 'N' 'D' 'A' 'T'
+ * 4 bytes version
+ * 8 bytes start time, milliseconds since the epoch
+ * 
+ * 1 byte event kind
+ * varint microseconds since the previous event
+ * event, see {@link Kind}
+ * ...
+ * </pre>
+ * 
+ * A trace ends at the end of the file; an event which was only partially written is ignored.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefApduTrace {
+
+	static final int MAGIC = 0x4E444154;
+	static final int VERSION = 1;
+	
+	private static final int DATA_ONLY = 0x01;
+	private static final int HAS_DATA = 0x02;
+	
+	public enum Kind {
+		/** 1 byte terminal status */
+		STATUS,
+		/** UTF tag type, varint length and general bytes */
+		TAG,
+		/** Command, then 1 if there is a response followed by sw1, sw2, varint length and data, or 0 followed by UTF failure; varint duration */
+		EXCHANGE;
+	}
+	
+	/**
+	 * 
+	 * Single event in a trace.
+	 * 
+	 */
+	
+	public static class Event {
+		
+		private final Kind kind;
+		private final long time;
+		
+		private TerminalStatus status;
+		
+		private String tagType;
+		private byte[] generalBytes;
+		
+		private byte[] command;
+		private Response response;
+		private String failure;
+		private long duration;
+		
+		private Event(Kind kind, long time) {
+			this.kind = kind;
+			this.time = time;
+		}
+		
+		public Kind getKind() {
+			return kind;
+		}
+		
+		/**
+		 * 
+		 * @return microseconds since the start of the trace
+		 */
+		
+		public long getTime() {
+			return time;
+		}
+		
+		public TerminalStatus getStatus() {
+			return status;
+		}
+		
+		public String getTagType() {
+			return tagType;
+		}
+		
+		public byte[] getGeneralBytes() {
+			return generalBytes;
+		}
+		
+		/**
+		 * 
+		 * @return command in trace encoding, see {@link NdefApduTrace#encode(Command)}
+		 */
+		
+		public byte[] getCommand() {
+			return command;
+		}
+		
+		/**
+		 * 
+		 * @return response, or null if the exchange failed
+		 */
+		
+		public Response getResponse() {
+			return response;
+		}
+		
+		public String getFailure() {
+			return failure;
+		}
+		
+		/**
+		 * 
+		 * @return microseconds the exchange took
+		 */
+		
+		public long getDuration() {
+			return duration;
+		}
+		
+		@Override
+		public String toString() {
+			switch(kind) {
+			case STATUS : return time + " " + status;
+			case TAG : return time + " " + tagType + " " + NdefMessageTemplate.toHexString(generalBytes);
+			default : return time + " " + NdefMessageTemplate.toHexString(command) + " -> " + (response != null ? response : failure) + " in " + duration + "us";
+			}
+		}
+	}
+	
+	/**
+	 * 
+	 * Appends events to a trace file. Events are buffered; the buffer is flushed on status changes and when closed.
+	 * 
+	 */
+	
+	public static class Writer implements Closeable {
+		
+		private final DataOutputStream out;
+		private final long start = System.nanoTime();
+		private long previous = 0;
+		
+		public Writer(File file) throws IOException {
+			this(new FileOutputStream(file));
+		}
+		
+		public Writer(OutputStream out) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(out));
+			
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(VERSION);
+			this.out.writeLong(System.currentTimeMillis());
+		}
+		
+		public synchronized void status(TerminalStatus status) throws IOException {
+			header(Kind.STATUS, System.nanoTime());
+			out.writeByte(status.ordinal());
+			
+			// status changes are rare, and mark the end of a tag
+			out.flush();
+		}
+		
+		public synchronized void tag(Tag tag) throws IOException {
+			header(Kind.TAG, System.nanoTime());
+			out.writeUTF(tag.getTagType().name());
+			writeBytes(out, tag.getGeneralBytes() != null ? tag.getGeneralBytes() : new byte[0]);
+		}
+		
+		/**
+		 * 
+		 * @param response response, or null if the exchange failed
+		 * @param failure reason for failure, if no response
+		 * @param startNanos {@link System#nanoTime()} when the command was sent
+		 * @param endNanos {@link System#nanoTime()} when the response was received
+		 */
+		
+		public synchronized void exchange(Command command, Response response, String failure, long startNanos, long endNanos) throws IOException {
+			header(Kind.EXCHANGE, startNanos);
+			out.write(encode(command));
+			if(response != null) {
+				out.writeByte(1);
+				out.writeByte(response.getSw1());
+				out.writeByte(response.getSw2());
+				writeBytes(out, response.getData() != null ? response.getData() : new byte[0]);
+			} else {
+				out.writeByte(0);
+				out.writeUTF(failure != null ? failure : "");
+			}
+			writeVarint(out, Math.max(0, (endNanos - startNanos) / 1000));
+		}
+		
+		private void header(Kind kind, long nanos) throws IOException {
+			long time = Math.max(previous, (nanos - start) / 1000);
+			
+			out.writeByte(kind.ordinal());
+			writeVarint(out, time - previous);
+			
+			previous = time;
+		}
+		
+		public synchronized void flush() throws IOException {
+			out.flush();
+		}
+		
+		public synchronized void close() throws IOException {
+			out.close();
+		}
+	}
+	
+	/**
+	 * 
+	 * Reads the events of a trace file in order.
+	 * 
+	 */
+	
+	public static class Reader implements Closeable {
+		
+		private final DataInputStream in;
+		private final long startTime;
+		private long time = 0;
+		
+		public Reader(File file) throws IOException {
+			this(new FileInputStream(file));
+		}
+		
+		public Reader(InputStream in) throws IOException {
+			this.in = new DataInputStream(new BufferedInputStream(in));
+			try {
+				if(this.in.readInt() != MAGIC) {
+					throw new IOException("Not an APDU trace");
+				}
+				int version = this.in.readInt();
+				if(version != VERSION) {
+					throw new IOException("Unsupported APDU trace version " + version);
+				}
+				this.startTime = this.in.readLong();
+			} catch(IOException e) {
+				this.in.close();
+				
+				throw e;
+			}
+		}
+		
+		/**
+		 * 
+		 * @return when the trace was started, in milliseconds since the epoch
+		 */
+		
+		public long getStartTime() {
+			return startTime;
+		}
+		
+		/**
+		 * 
+		 * @return next event, or null at the end of the trace
+		 */
+		
+		public Event next() throws IOException {
+			int kind = in.read();
+			if(kind == -1) {
+				return null;
+			}
+			if(kind >= Kind.values().length) {
+				throw new IOException("Unknown APDU trace event " + kind);
+			}
+			try {
+				long delta = readVarint(in);
+				
+				Event event = new Event(Kind.values()[kind], time + delta);
+				switch(event.kind) {
+				case STATUS : {
+					event.status = TerminalStatus.values()[in.readUnsignedByte()];
+					break;
+				}
+				case TAG : {
+					event.tagType = in.readUTF();
+					event.generalBytes = readBytes(in);
+					break;
+				}
+				case EXCHANGE : {
+					event.command = readCommand(in);
+					if(in.readUnsignedByte() == 1) {
+						int sw1 = in.readUnsignedByte();
+						int sw2 = in.readUnsignedByte();
+						event.response = new Response(sw1, sw2, readBytes(in));
+					} else {
+						event.failure = in.readUTF();
+					}
+					event.duration = readVarint(in);
+					break;
+				}
+				}
+				time = event.time;
+				
+				return event;
+			} catch(EOFException e) {
+				// partially written
+				return null;
+			}
+		}
+		
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the command in trace encoding: flags, instruction, p1, p2, varint length and any data
+	 */
+	
+	public static byte[] encode(Command command) {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(16 + command.getLength());
+		DataOutputStream out = new DataOutputStream(bout);
+		try {
+			out.writeByte((command.isDataOnly() ? DATA_ONLY : 0) | (command.hasData() ? HAS_DATA : 0));
+			out.writeByte(command.getInstruction());
+			out.writeByte(command.getP1());
+			out.writeByte(command.getP2());
+			writeVarint(out, command.getLength());
+			if(command.hasData()) {
+				out.write(command.getData(), command.getOffset(), command.getLength());
+			}
+		} catch(IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return bout.toByteArray();
+	}
+	
+	private static byte[] readCommand(DataInputStream in) throws IOException {
+		ByteArrayOutputStream bout = new ByteArrayOutputStream(16);
+		DataOutputStream out = new DataOutputStream(bout);
+		
+		int flags = in.readUnsignedByte();
+		out.writeByte(flags);
+		out.writeByte(in.readUnsignedByte());
+		out.writeByte(in.readUnsignedByte());
+		out.writeByte(in.readUnsignedByte());
+		long length = readVarint(in);
+		writeVarint(out, length);
+		if((flags & HAS_DATA) != 0) {
+			byte[] data = new byte[(int)length];
+			in.readFully(data);
+			out.write(data);
+		}
+		return bout.toByteArray();
+	}
+	
+	/**
+	 * 
+	 * @return true if the command is the same as the command in trace encoding
+	 */
+	
+	public static boolean matches(Command command, byte[] encoded) {
+		return Arrays.equals(encode(command), encoded);
+	}
+	
+	private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+		writeVarint(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		long length = readVarint(in);
+		if(length > Integer.MAX_VALUE) {
+			throw new IOException("Length " + length);
+		}
+		byte[] bytes = new byte[(int)length];
+		in.readFully(bytes);
+		return bytes;
+	}
+	
+	private static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while((value & ~0x7FL) != 0) {
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	private static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7F) << shift;
+			if((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -0,0 +1,246 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.DoubleClickEvent;
+import org.eclipse.jface.viewers.IDoubleClickListener;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.IStorageEditorInput;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
+import org.nfc.eclipse.plugin.Activator;
+import org.nfc.eclipse.plugin.NdefMultiPageEditor;
+import org.nfc.eclipse.plugin.terminal.NdefCaptureFile.Capture;
+
+/**
+ * 
+ * Modeless list of captured tags. The table is virtual, so only the rows which are shown are read 
+ * from the capture file (a page at a time), and an editor is opened only for the captures 
+ * the user opens.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefCaptureDialog extends Dialog {
+
+	private static final String[] COLUMNS = new String[]{"Time", "Reader", "Tag", "Type", "Status", "Size"};
+	private static final int[] WIDTHS = new int[]{150, 150, 130, 130, 100, 60};
+	
+	private final NdefCaptureIndex index;
+	
+	private final DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private TableViewer tableViewer;
+	
+	/**
+	 * 
+	 * @param index open capture index, closed with the dialog
+	 */
+	
+	public NdefCaptureDialog(Shell parentShell, NdefCaptureIndex index) {
+		super(parentShell);
+		
+		this.index = index;
+		
+		// so that opened editors can be used while the list is open
+		setShellStyle((getShellStyle() & ~SWT.APPLICATION_MODAL) | SWT.MODELESS | SWT.RESIZE);
+		setBlockOnOpen(false);
+	}
+	
+	@Override
+	protected void configureShell(Shell shell) {
+		super.configureShell(shell);
+		
+		shell.setText("Captured tags: " + index.getFile().getName() + " (" + index.size() + ")");
+	}
+
+	@Override
+	protected Control createDialogArea(Composite parent) {
+		Composite composite = (Composite)super.createDialogArea(parent);
+		
+		tableViewer = new TableViewer(composite, SWT.VIRTUAL | SWT.BORDER | SWT.FULL_SELECTION | SWT.SINGLE);
+		
+		Table table = tableViewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		
+		GridData gridData = new GridData(SWT.FILL, SWT.FILL, true, true);
+		gridData.widthHint = 720;
+		gridData.heightHint = 400;
+		table.setLayoutData(gridData);
+		
+		for(int i = 0; i < COLUMNS.length; i++) {
+			TableColumn column = new TableColumn(table, SWT.LEFT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(WIDTHS[i]);
+		}
+		
+		tableViewer.setUseHashlookup(true);
+		tableViewer.setContentProvider(new CaptureContentProvider());
+		tableViewer.setLabelProvider(new CaptureLabelProvider());
+		tableViewer.setInput(index);
+		tableViewer.setItemCount(index.size());
+		
+		tableViewer.addDoubleClickListener(new IDoubleClickListener() {
+			
+			@Override
+			public void doubleClick(DoubleClickEvent event) {
+				openSelection();
+			}
+		});
+		
+		return composite;
+	}
+	
+	@Override
+	protected void createButtonsForButtonBar(Composite parent) {
+		createButton(parent, IDialogConstants.OPEN_ID, IDialogConstants.OPEN_LABEL, true);
+		createButton(parent, IDialogConstants.CLOSE_ID, IDialogConstants.CLOSE_LABEL, false);
+	}
+	
+	@Override
+	protected void buttonPressed(int buttonId) {
+		if(buttonId == IDialogConstants.OPEN_ID) {
+			openSelection();
+		} else if(buttonId == IDialogConstants.CLOSE_ID) {
+			close();
+		} else {
+			super.buttonPressed(buttonId);
+		}
+	}
+	
+	@Override
+	public boolean close() {
+		try {
+			index.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		return super.close();
+	}
+	
+	private void openSelection() {
+		IStructuredSelection selection = (IStructuredSelection)tableViewer.getSelection();
+		
+		Object element = selection.getFirstElement();
+		if(element instanceof Capture) {
+			openEditor((Capture)element);
+		}
+	}
+	
+	private void openEditor(Capture capture) {
+		if(capture.getStatus() == NdefCaptureFile.Status.FAILED) {
+			MessageDialog.openInformation(getShell(), "Captured tag", "Tag could not be read: " + capture.getMessage());
+			
+			return;
+		}
+		
+		Activator.info("Open captured tag " + capture);
+
+		String name = "capture-" + capture.getTerminalName() + "-" + (capture.getTagId() != null ? capture.getTagId() : Long.toString(capture.getTimestamp()));
+		
+		IStorage storage = new NdefTerminalStorage(capture.getNdef(), name);
+		// no tag id, a capture is a snapshot and should not be updated by live reads
+		IStorageEditorInput input = new NdefTerminalInput(storage, capture.getTerminalName(), null);
+		
+		IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
+		if(page != null) {
+			try {
+				page.openEditor(input, NdefMultiPageEditor.class.getName());
+			} catch (PartInitException e) {
+				Activator.warn("Unable to open captured tag: " + e.toString());
+			}
+		}
+	}
+	
+	private class CaptureContentProvider implements ILazyContentProvider {
+		
+		@Override
+		public void updateElement(int i) {
+			try {
+				tableViewer.replace(index.get(i), i);
+			} catch (IOException e) {
+				Activator.warn("Unable to read capture " + i + ": " + e.toString());
+			}
+		}
+		
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		}
+		
+		@Override
+		public void dispose() {
+		}
+	}
+	
+	private class CaptureLabelProvider extends LabelProvider implements ITableLabelProvider {
+		
+		@Override
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+		
+		@Override
+		public String getColumnText(Object element, int columnIndex) {
+			Capture capture = (Capture)element;
+			
+			switch(columnIndex) {
+			case 0 : return dateFormat.format(new Date(capture.getTimestamp()));
+			case 1 : return capture.getTerminalName();
+			case 2 : return capture.getTagId();
+			case 3 : return capture.getTagType();
+			case 4 : return capture.getStatus().name();
+			case 5 : return Integer.toString(capture.getNdef().length);
+			default : return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,320 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 
+ * Append-only file of captured tag reads, written through a buffered channel so that a stream 
+ * of taps costs a disk write per buffer (or per second) rather than per tag. The file is a header 
+ * followed by length prefixed records:
+ * 
+ * <pre>
+ * 4 bytes magic 'N' 'D' 'C' 'F'
+ * 4 bytes version
+ * 
+ * 4 bytes record length, excluding itself
+ * n bytes record, see {@link Capture}
+ * ...
+ * </pre>
+ * 
+ * A record which was only partially written, for example because of a crash, is dropped 
+ * when the file is opened again. See {@link NdefCaptureIndex} for reading.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefCaptureFile implements Closeable {
+
+	static final int MAGIC = 0x4E444346;
+	static final int VERSION = 1;
+	static final int HEADER_LENGTH = 8;
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/** Maximum time captures are kept in the buffer before being flushed to disk */
+	static final long FLUSH_INTERVAL = 1000;
+	
+	public enum Status {
+		/** NDEF message read and decoded */
+		DECODED,
+		/** Formatted tag without an NDEF message */
+		EMPTY,
+		/** Tag not NDEF formatted */
+		NOT_FORMATTED,
+		/** Reading or decoding failed */
+		FAILED;
+	}
+	
+	/**
+	 * 
+	 * A single captured read.
+	 * 
+	 */
+	
+	public static class Capture {
+		
+		private final long timestamp;
+		private final String terminalName;
+		private final String tagId;
+		private final String tagType;
+		private final Status status;
+		private final String message;
+		private final byte[] ndef;
+		
+		/**
+		 * 
+		 * @param tagId tag UID as hex, or null if unknown
+		 * @param tagType tag type, or null if unknown
+		 * @param message reason for failure, or null
+		 * @param ndef raw NDEF message, possibly empty
+		 */
+		
+		public Capture(long timestamp, String terminalName, String tagId, String tagType, Status status, String message, byte[] ndef) {
+			this.timestamp = timestamp;
+			this.terminalName = terminalName;
+			this.tagId = tagId;
+			this.tagType = tagType;
+			this.status = status;
+			this.message = message;
+			this.ndef = ndef;
+		}
+		
+		public long getTimestamp() {
+			return timestamp;
+		}
+		
+		public String getTerminalName() {
+			return terminalName;
+		}
+		
+		public String getTagId() {
+			return tagId;
+		}
+		
+		public String getTagType() {
+			return tagType;
+		}
+		
+		public Status getStatus() {
+			return status;
+		}
+		
+		public String getMessage() {
+			return message;
+		}
+		
+		/**
+		 * 
+		 * @return raw NDEF message as read from the tag; if decoding failed, the NDEF message TLV value if it could be found
+		 */
+		
+		public byte[] getNdef() {
+			return ndef;
+		}
+		
+		void write(DataOutput out) throws IOException {
+			out.writeLong(timestamp);
+			out.writeUTF(toString(terminalName));
+			out.writeUTF(toString(tagId));
+			out.writeUTF(toString(tagType));
+			out.writeByte(status.ordinal());
+			out.writeUTF(toString(message));
+			out.writeInt(ndef.length);
+			out.write(ndef);
+		}
+		
+		static Capture read(DataInput in) throws IOException {
+			long timestamp = in.readLong();
+			String terminalName = toNull(in.readUTF());
+			String tagId = toNull(in.readUTF());
+			String tagType = toNull(in.readUTF());
+			int status = in.readUnsignedByte();
+			if(status >= Status.values().length) {
+				throw new IOException("Unknown capture status " + status);
+			}
+			String message = toNull(in.readUTF());
+			byte[] ndef = new byte[in.readInt()];
+			in.readFully(ndef);
+			
+			return new Capture(timestamp, terminalName, tagId, tagType, Status.values()[status], message, ndef);
+		}
+		
+		private static String toString(String value) {
+			return value != null ? value : "";
+		}
+		
+		private static String toNull(String value) {
+			return value.length() > 0 ? value : null;
+		}
+		
+		@Override
+		public String toString() {
+			return terminalName + " " + tagId + " " + status + " " + ndef.length + " bytes";
+		}
+	}
+	
+	private final File file;
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+	private final DataOutputStream recordOutput = new DataOutputStream(record);
+	
+	private long lastFlush = System.currentTimeMillis();
+	private int count;
+	
+	/**
+	 * 
+	 * Open a capture file for appending, creating it if it does not exist.
+	 * 
+	 * @throws IOException if the file cannot be opened or is not a capture file
+	 */
+	
+	public NdefCaptureFile(File file) throws IOException {
+		this.file = file;
+		
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		try {
+			if(channel.size() == 0) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				while(header.hasRemaining()) {
+					channel.write(header);
+				}
+			} else {
+				// never truncate a file which is not ours
+				NdefCaptureIndex.checkHeader(channel);
+				
+				// drop any partially written record
+				NdefCaptureIndex.Scan scan = NdefCaptureIndex.scan(channel, HEADER_LENGTH, null);
+				
+				channel.truncate(scan.getEnd());
+				
+				count = scan.getCount();
+			}
+			channel.position(channel.size());
+		} catch(IOException e) {
+			channel.close();
+			
+			throw e;
+		}
+		this.channel = channel;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * 
+	 * Append a capture. The capture is buffered, and written to disk when the buffer is full 
+	 * or the previous write is more than a second old. If no further capture follows, the owner 
+	 * calls {@link #flush()} within a second.
+	 * 
+	 */
+	
+	public synchronized void append(Capture capture) throws IOException {
+		record.reset();
+		capture.write(recordOutput);
+		
+		if(buffer.remaining() < 4 + record.size()) {
+			flushBuffer();
+			
+			if(buffer.remaining() < 4 + record.size()) {
+				// larger than the buffer
+				ByteBuffer large = ByteBuffer.allocate(4 + record.size());
+				large.putInt(record.size()).put(record.toByteArray()).flip();
+				write(large);
+			}
+		}
+		if(buffer.remaining() >= 4 + record.size()) {
+			buffer.putInt(record.size());
+			buffer.put(record.toByteArray());
+		}
+		count++;
+		
+		if(System.currentTimeMillis() - lastFlush >= FLUSH_INTERVAL) {
+			flushBuffer();
+		}
+	}
+	
+	/**
+	 * 
+	 * Write buffered captures to disk.
+	 * 
+	 */
+	
+	public synchronized void flush() throws IOException {
+		flushBuffer();
+	}
+	
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		try {
+			write(buffer);
+		} finally {
+			buffer.clear();
+		}
+		lastFlush = System.currentTimeMillis();
+	}
+	
+	private void write(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return number of captures in the file, including buffered captures
+	 */
+	
+	public synchronized int getCount() {
+		return count;
+	}
+	
+	public synchronized void close() throws IOException {
+		if(channel.isOpen()) {
+			try {
+				flushBuffer();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nfc.eclipse.plugin.terminal.NdefCaptureFile.Capture;
+
+/**
+ * 
+ * Random access to the captures in a {@link NdefCaptureFile}. Opening the file only scans the 
+ * record lengths into an index of offsets; captures are read a page at a time when first asked for, 
+ * and a few recently used pages are kept in memory, so that very large captures can be browsed.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefCaptureIndex implements Closeable {
+
+	public static final int PAGE_SIZE = 100;
+	
+	/** Number of pages kept in memory */
+	private static final int PAGE_CACHE_SIZE = 8;
+	
+	private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * 
+	 * Result of scanning the records of a capture file.
+	 * 
+	 */
+	
+	static class Scan {
+		
+		private final long end;
+		private final int count;
+		
+		private Scan(long end, int count) {
+			this.end = end;
+			this.count = count;
+		}
+		
+		/**
+		 * 
+		 * @return position after the last complete record
+		 */
+		
+		long getEnd() {
+			return end;
+		}
+		
+		int getCount() {
+			return count;
+		}
+	}
+	
+	/**
+	 * 
+	 * Scan complete records from the given position, in large reads.
+	 * 
+	 * @param offsets list to add record offsets to, or null
+	 */
+	
+	static Scan scan(FileChannel channel, long position, List<Long> offsets) throws IOException {
+		long size = channel.size();
+		
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		long bufferPosition = position;
+		buffer.limit(0);
+		
+		int count = 0;
+		while(position + 4 <= size) {
+			if(position + 4 > bufferPosition + buffer.limit()) {
+				// refill from the current record
+				buffer.clear();
+				bufferPosition = position;
+				while(buffer.hasRemaining()) {
+					if(channel.read(buffer, bufferPosition + buffer.position()) == -1) {
+						break;
+					}
+				}
+				buffer.flip();
+				if(buffer.limit() < 4) {
+					break;
+				}
+			}
+			int length = buffer.getInt((int)(position - bufferPosition));
+			if(length < 0 || position + 4 + length > size) {
+				// partially written
+				break;
+			}
+			if(offsets != null) {
+				offsets.add(position);
+			}
+			count++;
+			
+			position += 4 + length;
+		}
+		return new Scan(position, count);
+	}
+	
+	/**
+	 * 
+	 * Check the magic number and version at the start of a capture file, without moving the channel position.
+	 * 
+	 * @throws IOException if the file is not a capture file of a supported version
+	 */
+	
+	static void checkHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(NdefCaptureFile.HEADER_LENGTH);
+		while(header.hasRemaining()) {
+			if(channel.read(header, header.position()) == -1) {
+				throw new EOFException("Not a capture file");
+			}
+		}
+		header.flip();
+		if(header.getInt() != NdefCaptureFile.MAGIC) {
+			throw new IOException("Not a capture file");
+		}
+		int version = header.getInt();
+		if(version != NdefCaptureFile.VERSION) {
+			throw new IOException("Unsupported capture file version " + version);
+		}
+	}
+	
+	/**
+	 * 
+	 * Open a capture file for reading.
+	 * 
+	 * @throws IOException if the file cannot be read or is not a capture file
+	 */
+	
+	public static NdefCaptureIndex open(File file) throws IOException {
+		FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+		try {
+			checkHeader(channel);
+			
+			NdefCaptureIndex index = new NdefCaptureIndex(file, channel);
+			index.refresh();
+			
+			return index;
+		} catch(IOException e) {
+			channel.close();
+			
+			throw e;
+		}
+	}
+	
+	private final File file;
+	private final FileChannel channel;
+	
+	private long[] offsets = new long[PAGE_SIZE];
+	private int size;
+	private long end = NdefCaptureFile.HEADER_LENGTH;
+	
+	private final Map<Integer, List<Capture>> pages = new LinkedHashMap<Integer, List<Capture>>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, List<Capture>> eldest) {
+			return size() > PAGE_CACHE_SIZE;
+		}
+	};
+	
+	private NdefCaptureIndex(File file, FileChannel channel) {
+		this.file = file;
+		this.channel = channel;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	/**
+	 * 
+	 * Index captures appended since the file was opened or last refreshed.
+	 * 
+	 * @return number of new captures
+	 */
+	
+	public synchronized int refresh() throws IOException {
+		List<Long> added = new ArrayList<Long>();
+		Scan scan = scan(channel, end, added);
+		
+		if(size + added.size() > offsets.length) {
+			offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, size + added.size()));
+		}
+		for(Long offset : added) {
+			offsets[size++] = offset;
+		}
+		
+		if(!added.isEmpty()) {
+			// the last page might have grown
+			pages.remove((size - added.size()) / PAGE_SIZE);
+		}
+		end = scan.getEnd();
+		
+		return added.size();
+	}
+	
+	public synchronized int size() {
+		return size;
+	}
+	
+	public synchronized int getPageCount() {
+		return (size + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+	
+	/**
+	 * 
+	 * @return capture at the given index, reading its page if necessary
+	 */
+	
+	public synchronized Capture get(int index) throws IOException {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Capture " + index + " of " + size);
+		}
+		return getPage(index / PAGE_SIZE).get(index % PAGE_SIZE);
+	}
+	
+	/**
+	 * 
+	 * @return captures on the given page, read in a single pass
+	 */
+	
+	public synchronized List<Capture> getPage(int page) throws IOException {
+		List<Capture> captures = pages.get(page);
+		if(captures == null) {
+			int first = page * PAGE_SIZE;
+			if(page < 0 || first >= size) {
+				throw new IndexOutOfBoundsException("Page " + page + " of " + getPageCount());
+			}
+			int last = Math.min(first + PAGE_SIZE, size);
+			
+			long start = offsets[first];
+			long stop = last < size ? offsets[last] : end;
+			
+			ByteBuffer buffer = ByteBuffer.allocate((int)(stop - start));
+			while(buffer.hasRemaining()) {
+				if(channel.read(buffer, start + buffer.position()) == -1) {
+					throw new EOFException();
+				}
+			}
+			
+			captures = new ArrayList<Capture>(last - first);
+			for(int i = first; i < last; i++) {
+				int offset = (int)(offsets[i] - start);
+				int length = buffer.getInt(offset);
+				
+				captures.add(Capture.read(new DataInputStream(new ByteArrayInputStream(buffer.array(), offset + 4, length))));
+			}
+			captures = Collections.unmodifiableList(captures);
+			
+			pages.put(page, captures);
+		}
+		return captures;
+	}
+	
+	public synchronized void close() throws IOException {
+		pages.clear();
+		
+		channel.close();
+	}
+}
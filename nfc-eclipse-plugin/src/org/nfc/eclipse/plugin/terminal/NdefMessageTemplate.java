@@ -0,0 +1,453 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.nfctools.ndef.NdefContext;
+import org.nfctools.ndef.Record;
+
+/**
+ * 
+ * Precompiled NDEF message with fixed-width placeholders, for provisioning serialised tags. Placeholders
+ * are written as {name} or {name:width} anywhere in a record payload, for example https://x/t/{uid}.
+ * <br/><br/>
+ * The message is encoded once; each placeholder is then expanded to a fixed-width slot, and the payload 
+ * length fields of the enclosing records (including records nested in smart posters) are adjusted. As slots
+ * have a fixed width, a message for a tag is produced by copying the template and patching the slots in place,
+ * without encoding and without touching any length fields.
+ * <br/><br/>
+ * Counter and UID values shorter than the slot width are left-padded with '0'. Values of other placeholders
+ * must fill the slot exactly, as there is no padding which is neutral in every kind of payload.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefMessageTemplate {
+
+	/** Tag UID in hex, 7 bytes (14 characters) unless a width is given */
+	public static final String UID = "uid";
+	
+	/** Message sequence number, 6 digits unless a width is given */
+	public static final String COUNTER = "counter";
+
+	private static final int UID_WIDTH = 14;
+	private static final int COUNTER_WIDTH = 6;
+
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\{([a-zA-Z][a-zA-Z0-9_]*)(?::([0-9]{1,3}))?\\}");
+	
+	/** One byte per character, so that character and byte offsets are the same */
+	private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int FLAG_SR = 0x10;
+	private static final int FLAG_IL = 0x08;
+	private static final int TNF_WELL_KNOWN = 0x01;
+
+	public static class Slot {
+		
+		private final String name;
+		private int offset;
+		private final int width;
+		
+		private Slot(String name, int offset, int width) {
+			this.name = name;
+			this.offset = offset;
+			this.width = width;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * 
+		 * @return byte offset in the message
+		 */
+		
+		public int getOffset() {
+			return offset;
+		}
+
+		public int getWidth() {
+			return width;
+		}
+	}
+
+	/**
+	 * 
+	 * Payload length field of a record.
+	 * 
+	 */
+	
+	private static class LengthField {
+		
+		private int header;
+		private int offset;
+		private int size;
+		private int payloadStart;
+		private int payloadEnd;
+		
+		private LengthField(int header, int offset, int size, int payloadStart, int payloadEnd) {
+			this.header = header;
+			this.offset = offset;
+			this.size = size;
+			this.payloadStart = payloadStart;
+			this.payloadEnd = payloadEnd;
+		}
+		
+		private boolean contains(int start, int end) {
+			return payloadStart <= start && end <= payloadEnd;
+		}
+	}
+
+	/**
+	 * 
+	 * Expands placeholders in an encoded message.
+	 * 
+	 */
+	
+	private static class Compiler {
+		
+		private byte[] bytes;
+		private final List<LengthField> fields = new ArrayList<LengthField>();
+		private final List<Slot> slots = new ArrayList<Slot>();
+		
+		private Compiler(byte[] bytes) {
+			this.bytes = bytes;
+			
+			parse(0, bytes.length);
+		}
+		
+		private void parse(int start, int end) {
+			int offset = start;
+			while(offset < end) {
+				int header = bytes[offset] & 0xFF;
+				int position = offset + 1;
+				
+				int typeLength = read(position++, 1, end);
+				int lengthOffset = position;
+				int size = (header & FLAG_SR) != 0 ? 1 : 4;
+				int payloadLength = read(position, size, end);
+				position += size;
+				int idLength = 0;
+				if((header & FLAG_IL) != 0) {
+					idLength = read(position++, 1, end);
+				}
+				int typeStart = position;
+				int payloadStart = typeStart + typeLength + idLength;
+				int payloadEnd = payloadStart + payloadLength;
+				if(payloadLength < 0 || payloadEnd > end) {
+					throw new IllegalArgumentException("Malformed NDEF message at " + offset);
+				}
+				fields.add(new LengthField(offset, lengthOffset, size, payloadStart, payloadEnd));
+
+				// smart poster payload is a nested message
+				if((header & 0x07) == TNF_WELL_KNOWN && typeLength == 2 && bytes[typeStart] == 'S' && bytes[typeStart + 1] == 'p') {
+					parse(payloadStart, payloadEnd);
+				}
+				offset = payloadEnd;
+			}
+		}
+		
+		private int read(int offset, int size, int end) {
+			if(offset + size > end) {
+				throw new IllegalArgumentException("Malformed NDEF message at " + offset);
+			}
+			int value = 0;
+			for(int i = 0; i < size; i++) {
+				value = (value << 8) | (bytes[offset + i] & 0xFF);
+			}
+			return value;
+		}
+		
+		private void compile() {
+			int from = 0;
+			while(true) {
+				// match again after each expansion, as it may shift everything after the enclosing record headers 
+				Matcher matcher = PLACEHOLDER.matcher(new String(bytes, LATIN1));
+				if(!matcher.find(from)) {
+					break;
+				}
+				from = matcher.end();
+				
+				if(getPayload(matcher.start(), matcher.end()) == null) {
+					// not in a payload, i.e. type or id
+					continue;
+				}
+				String name = matcher.group(1);
+				int width;
+				if(matcher.group(2) != null) {
+					width = Integer.parseInt(matcher.group(2));
+				} else if(name.equals(UID)) {
+					width = UID_WIDTH;
+				} else if(name.equals(COUNTER)) {
+					width = COUNTER_WIDTH;
+				} else {
+					throw new IllegalArgumentException("Placeholder {" + name + "} needs a width, for example {" + name + ":10}");
+				}
+				if(width == 0) {
+					throw new IllegalArgumentException("Placeholder {" + name + "} has zero width");
+				}
+				
+				byte[] filler = new byte[width];
+				for(int k = 0; k < filler.length; k++) {
+					filler[k] = '0';
+				}
+				
+				Slot slot = new Slot(name, matcher.start(), width);
+				slots.add(slot);
+				
+				splice(matcher.start(), matcher.end() - matcher.start(), filler);
+				
+				from = slot.offset + width;
+			}
+		}
+		
+		private LengthField getPayload(int start, int end) {
+			LengthField innermost = null;
+			for(LengthField field : fields) {
+				if(field.contains(start, end)) {
+					if(innermost == null || field.payloadStart > innermost.payloadStart) {
+						innermost = field;
+					}
+				}
+			}
+			return innermost;
+		}
+		
+		/**
+		 * 
+		 * Replace bytes, shifting everything after them and adjusting the length of all enclosing records.
+		 * 
+		 */
+		
+		private void splice(int at, int remove, byte[] insert) {
+			int delta = insert.length - remove;
+			
+			byte[] result = new byte[bytes.length + delta];
+			System.arraycopy(bytes, 0, result, 0, at);
+			System.arraycopy(insert, 0, result, at, insert.length);
+			System.arraycopy(bytes, at + remove, result, at + insert.length, bytes.length - at - remove);
+			bytes = result;
+			
+			int end = at + remove;
+			
+			List<LengthField> enclosing = new ArrayList<LengthField>();
+			for(LengthField field : fields) {
+				if(field.contains(at, end)) {
+					field.payloadEnd += delta;
+					
+					enclosing.add(field);
+				} else {
+					if(field.header >= end) {
+						field.header += delta;
+					}
+					if(field.offset >= end) {
+						field.offset += delta;
+					}
+					if(field.payloadStart >= end) {
+						field.payloadStart += delta;
+					}
+					if(field.payloadEnd >= end) {
+						field.payloadEnd += delta;
+					}
+				}
+			}
+			for(Slot slot : slots) {
+				if(slot.offset >= end) {
+					slot.offset += delta;
+				}
+			}
+			for(LengthField field : enclosing) {
+				writeLength(field);
+			}
+		}
+		
+		private void writeLength(LengthField field) {
+			int length = field.payloadEnd - field.payloadStart;
+			if(field.size == 1) {
+				if(length <= 0xFF) {
+					bytes[field.offset] = (byte)length;
+					
+					return;
+				}
+				// no longer a short record
+				bytes[field.header] &= ~FLAG_SR;
+				field.size = 4;
+				splice(field.offset + 1, 0, new byte[3]);
+			}
+			bytes[field.offset] = (byte)(length >>> 24);
+			bytes[field.offset + 1] = (byte)(length >>> 16);
+			bytes[field.offset + 2] = (byte)(length >>> 8);
+			bytes[field.offset + 3] = (byte)length;
+		}
+	}
+	
+	public static NdefMessageTemplate compile(List<Record> records) {
+		return compile(NdefContext.getNdefMessageEncoder().encode(records));
+	}
+
+	/**
+	 * 
+	 * @param message encoded NDEF message with placeholders
+	 * @throws IllegalArgumentException if the message is malformed or a placeholder has no width
+	 */
+	
+	public static NdefMessageTemplate compile(byte[] message) {
+		Compiler compiler = new Compiler(message.clone());
+		compiler.compile();
+		
+		return new NdefMessageTemplate(compiler.bytes, compiler.slots);
+	}
+
+	private final byte[] message;
+	private final List<Slot> slots;
+	private final Set<String> names = new LinkedHashSet<String>();
+	
+	private NdefMessageTemplate(byte[] message, List<Slot> slots) {
+		this.message = message;
+		this.slots = slots;
+		
+		for(Slot slot : slots) {
+			names.add(slot.getName());
+		}
+	}
+	
+	/**
+	 * 
+	 * @return placeholder names, in order of first appearance
+	 */
+	
+	public Set<String> getNames() {
+		return Collections.unmodifiableSet(names);
+	}
+	
+	public boolean hasPlaceholder(String name) {
+		return names.contains(name);
+	}
+	
+	public List<Slot> getSlots() {
+		return Collections.unmodifiableList(slots);
+	}
+
+	/**
+	 * 
+	 * @return a copy of the message, with all slots filled with '0'
+	 */
+	
+	public byte[] newMessage() {
+		return message.clone();
+	}
+
+	/**
+	 * 
+	 * Fill all slots for a placeholder, in place. Counter and UID values are left-padded with '0'.
+	 * 
+	 * @param message message from {@link #newMessage()}
+	 * @throws IllegalArgumentException if the value is wider than the slot, or narrower for a placeholder other than counter and UID
+	 */
+	
+	public void patch(byte[] message, String name, String value) {
+		byte[] bytes = value.getBytes(UTF8);
+		for(Slot slot : slots) {
+			if(slot.name.equals(name)) {
+				check(slot, value, bytes);
+				
+				int padding = slot.width - bytes.length;
+				for(int i = 0; i < padding; i++) {
+					message[slot.offset + i] = '0';
+				}
+				System.arraycopy(bytes, 0, message, slot.offset + padding, bytes.length);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Check values for all placeholders but counter and UID up front, i.e. each row of a data file, 
+	 * the same way {@link #patch(byte[], String, String)} does.
+	 * 
+	 * @throws IllegalArgumentException if a value is missing, wider than its slots or narrower
+	 */
+	
+	public void check(Map<String, String> values) {
+		for(Slot slot : slots) {
+			if(!slot.name.equals(COUNTER) && !slot.name.equals(UID)) {
+				String value = values.get(slot.name);
+				if(value == null) {
+					throw new IllegalArgumentException("No value for placeholder {" + slot.name + "}");
+				}
+				check(slot, value, value.getBytes(UTF8));
+			}
+		}
+	}
+	
+	private static void check(Slot slot, String value, byte[] bytes) {
+		if(bytes.length > slot.width) {
+			throw new IllegalArgumentException("Value " + value + " exceeds width " + slot.width + " of placeholder {" + slot.name + "}");
+		}
+		if(bytes.length < slot.width && !slot.name.equals(COUNTER) && !slot.name.equals(UID)) {
+			throw new IllegalArgumentException("Value " + value + " does not fill width " + slot.width + " of placeholder {" + slot.name + "}");
+		}
+	}
+
+	/**
+	 * 
+	 * @return a new message with all placeholders filled
+	 * @throws IllegalArgumentException if a value is missing or too wide
+	 */
+	
+	public byte[] generate(Map<String, String> values) {
+		byte[] message = newMessage();
+		for(String name : names) {
+			String value = values.get(name);
+			if(value == null) {
+				throw new IllegalArgumentException("No value for placeholder {" + name + "}");
+			}
+			patch(message, name, value);
+		}
+		return message;
+	}
+	
+	public static String toHexString(byte[] buffer) {
+		StringBuilder sb = new StringBuilder();
+		for(byte b: buffer) {
+			sb.append(String.format("%02X", b & 0xFF));
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,717 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nfc.eclipse.plugin.Activator;
+import org.nfctools.api.TagInfo;
+import org.nfctools.ndef.NdefContext;
+import org.nfctools.ndef.NdefOperations;
+import org.nfctools.ndef.Record;
+
+/**
+ * 
+ * Bulk provisioning of tags: each tag presented to any reader gets the next message from a source, 
+ * optionally followed by a read-back compare and making the tag read-only. Messages are encoded ahead
+ * on a separate thread, so the next message is ready while the current tag is still in the field.
+ * Messages which could not be provisioned are retried on the next tag, unless some of the message already 
+ * was written to the failed tag; the message is then consumed, so that no two tags ever hold the same message.
+ * <br/><br/>
+ * For serialised tags, messages come from a {@link NdefMessageTemplate} instead: the counter and data file
+ * placeholders are patched in ahead, the tag UID when the tag is in the field.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefProvisioner {
+
+	public interface Source {
+		
+		/**
+		 * 
+		 * @return the next message, or null if there are no more messages
+		 */
+		
+		List<Record> next();
+	}
+
+	public interface Listener {
+		
+		void onResult(Result result);
+	}
+
+	/**
+	 * 
+	 * Audit record for a single tag.
+	 * 
+	 */
+	
+	public static class Result {
+		
+		private final int sequence;
+		private final String terminalName;
+		private final TagInfo tagInfo;
+		private final long timestamp;
+		private final long nanos;
+		private final boolean verified;
+		private final boolean readOnly;
+		private final boolean written;
+		private final String failure;
+		
+		private Result(int sequence, String terminalName, TagInfo tagInfo, long timestamp, long nanos, boolean verified, boolean readOnly, boolean written, String failure) {
+			this.sequence = sequence;
+			this.terminalName = terminalName;
+			this.tagInfo = tagInfo;
+			this.timestamp = timestamp;
+			this.nanos = nanos;
+			this.verified = verified;
+			this.readOnly = readOnly;
+			this.written = written;
+			this.failure = failure;
+		}
+
+		/**
+		 * 
+		 * @return number of the message in the source, starting at 1, or 0 if no message was ready for the tag
+		 */
+
+		public int getSequence() {
+			return sequence;
+		}
+
+		public String getTerminalName() {
+			return terminalName;
+		}
+
+		public String getTagId() {
+			if(tagInfo != null && tagInfo.getId() != null) {
+				return NdefMessageTemplate.toHexString(tagInfo.getId());
+			}
+			return null;
+		}
+		
+		public String getTagType() {
+			if(tagInfo != null && tagInfo.getTagType() != null) {
+				return tagInfo.getTagType().name();
+			}
+			return null;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		public long getNanos() {
+			return nanos;
+		}
+
+		public boolean isVerified() {
+			return verified;
+		}
+
+		public boolean isReadOnly() {
+			return readOnly;
+		}
+
+		/**
+		 * 
+		 * @return true if the tag may hold (part of) the message, even if provisioning failed. Such a message is consumed, 
+		 * only messages which were not written at all are retried on the next tag.
+		 */
+		
+		public boolean isWritten() {
+			return written;
+		}
+
+		public boolean isSuccess() {
+			return failure == null;
+		}
+
+		public String getFailure() {
+			return failure;
+		}
+		
+		/**
+		 * 
+		 * @return comma separated values: timestamp, sequence, terminal, tag id, tag type, milliseconds, verified, read-only, written, failure
+		 */
+		
+		public String toCsv() {
+			StringBuilder builder = new StringBuilder();
+			builder.append(timestamp).append(',');
+			builder.append(sequence).append(',');
+			builder.append('"').append(terminalName).append('"').append(',');
+			builder.append(getTagId() != null ? getTagId() : "").append(',');
+			builder.append(getTagType() != null ? getTagType() : "").append(',');
+			builder.append(nanos / 1000000).append(',');
+			builder.append(verified).append(',');
+			builder.append(readOnly).append(',');
+			builder.append(written).append(',');
+			if(failure != null) {
+				builder.append('"').append(failure.replace('"', '\'')).append('"');
+			}
+			return builder.toString();
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+			builder.append('#').append(sequence).append(' ').append(terminalName);
+			if(getTagId() != null) {
+				builder.append(" tag ").append(getTagId());
+			}
+			if(failure != null) {
+				builder.append(" failed: ").append(failure);
+				if(sequence > 0) {
+					builder.append(written ? ", message consumed" : ", message retried");
+				}
+			} else {
+				builder.append(" written");
+				if(verified) {
+					builder.append(", verified");
+				}
+				if(readOnly) {
+					builder.append(", read-only");
+				}
+			}
+			builder.append(" in ").append(nanos / 1000000).append("ms");
+			return builder.toString();
+		}
+	}
+
+	private static class Message {
+		
+		private final int sequence;
+		private final Record[] records;
+		private final byte[] encoded;
+		
+		public Message(int sequence, Record[] records, byte[] encoded) {
+			this.sequence = sequence;
+			this.records = records;
+			this.encoded = encoded;
+		}
+	}
+
+	/** Marks the end of the source */
+	private static final Message END = new Message(-1, null, null);
+
+	/** Marks a tag which came before the next message was encoded */
+	private static final Message NOT_READY = new Message(0, null, null);
+
+	/** Messages encoded ahead */
+	private static final int PREFETCH = 4;
+	
+	/** How long a tag waits for the next message before giving up */
+	private static final long MESSAGE_TIMEOUT = 5000;
+	
+	public static Source repeat(final List<Record> records, final int count) {
+		return new Source() {
+			
+			private int remaining = count;
+			
+			@Override
+			public List<Record> next() {
+				if(count > 0) {
+					if(remaining == 0) {
+						return null;
+					}
+					remaining--;
+				}
+				return records;
+			}
+		};
+	}
+
+	private final Source source;
+	private final NdefMessageTemplate template;
+	private final Iterator<Map<String, String>> rows;
+	private final boolean verify;
+	private final boolean readOnly;
+
+	private final BlockingQueue<Message> queue = new ArrayBlockingQueue<Message>(PREFETCH);
+	private final ConcurrentLinkedQueue<Message> retries = new ConcurrentLinkedQueue<Message>();
+	
+	private final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+	private final AtomicInteger succeeded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	
+	private Listener listener;
+	private Writer auditLog;
+	
+	private volatile boolean done = false;
+	private volatile boolean closed = false;
+	private volatile String failure;
+	private Thread encoder;
+	private long started;
+	
+	public NdefProvisioner(Source source, boolean verify, boolean readOnly) {
+		this.source = source;
+		this.template = null;
+		this.rows = null;
+		this.verify = verify;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * 
+	 * @param rows values for the template placeholders, one row per tag, or null for counter and UID placeholders only
+	 */
+	
+	public NdefProvisioner(NdefMessageTemplate template, Iterator<Map<String, String>> rows, boolean verify, boolean readOnly) {
+		this.source = null;
+		this.template = template;
+		this.rows = rows;
+		this.verify = verify;
+		this.readOnly = readOnly;
+	}
+
+	/**
+	 * 
+	 * Read a data file for a template: comma separated values, with placeholder names in the first line. Values cannot contain commas.
+	 * Every row is checked against the template, so that a bad row does not end provisioning part way through.
+	 * 
+	 * @throws IllegalArgumentException for the first line with a missing or malformed value
+	 */
+	
+	public static List<Map<String, String>> readRows(File file, NdefMessageTemplate template) throws IOException {
+		List<Map<String, String>> rows = new ArrayList<Map<String, String>>();
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			if(line == null) {
+				return rows;
+			}
+			String[] names = line.split(",");
+			for(int i = 0; i < names.length; i++) {
+				names[i] = names[i].trim();
+			}
+			List<String> columns = Arrays.asList(names);
+			for(String name : template.getNames()) {
+				if(!name.equals(NdefMessageTemplate.UID) && !name.equals(NdefMessageTemplate.COUNTER) && !columns.contains(name)) {
+					throw new IllegalArgumentException("Line 1 of " + file.getName() + ": No column for placeholder {" + name + "}");
+				}
+			}
+			
+			int number = 1;
+			while((line = reader.readLine()) != null) {
+				number++;
+				if(line.trim().length() == 0) {
+					continue;
+				}
+				String[] values = line.split(",", -1);
+				
+				Map<String, String> row = new HashMap<String, String>();
+				for(int i = 0; i < names.length && i < values.length; i++) {
+					row.put(names[i], values[i].trim());
+				}
+				try {
+					template.check(row);
+				} catch(IllegalArgumentException e) {
+					throw new IllegalArgumentException("Line " + number + " of " + file.getName() + ": " + e.getMessage(), e);
+				}
+				rows.add(row);
+			}
+		} finally {
+			reader.close();
+		}
+		return rows;
+	}
+	
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * 
+	 * @param auditLog receives one CSV line per tag, see {@link Result#toCsv()}. Closed when the provisioner is stopped.
+	 */
+	
+	public void setAuditLog(Writer auditLog) {
+		this.auditLog = auditLog;
+	}
+	
+	public void start() {
+		started = System.nanoTime();
+		
+		encoder = new Thread(new Runnable() {
+			
+			@Override
+			public void run() {
+				int sequence = 0;
+				try {
+					while(!closed) {
+						Message message = createMessage(sequence + 1);
+						if(message == null) {
+							queue.put(END);
+							
+							break;
+						}
+						sequence++;
+						
+						queue.put(message);
+					}
+				} catch(InterruptedException e) {
+					// stopped
+				} catch(RuntimeException e) {
+					failure = "Unable to encode message " + (sequence + 1) + ": " + e.toString();
+					
+					NdefProvisioner.this.log(failure);
+					
+					// messages encoded so far are still provisioned
+					try {
+						queue.put(END);
+					} catch(InterruptedException e1) {
+						// stopped
+					}
+				}
+			}
+		}, "NDEF provisioning encoder");
+		encoder.setDaemon(true);
+		encoder.start();
+	}
+	
+	/**
+	 * 
+	 * @return the next message, encoded or patched, or null if there are no more messages
+	 */
+	
+	private Message createMessage(int sequence) {
+		if(template != null) {
+			byte[] encoded = template.newMessage();
+			if(rows != null) {
+				if(!rows.hasNext()) {
+					return null;
+				}
+				Map<String, String> row = rows.next();
+				for(String name : template.getNames()) {
+					if(!name.equals(NdefMessageTemplate.UID) && !name.equals(NdefMessageTemplate.COUNTER)) {
+						String value = row.get(name);
+						if(value == null) {
+							throw new IllegalArgumentException("No value for placeholder {" + name + "}");
+						}
+						template.patch(encoded, name, value);
+					}
+				}
+			}
+			if(template.hasPlaceholder(NdefMessageTemplate.COUNTER)) {
+				template.patch(encoded, NdefMessageTemplate.COUNTER, Integer.toString(sequence));
+			}
+			// records are decoded once the UID is known
+			return new Message(sequence, null, encoded);
+		}
+		List<Record> records = source.next();
+		if(records == null) {
+			return null;
+		}
+		byte[] encoded = NdefContext.getNdefMessageEncoder().encode(records);
+		
+		return new Message(sequence, records.toArray(new Record[records.size()]), encoded);
+	}
+	
+	public void stop() {
+		closed = true;
+		
+		if(encoder != null) {
+			encoder.interrupt();
+		}
+		
+		synchronized(results) {
+			if(auditLog != null) {
+				try {
+					auditLog.close();
+				} catch (IOException e) {
+					log("Unable to close provisioning audit log: " + e.toString());
+				}
+				auditLog = null;
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * Provision the tag with the next message. Thread-safe, tags on several readers can be provisioned at the same time.
+	 * 
+	 * @return the audit record, or null if there are no more messages. If the next message is not ready in time, 
+	 * the record tells so and the tag is left as is.
+	 */
+
+	public Result provision(String terminalName, NdefOperations ndefOperations) {
+		if(closed) {
+			return null;
+		}
+		Message message = nextMessage();
+		if(message == null) {
+			return null;
+		}
+		
+		long timestamp = System.currentTimeMillis();
+		long start = System.nanoTime();
+		
+		if(message == NOT_READY) {
+			// the tag is left as is
+			failed.incrementAndGet();
+			
+			return report(new Result(0, terminalName, ndefOperations.getTagInfo(), timestamp, System.nanoTime() - start, false, false, false, "No message ready"));
+		}
+
+		TagInfo tagInfo = null;
+		boolean verified = false;
+		boolean locked = false;
+		boolean written = false;
+		String failure = null;
+		try {
+			tagInfo = ndefOperations.getTagInfo();
+
+			if(template != null && template.hasPlaceholder(NdefMessageTemplate.UID)) {
+				if(tagInfo == null || tagInfo.getId() == null) {
+					throw new IllegalStateException("No tag UID");
+				}
+				// the slot is overwritten completely, so patching a retried message again is fine
+				template.patch(message.encoded, NdefMessageTemplate.UID, NdefMessageTemplate.toHexString(tagInfo.getId()));
+			}
+			
+			if(!ndefOperations.isWritable()) {
+				failure = "Tag not writable";
+			} else if(ndefOperations instanceof NdefType2Operations && ndefOperations.isFormatted()) {
+				NdefType2Operations type2Operations = (NdefType2Operations)ndefOperations;
+				
+				// from here on the tag may hold the message, even if writing fails
+				written = true;
+				try {
+					// as encoded, without decoding into records and encoding again
+					type2Operations.writeNdefMessage(message.encoded);
+				} catch(RuntimeException e) {
+					if(type2Operations.getLastWrittenPages() == 0) {
+						// failed before the first page was written
+						written = false;
+					}
+					throw e;
+				}
+			} else {
+				Record[] records = getRecords(message);
+				
+				written = true;
+				if(ndefOperations.isFormatted()) {
+					ndefOperations.writeNdefMessage(records);
+				} else {
+					ndefOperations.format(records);
+				}
+			}
+			
+			if(written) {
+				if(verify) {
+					byte[] read;
+					if(ndefOperations instanceof NdefType2Operations) {
+						// the operations remember what was written, so read it back from the tag
+						read = ((NdefType2Operations)ndefOperations).rereadNdefMessage();
+					} else {
+						read = NdefContext.getNdefMessageEncoder().encode(ndefOperations.readNdefMessage());
+					}
+					if(!Arrays.equals(read, message.encoded)) {
+						failure = "Verification failed";
+					} else {
+						verified = true;
+					}
+				}
+				
+				if(failure == null && readOnly) {
+					ndefOperations.makeReadOnly();
+					
+					locked = true;
+				}
+			}
+		} catch(Exception e) {
+			failure = e.toString();
+		}
+		
+		if(failure != null) {
+			if(!written) {
+				// message goes to the next tag
+				retries.add(message);
+			}
+			failed.incrementAndGet();
+		} else {
+			succeeded.incrementAndGet();
+		}
+
+		return report(new Result(message.sequence, terminalName, tagInfo, timestamp, System.nanoTime() - start, verified, locked, written, failure));
+	}
+
+	/**
+	 * 
+	 * Add the result to the results and audit log, and pass it to the listener.
+	 * 
+	 */
+	
+	private Result report(Result result) {
+		synchronized(results) {
+			results.add(result);
+			
+			if(auditLog != null) {
+				try {
+					auditLog.write(result.toCsv());
+					auditLog.write('\n');
+					auditLog.flush();
+				} catch (IOException e) {
+					log("Unable to write provisioning audit log: " + e.toString());
+				}
+			}
+		}
+		
+		Listener listener = this.listener;
+		if(listener != null) {
+			listener.onResult(result);
+		}
+		
+		return result;
+	}
+
+	/**
+	 * 
+	 * @return the records of a message, decoded from the encoded message if it came from a template
+	 */
+	
+	private static Record[] getRecords(Message message) {
+		if(message.records != null) {
+			return message.records;
+		}
+		List<Record> list = NdefContext.getNdefMessageDecoder().decodeToRecords(message.encoded);
+		
+		return list.toArray(new Record[list.size()]);
+	}
+
+	private Message nextMessage() {
+		Message message = retries.poll();
+		if(message != null) {
+			return message;
+		}
+		if(done) {
+			return null;
+		}
+		try {
+			message = queue.poll(MESSAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			
+			return null;
+		}
+		if(message == null) {
+			log("No message ready for provisioning");
+			
+			return NOT_READY;
+		}
+		if(message == END) {
+			done = true;
+			
+			// wake up other readers waiting for a message
+			queue.offer(END);
+			
+			return null;
+		}
+		return message;
+	}
+
+	/**
+	 * 
+	 * @return true if all messages of the source have been provisioned
+	 */
+	
+	public boolean isDone() {
+		return done && retries.isEmpty();
+	}
+
+	/**
+	 * 
+	 * @return why the source ended early, i.e. a message could not be encoded, or null
+	 */
+	
+	public String getFailure() {
+		return failure;
+	}
+
+	public int getSucceeded() {
+		return succeeded.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * 
+	 * @return successfully provisioned tags per minute since start
+	 */
+	
+	public double getTagsPerMinute() {
+		long elapsed = System.nanoTime() - started;
+		if(elapsed <= 0) {
+			return 0;
+		}
+		return succeeded.get() * 60000000000d / elapsed;
+	}
+
+	public List<Result> getResults() {
+		synchronized(results) {
+			return new ArrayList<Result>(results);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return summary for the status line
+	 */
+	
+	public String getStatistics() {
+		return String.format("%d provisioned, %d failed, %.1f tags/min", getSucceeded(), getFailed(), getTagsPerMinute());
+	}
+	
+	private void log(String message) {
+		if(Activator.getDefault() != null) {
+			Activator.info(message);
+		}
+	}
+}
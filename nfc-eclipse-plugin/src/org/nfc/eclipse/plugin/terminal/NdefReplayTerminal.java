@@ -0,0 +1,331 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.nfc.eclipse.plugin.Activator;
+import org.nfctools.NfcException;
+import org.nfctools.api.ApduTag;
+import org.nfctools.api.Tag;
+import org.nfctools.api.TagListener;
+import org.nfctools.api.TagScannerListener;
+import org.nfctools.api.TagType;
+import org.nfctools.scio.AbstractTerminal;
+import org.nfctools.scio.Command;
+import org.nfctools.scio.Response;
+import org.nfctools.scio.TerminalMode;
+
+/**
+ * 
+ * Card terminal which plays back a {@link NdefApduTrace}. Status changes and tags are reported 
+ * in trace order on the terminal's own scanning thread, and each command sent to a tag is answered 
+ * with the recorded response, so the same code reading the same trace always sees the same tags. 
+ * A command which differs from the recorded command fails, as does a command beyond the recorded 
+ * exchanges for the tag, and is counted as a mismatch.
+ * <br/><br/>
+ * Playback is at recorded speed, or faster by a given factor; with speed zero, there are no delays at all.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefReplayTerminal extends AbstractTerminal {
+
+	public static final String NAME_PREFIX = "Replay";
+	
+	private class ReplayTag extends Tag implements ApduTag {
+		
+		public ReplayTag(TagType tagType, byte[] generalBytes) {
+			super(tagType, generalBytes);
+		}
+
+		@Override
+		public Response transmit(Command command) {
+			NdefApduTrace.Event event;
+			try {
+				event = peek();
+			} catch(IOException e) {
+				throw new NfcException(e);
+			}
+			if(event == null || event.getKind() != NdefApduTrace.Kind.EXCHANGE) {
+				mismatch();
+				
+				throw new NfcException("Command beyond recorded exchanges");
+			}
+			if(!NdefApduTrace.matches(command, event.getCommand())) {
+				mismatch();
+				
+				throw new NfcException("Command differs from recorded command " + NdefMessageTemplate.toHexString(event.getCommand()));
+			}
+			consume();
+			
+			exchange(event);
+			
+			if(event.getResponse() == null) {
+				throw new NfcException(event.getFailure());
+			}
+			return event.getResponse();
+		}
+	}
+	
+	private final String name;
+	
+	private final File file;
+	
+	private final double speed;
+	
+	private TagListener tagListener;
+	
+	private TagScannerListener tagScannerListener;
+	
+	private Thread thread;
+	
+	private NdefApduTrace.Reader reader;
+	
+	private NdefApduTrace.Event next;
+	
+	/** wall clock at the start of playback, for keeping the recorded pace */
+	private long startNanos;
+	
+	private int exchanges;
+	private int mismatches;
+	private boolean finished;
+	
+	/**
+	 * 
+	 * @param file trace file
+	 * @param speed 1 for recorded speed, larger to play faster, or 0 for no delays
+	 */
+	
+	public NdefReplayTerminal(File file, double speed) {
+		this(NAME_PREFIX + " " + file.getName(), file, speed);
+	}
+	
+	public NdefReplayTerminal(String name, File file, double speed) {
+		if(speed < 0) {
+			throw new IllegalArgumentException("Speed " + speed);
+		}
+		this.name = name;
+		this.file = file;
+		this.speed = speed;
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public synchronized int getExchanges() {
+		return exchanges;
+	}
+	
+	/**
+	 * 
+	 * @return number of commands which did not match the trace
+	 */
+	
+	public synchronized int getMismatches() {
+		return mismatches;
+	}
+	
+	/**
+	 * 
+	 * @return true if the whole trace has been played
+	 */
+	
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+	
+	@Override
+	public boolean canHandle(String terminalName) {
+		return terminalName.startsWith(NAME_PREFIX);
+	}
+
+	@Override
+	public String getTerminalName() {
+		return name;
+	}
+	
+	@Override
+	public void registerTagListener(TagListener tagListener) {
+		this.tagListener = tagListener;
+	}
+
+	@Override
+	public void setMode(TerminalMode terminalMode, TagScannerListener tagScannerListener) {
+		if(terminalMode != TerminalMode.INITIATOR) {
+			throw new IllegalArgumentException("Only initiator mode is replayed");
+		}
+		this.tagScannerListener = tagScannerListener;
+	}
+
+	@Override
+	public synchronized void startListening() {
+		if(thread == null) {
+			thread = new Thread(new Runnable() {
+				public void run() {
+					play();
+				}
+			}, "NFC terminal " + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public synchronized void stopListening() {
+		if(thread != null) {
+			thread.interrupt();
+			
+			thread = null;
+		}
+	}
+
+	private void play() {
+		try {
+			reader = new NdefApduTrace.Reader(file);
+			try {
+				startNanos = System.nanoTime();
+				
+				NdefApduTrace.Event event;
+				while((event = peek()) != null && !Thread.currentThread().isInterrupted()) {
+					consume();
+					
+					if(!await(event.getTime())) {
+						break;
+					}
+					
+					switch(event.getKind()) {
+					case STATUS : {
+						notifyStatus(event.getStatus());
+						
+						break;
+					}
+					case TAG : {
+						onTag(new ReplayTag(TagType.valueOf(event.getTagType()), event.getGeneralBytes()));
+						
+						break;
+					}
+					case EXCHANGE : {
+						// not asked for by the tag handling
+						mismatch();
+						
+						break;
+					}
+					}
+				}
+				if(peek() == null) {
+					synchronized(this) {
+						finished = true;
+					}
+					Activator.info("Replay of " + file.getName() + " finished, " + getExchanges() + " exchanges, " + getMismatches() + " mismatches");
+				}
+			} finally {
+				reader.close();
+			}
+		} catch(IOException e) {
+			Activator.warn("Unable to replay " + file + ": " + e.toString());
+		}
+		if(tagScannerListener != null) {
+			tagScannerListener.onScanningEnded();
+		}
+	}
+	
+	private void onTag(Tag tag) {
+		try {
+			if(tagListener != null) {
+				tagListener.onTag(tag);
+			}
+		} catch(Exception e) {
+			Activator.info("Tag handling failed on " + name + ": " + e.toString());
+			
+			if(tagScannerListener != null) {
+				tagScannerListener.onTagHandingFailed(e);
+			}
+		}
+	}
+	
+	private NdefApduTrace.Event peek() throws IOException {
+		if(next == null) {
+			next = reader.next();
+		}
+		return next;
+	}
+	
+	private void consume() {
+		next = null;
+	}
+	
+	/**
+	 * 
+	 * Wait until the given trace time, at the playback speed.
+	 * 
+	 * @return false if interrupted
+	 */
+	
+	private boolean await(long time) {
+		if(speed > 0) {
+			long due = startNanos + (long)(time * 1000 / speed);
+			long delay = due - System.nanoTime();
+			if(delay > 0) {
+				try {
+					Thread.sleep(delay / 1000000, (int)(delay % 1000000));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+	
+	private void exchange(NdefApduTrace.Event event) {
+		synchronized(this) {
+			exchanges++;
+		}
+		// the command was sent at the recorded time, the response takes the recorded time
+		await(event.getTime());
+		await(event.getTime() + event.getDuration());
+	}
+	
+	private synchronized void mismatch() {
+		mismatches++;
+	}
+
+	@Override
+	public void initInitiatorDep() throws IOException {
+		throw new IOException("Peer to peer is not replayed");
+	}
+
+	@Override
+	public void initTargetDep() throws IOException {
+		throw new IOException("Peer to peer is not replayed");
+	}
+}
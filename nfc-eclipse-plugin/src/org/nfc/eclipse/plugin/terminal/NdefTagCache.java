@@ -0,0 +1,212 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 
+ * Least recently used cache of tag contents, keyed by tag UID. An entry holds the used part 
+ * of the data area (up to and including the NDEF message TLV), so that a tag which is tapped 
+ * again only needs to have its used pages read and checksummed. Only raw bytes are kept; 
+ * records are decoded anew on every hit, so that callers never share mutable records.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTagCache {
+
+	private static final int NDEF_MESSAGE_TLV = 0x03;
+	private static final int NULL_TLV = 0x00;
+	private static final int TERMINATOR_TLV = 0xFE;
+	
+	public static class Entry {
+		
+		private final byte[] capabilityContainer;
+		private final byte[] image;
+		private final long crc;
+		
+		private Entry(byte[] capabilityContainer, byte[] image) {
+			this.capabilityContainer = capabilityContainer;
+			this.image = image;
+			this.crc = crc(image, 0, image.length);
+		}
+		
+		/**
+		 * 
+		 * @return length of the used part of the data area
+		 */
+		
+		public int getLength() {
+			return image.length;
+		}
+		
+		public byte[] getImage() {
+			return Arrays.copyOf(image, image.length);
+		}
+		
+		/**
+		 * 
+		 * Cheap check whether the tag still holds the cached contents.
+		 * 
+		 * @param capabilityContainer capability container as read from the tag
+		 * @param image data area as read from the tag, at least {@link #getLength()} bytes
+		 */
+		
+		public boolean matches(byte[] capabilityContainer, byte[] image) {
+			return Arrays.equals(this.capabilityContainer, capabilityContainer) && image.length >= this.image.length && crc == crc(image, 0, this.image.length);
+		}
+	}
+	
+	private final Map<String, Entry> entries;
+
+	public NdefTagCache(final int capacity) {
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	public synchronized Entry get(byte[] uid) {
+		return entries.get(NdefMessageTemplate.toHexString(uid));
+	}
+	
+	/**
+	 * 
+	 * Cache the tag contents. Nothing is cached if the data area holds no NDEF message TLV.
+	 * 
+	 * @param uid tag UID
+	 * @param capabilityContainer capability container
+	 * @param image complete data area
+	 */
+	
+	public void put(byte[] uid, byte[] capabilityContainer, byte[] image) {
+		int length = getUsedLength(image);
+		if(length == -1) {
+			remove(uid);
+		} else {
+			Entry entry = new Entry(Arrays.copyOf(capabilityContainer, capabilityContainer.length), Arrays.copyOf(image, length));
+			synchronized(this) {
+				entries.put(NdefMessageTemplate.toHexString(uid), entry);
+			}
+		}
+	}
+	
+	public synchronized void remove(byte[] uid) {
+		entries.remove(NdefMessageTemplate.toHexString(uid));
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+	
+	public synchronized int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * 
+	 * @return number of bytes from the start of the data area to the end of the NDEF message TLV, or -1 if there is none
+	 */
+	
+	public static int getUsedLength(byte[] image) {
+		int[] value = findNdefMessage(ByteBuffer.wrap(image));
+		if(value != null) {
+			return value[0] + value[1];
+		}
+		return -1;
+	}
+	
+	/**
+	 * 
+	 * @return value of the NDEF message TLV, i.e. the raw NDEF message, or null if there is none
+	 */
+	
+	public static byte[] getNdefMessage(byte[] image) {
+		int[] value = findNdefMessage(ByteBuffer.wrap(image));
+		if(value != null) {
+			return Arrays.copyOfRange(image, value[0], value[0] + value[1]);
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 * Find the NDEF message TLV in a data area, without copying it; absolute positions are used, 
+	 * so the buffer may be shared.
+	 * 
+	 * @param image data area, from index 0 to the limit
+	 * @return offset and length of the NDEF message TLV value, or null if there is none
+	 */
+	
+	static int[] findNdefMessage(ByteBuffer image) {
+		int limit = image.limit();
+		int offset = 0;
+		while(offset < limit) {
+			int type = image.get(offset++) & 0xFF;
+			if(type == NULL_TLV) {
+				continue;
+			}
+			if(type == TERMINATOR_TLV || offset >= limit) {
+				break;
+			}
+			int length = image.get(offset++) & 0xFF;
+			if(length == 0xFF) {
+				if(offset + 2 > limit) {
+					break;
+				}
+				length = ((image.get(offset) & 0xFF) << 8) | (image.get(offset + 1) & 0xFF);
+				offset += 2;
+			}
+			
+			if(type == NDEF_MESSAGE_TLV) {
+				if(offset + length > limit) {
+					break;
+				}
+				return new int[]{offset, length};
+			}
+			offset += length;
+		}
+		return null;
+	}
+	
+	private static long crc(byte[] buffer, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(buffer, offset, length);
+		return crc.getValue();
+	}
+}
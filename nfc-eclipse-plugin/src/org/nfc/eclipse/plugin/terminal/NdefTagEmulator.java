@@ -0,0 +1,396 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.nfctools.api.ApduTag;
+import org.nfctools.api.Tag;
+import org.nfctools.api.TagType;
+import org.nfctools.scio.Command;
+import org.nfctools.scio.Response;
+
+/**
+ * 
+ * In-memory NFC Forum Type 2 tag, answering the same pseudo-APDUs as a tag on an ACR122 reader:
+ * READ BINARY of up to 16 bytes (four pages, wrapping around at the end of memory) and UPDATE BINARY 
+ * of a single page. UID pages are read-only, lock bytes and the capability container are one-time 
+ * programmable, and pages covered by a set lock bit cannot be written once the tag has been 
+ * reactivated, see {@link #activate()}. The three dynamic lock bytes 
+ * lock equal groups of at least four pages from page 16 onwards, a simplification of the per-chip 
+ * granularity.
+ * <br/><br/>
+ * For testing, commands can be delayed, fail at random, and the tag can be removed after a given 
+ * number of commands, i.e. while an operation is under way.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTagEmulator extends Tag implements ApduTag {
+
+	public static enum Layout {
+		
+		ULTRALIGHT(16, 0x06, -1, new byte[]{(byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF}),
+		ULTRALIGHT_C(48, 0x12, 40, new byte[]{0x02, 0x00, 0x00, 0x10}),
+		NTAG203(42, 0x12, 40, null),
+		NTAG213(45, 0x12, 40, null),
+		NTAG215(135, 0x3E, 130, null),
+		NTAG216(231, 0x6D, 226, null);
+		
+		private final int pages;
+		private final int size;
+		private final int dynamicLockPage;
+		private final byte[] blankPage;
+		
+		private Layout(int pages, int size, int dynamicLockPage, byte[] blankPage) {
+			this.pages = pages;
+			this.size = size;
+			this.dynamicLockPage = dynamicLockPage;
+			this.blankPage = blankPage;
+		}
+		
+		public int getPages() {
+			return pages;
+		}
+		
+		/**
+		 * 
+		 * @return data area size in units of 8 bytes, as in the capability container
+		 */
+		
+		public int getSize() {
+			return size;
+		}
+		
+		/**
+		 * 
+		 * @return page holding the dynamic lock bytes, or -1 if none
+		 */
+		
+		public int getDynamicLockPage() {
+			return dynamicLockPage;
+		}
+		
+		/**
+		 * 
+		 * @return true if the chip comes NDEF formatted from the factory
+		 */
+		
+		public boolean isFactoryFormatted() {
+			return blankPage == null;
+		}
+	}
+	
+	private static final int BYTES_PER_PAGE = 4;
+	private static final int MAX_READ = 16;
+	
+	private static final int INS_READ_BINARY = 0xB0;
+	private static final int INS_UPDATE_BINARY = 0xD6;
+	
+	private static final Response ERROR = new Response(0x63, 0x00, new byte[0]);
+	
+	private final Layout layout;
+	private final byte[] memory;
+	
+	/** memory as of the last activation, for the lock bits in effect */
+	private byte[] activated;
+	
+	private long readLatency;
+	private long writeLatency;
+	
+	private double failureRate;
+	private Random random = new Random(0);
+	
+	/** commands left before the tag is removed, or -1 for never */
+	private int removeAfter = -1;
+	
+	private int reads;
+	private int writes;
+	private int failures;
+	
+	/**
+	 * 
+	 * Create a tag as delivered from the factory: blank, or with an empty NDEF message for chips which come formatted.
+	 * 
+	 * @param uid 7-byte UID
+	 */
+	
+	public NdefTagEmulator(Layout layout, byte[] uid) {
+		super(TagType.MIFARE_ULTRALIGHT, uid);
+		
+		if(uid.length != 7) {
+			throw new IllegalArgumentException("Expected 7-byte UID");
+		}
+		this.layout = layout;
+		this.memory = new byte[layout.getPages() * BYTES_PER_PAGE];
+		
+		// UID with check bytes as per ISO 14443-3
+		System.arraycopy(uid, 0, memory, 0, 3);
+		memory[3] = (byte)(0x88 ^ uid[0] ^ uid[1] ^ uid[2]);
+		System.arraycopy(uid, 3, memory, 4, 4);
+		memory[8] = (byte)(uid[3] ^ uid[4] ^ uid[5] ^ uid[6]);
+		
+		if(layout.isFactoryFormatted()) {
+			format();
+		} else {
+			System.arraycopy(layout.blankPage, 0, memory, 4 * BYTES_PER_PAGE, BYTES_PER_PAGE);
+		}
+		activate();
+	}
+	
+	/**
+	 * 
+	 * Let lock bits written since the last activation take effect, as when the tag enters the field again.
+	 * 
+	 */
+	
+	public synchronized void activate() {
+		activated = Arrays.copyOf(memory, memory.length);
+	}
+	
+	/**
+	 * 
+	 * Write a capability container and an empty NDEF message, regardless of lock and OTP bits.
+	 * 
+	 */
+	
+	public synchronized void format() {
+		Arrays.fill(memory, 4 * BYTES_PER_PAGE, getLastDataPage() * BYTES_PER_PAGE + BYTES_PER_PAGE, (byte)0);
+		
+		memory[12] = (byte)0xE1;
+		memory[13] = 0x10;
+		memory[14] = (byte)layout.getSize();
+		memory[15] = 0x00;
+		
+		memory[16] = 0x03;
+		memory[17] = 0x00;
+		memory[18] = (byte)0xFE;
+	}
+	
+	/**
+	 * 
+	 * Set the contents of the data area, regardless of lock bits.
+	 * 
+	 * @param data data area contents, starting at page 4
+	 */
+	
+	public synchronized void setData(byte[] data) {
+		int length = (getLastDataPage() - 3) * BYTES_PER_PAGE;
+		if(data.length > length) {
+			throw new IllegalArgumentException("Data area is " + length + " bytes");
+		}
+		Arrays.fill(memory, 4 * BYTES_PER_PAGE, 4 * BYTES_PER_PAGE + length, (byte)0);
+		System.arraycopy(data, 0, memory, 4 * BYTES_PER_PAGE, data.length);
+	}
+	
+	/**
+	 * 
+	 * @return copy of the complete memory
+	 */
+	
+	public synchronized byte[] getMemory() {
+		return Arrays.copyOf(memory, memory.length);
+	}
+	
+	public Layout getLayout() {
+		return layout;
+	}
+	
+	/**
+	 * 
+	 * Delay every command, like a real tag and reader do.
+	 * 
+	 */
+	
+	public synchronized void setLatency(long readMillis, long writeMillis) {
+		this.readLatency = readMillis;
+		this.writeLatency = writeMillis;
+	}
+	
+	/**
+	 * 
+	 * Let commands fail at random.
+	 * 
+	 * @param failureRate probability of failure per command
+	 * @param seed random seed, for reproducible runs
+	 */
+	
+	public synchronized void setFailureRate(double failureRate, long seed) {
+		this.failureRate = failureRate;
+		this.random = new Random(seed);
+	}
+	
+	/**
+	 * 
+	 * Stop responding after the given number of commands, as if the tag was pulled away.
+	 * 
+	 * @param commands number of commands to answer, or -1 to keep the tag in place
+	 */
+	
+	public synchronized void setRemoveAfter(int commands) {
+		this.removeAfter = commands;
+	}
+	
+	public synchronized boolean isRemoved() {
+		return removeAfter == 0;
+	}
+	
+	public synchronized int getReads() {
+		return reads;
+	}
+	
+	public synchronized int getWrites() {
+		return writes;
+	}
+	
+	public synchronized int getFailures() {
+		return failures;
+	}
+	
+	@Override
+	public Response transmit(Command command) {
+		long latency;
+		synchronized(this) {
+			latency = command.getInstruction() == INS_UPDATE_BINARY ? writeLatency : readLatency;
+		}
+		if(latency > 0) {
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				
+				return ERROR;
+			}
+		}
+		
+		synchronized(this) {
+			if(removeAfter == 0) {
+				return ERROR;
+			}
+			if(removeAfter > 0) {
+				removeAfter--;
+			}
+			if(failureRate > 0 && random.nextDouble() < failureRate) {
+				failures++;
+				
+				return ERROR;
+			}
+			
+			switch(command.getInstruction()) {
+				case INS_READ_BINARY : {
+					return read(command.getP2(), command.getLength());
+				}
+				case INS_UPDATE_BINARY : {
+					return write(command.getP2(), command.getData(), command.getOffset());
+				}
+				default : {
+					return ERROR;
+				}
+			}
+		}
+	}
+	
+	private Response read(int page, int length) {
+		if(page < 0 || page >= layout.getPages() || length <= 0 || length > MAX_READ) {
+			return ERROR;
+		}
+		reads++;
+		
+		byte[] data = new byte[length];
+		for(int i = 0; i < length; i++) {
+			data[i] = memory[(page * BYTES_PER_PAGE + i) % memory.length];
+		}
+		return new Response(0x90, 0x00, data);
+	}
+
+	private Response write(int page, byte[] data, int offset) {
+		if(page < 2 || page >= layout.getPages() || data == null || data.length - offset < BYTES_PER_PAGE) {
+			return ERROR;
+		}
+		int index = page * BYTES_PER_PAGE;
+		
+		if(page == 2) {
+			// lock bytes only, one-time programmable
+			memory[index + 2] |= data[offset + 2];
+			memory[index + 3] |= data[offset + 3];
+		} else if(page == layout.getDynamicLockPage()) {
+			for(int i = 0; i < BYTES_PER_PAGE; i++) {
+				memory[index + i] |= data[offset + i];
+			}
+		} else {
+			if(isLocked(page)) {
+				return ERROR;
+			}
+			if(page == 3) {
+				// capability container, one-time programmable
+				for(int i = 0; i < BYTES_PER_PAGE; i++) {
+					memory[index + i] |= data[offset + i];
+				}
+			} else {
+				System.arraycopy(data, offset, memory, index, BYTES_PER_PAGE);
+			}
+		}
+		writes++;
+		
+		return new Response(0x90, 0x00, new byte[0]);
+	}
+	
+	/**
+	 * 
+	 * @return true if a lock bit in effect is set for the page
+	 */
+	
+	public synchronized boolean isLocked(int page) {
+		if(page < 3) {
+			return true;
+		}
+		if(page < 8) {
+			return (activated[10] & (1 << page)) != 0;
+		}
+		if(page < 16) {
+			return (activated[11] & (1 << (page - 8))) != 0;
+		}
+		int dynamicLockPage = layout.getDynamicLockPage();
+		if(dynamicLockPage != -1 && page < dynamicLockPage) {
+			int pagesPerBit = Math.max(4, (dynamicLockPage - 16 + 23) / 24);
+			int bit = (page - 16) / pagesPerBit;
+			
+			return (activated[dynamicLockPage * BYTES_PER_PAGE + bit / 8] & (1 << (bit % 8))) != 0;
+		}
+		return false;
+	}
+	
+	private int getLastDataPage() {
+		if(layout.getDynamicLockPage() != -1) {
+			return layout.getDynamicLockPage() - 1;
+		}
+		return layout.getPages() - 1;
+	}
+	
+}
@@ -0,0 +1,266 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 
+ * Raw memory image of a Type 2 tag: all pages from page 0, four bytes each, without any header, 
+ * so that images are interchangeable with other dump tools. The file is memory-mapped; pages and 
+ * the NDEF message are read straight from the mapping, and a dump is written into it page by page.
+ * <br/><br/>
+ * Pages 0 to 2 hold the UID and the static lock bytes, page 3 the capability container and the data 
+ * area starts at page 4. The size of the data area is given by the capability container; any pages 
+ * after it hold dynamic lock bytes and configuration.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTagImage implements Closeable {
+
+	public static final int BYTES_PER_PAGE = 4;
+	
+	public static final int CAPABILITY_PAGE = 3;
+	
+	public static final int FIRST_DATA_PAGE = 4;
+	
+	private static final int NDEF_MAGIC = 0xE1;
+	
+	public enum Area {
+		UID,
+		/** last UID byte, internal byte and static lock bytes */
+		LOCK,
+		CAPABILITY_CONTAINER,
+		DATA,
+		/** dynamic lock bytes and configuration */
+		CONTROL
+	}
+	
+	/**
+	 * 
+	 * Create (or overwrite) an image file of the given size, for dumping a tag into.
+	 * 
+	 */
+	
+	public static NdefTagImage create(File file, int pages) throws IOException {
+		if(pages < FIRST_DATA_PAGE) {
+			throw new IllegalArgumentException("Expected at least " + FIRST_DATA_PAGE + " pages");
+		}
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			randomAccessFile.setLength(pages * BYTES_PER_PAGE);
+			
+			// the mapping stays valid after the channel is closed
+			return new NdefTagImage(file, randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, pages * BYTES_PER_PAGE), true);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+
+	/**
+	 * 
+	 * Open an existing image file, read-only.
+	 * 
+	 */
+	
+	public static NdefTagImage open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			long length = randomAccessFile.length();
+			if(length < FIRST_DATA_PAGE * BYTES_PER_PAGE || length % BYTES_PER_PAGE != 0 || length > Integer.MAX_VALUE) {
+				throw new IOException("Not a tag image: " + length + " bytes");
+			}
+			return new NdefTagImage(file, randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length), false);
+		} finally {
+			randomAccessFile.close();
+		}
+	}
+	
+	private final File file;
+	
+	private final MappedByteBuffer buffer;
+	
+	private final boolean writable;
+	
+	private NdefTagImage(File file, MappedByteBuffer buffer, boolean writable) {
+		this.file = file;
+		this.buffer = buffer;
+		this.writable = writable;
+	}
+
+	public File getFile() {
+		return file;
+	}
+	
+	public boolean isWritable() {
+		return writable;
+	}
+	
+	public int getPageCount() {
+		return buffer.capacity() / BYTES_PER_PAGE;
+	}
+	
+	public byte[] getPage(int page) {
+		byte[] data = new byte[BYTES_PER_PAGE];
+		getPage(page, data, 0);
+		return data;
+	}
+
+	/**
+	 * 
+	 * Copy a page into the given buffer.
+	 * 
+	 */
+	
+	public void getPage(int page, byte[] data, int offset) {
+		for(int i = 0; i < BYTES_PER_PAGE; i++) {
+			data[offset + i] = buffer.get(page * BYTES_PER_PAGE + i);
+		}
+	}
+	
+	void putPage(int page, byte[] data, int offset) {
+		if(!writable) {
+			throw new IllegalStateException("Image " + file.getName() + " is read-only");
+		}
+		for(int i = 0; i < BYTES_PER_PAGE; i++) {
+			buffer.put(page * BYTES_PER_PAGE + i, data[offset + i]);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return the 7-byte UID, without check bytes
+	 */
+	
+	public byte[] getUid() {
+		return new byte[]{buffer.get(0), buffer.get(1), buffer.get(2), buffer.get(4), buffer.get(5), buffer.get(6), buffer.get(7)};
+	}
+	
+	public byte[] getCapabilityContainer() {
+		return getPage(CAPABILITY_PAGE);
+	}
+	
+	/**
+	 * 
+	 * @return true if the capability container marks the tag as NDEF formatted
+	 */
+	
+	public boolean isFormatted() {
+		return (buffer.get(CAPABILITY_PAGE * BYTES_PER_PAGE) & 0xFF) == NDEF_MAGIC;
+	}
+	
+	/**
+	 * 
+	 * @return last page of the data area as given by the capability container, or the last page if not formatted
+	 */
+	
+	public int getLastDataPage() {
+		int last = getPageCount() - 1;
+		if(isFormatted()) {
+			int size = (buffer.get(CAPABILITY_PAGE * BYTES_PER_PAGE + 2) & 0xFF) * 8;
+			
+			return Math.min(last, FIRST_DATA_PAGE + size / BYTES_PER_PAGE - 1);
+		}
+		return last;
+	}
+	
+	public Area getArea(int page) {
+		if(page < 2) {
+			return Area.UID;
+		} else if(page < CAPABILITY_PAGE) {
+			return Area.LOCK;
+		} else if(page == CAPABILITY_PAGE) {
+			return Area.CAPABILITY_CONTAINER;
+		} else if(page <= getLastDataPage()) {
+			return Area.DATA;
+		}
+		return Area.CONTROL;
+	}
+	
+	/**
+	 * 
+	 * @return read-only view of the data area, not a copy
+	 */
+	
+	public ByteBuffer getDataArea() {
+		ByteBuffer data = buffer.asReadOnlyBuffer();
+		data.position(FIRST_DATA_PAGE * BYTES_PER_PAGE);
+		data.limit((getLastDataPage() + 1) * BYTES_PER_PAGE);
+		return data.slice();
+	}
+	
+	/**
+	 * 
+	 * Decode the TLVs of the data area in place, and copy out only the NDEF message.
+	 * 
+	 * @return value of the NDEF message TLV, i.e. the raw NDEF message, or null if there is none
+	 */
+	
+	public byte[] getNdefMessage() {
+		if(!isFormatted()) {
+			return null;
+		}
+		ByteBuffer data = getDataArea();
+		
+		int[] value = NdefTagCache.findNdefMessage(data);
+		if(value != null) {
+			byte[] message = new byte[value[1]];
+			
+			data.position(value[0]);
+			data.get(message);
+			
+			return message;
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 * Write changed pages to the file.
+	 * 
+	 */
+	
+	public void force() {
+		if(writable) {
+			buffer.force();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		// the mapping itself is released when no longer referenced
+		force();
+	}
+}
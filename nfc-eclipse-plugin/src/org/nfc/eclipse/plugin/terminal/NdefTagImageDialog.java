@@ -0,0 +1,224 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.IOException;
+
+import org.eclipse.core.resources.IStorage;
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.viewers.ILazyContentProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TableViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableColumn;
+import org.eclipse.ui.IStorageEditorInput;
+import org.eclipse.ui.IWorkbenchPage;
+import org.eclipse.ui.PartInitException;
+import org.eclipse.ui.PlatformUI;
+import org.nfc.eclipse.plugin.Activator;
+import org.nfc.eclipse.plugin.NdefMultiPageEditor;
+
+/**
+ * 
+ * Modeless page by page view of a tag image, for inspecting the lock and one-time programmable bytes 
+ * offline. The NDEF message is decoded straight from the mapped image file and opened in an editor.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTagImageDialog extends Dialog {
+
+	private static final String[] COLUMNS = new String[]{"Page", "Hex", "Text", "Area"};
+	private static final int[] WIDTHS = new int[]{60, 120, 80, 200};
+	
+	private final NdefTagImage tagImage;
+
+	private TableViewer tableViewer;
+	
+	/**
+	 * 
+	 * @param tagImage open image, closed with the dialog
+	 */
+	
+	public NdefTagImageDialog(Shell parentShell, NdefTagImage tagImage) {
+		super(parentShell);
+		
+		this.tagImage = tagImage;
+		
+		// so that opened editors can be used while the image is open
+		setShellStyle((getShellStyle() & ~SWT.APPLICATION_MODAL) | SWT.MODELESS | SWT.RESIZE);
+		setBlockOnOpen(false);
+	}
+	
+	@Override
+	protected void configureShell(Shell shell) {
+		super.configureShell(shell);
+		
+		shell.setText("Tag image: " + tagImage.getFile().getName() + " (UID " + NdefMessageTemplate.toHexString(tagImage.getUid()) + ", " + tagImage.getPageCount() + " pages)");
+	}
+
+	@Override
+	protected Control createDialogArea(Composite parent) {
+		Composite composite = (Composite)super.createDialogArea(parent);
+		
+		tableViewer = new TableViewer(composite, SWT.VIRTUAL | SWT.BORDER | SWT.FULL_SELECTION | SWT.SINGLE);
+		
+		Table table = tableViewer.getTable();
+		table.setHeaderVisible(true);
+		table.setLinesVisible(true);
+		
+		GridData gridData = new GridData(SWT.FILL, SWT.FILL, true, true);
+		gridData.widthHint = 480;
+		gridData.heightHint = 400;
+		table.setLayoutData(gridData);
+		
+		for(int i = 0; i < COLUMNS.length; i++) {
+			TableColumn column = new TableColumn(table, SWT.LEFT);
+			column.setText(COLUMNS[i]);
+			column.setWidth(WIDTHS[i]);
+		}
+		
+		tableViewer.setUseHashlookup(true);
+		tableViewer.setContentProvider(new PageContentProvider());
+		tableViewer.setLabelProvider(new PageLabelProvider());
+		tableViewer.setInput(tagImage);
+		tableViewer.setItemCount(tagImage.getPageCount());
+		
+		return composite;
+	}
+	
+	@Override
+	protected void createButtonsForButtonBar(Composite parent) {
+		createButton(parent, IDialogConstants.OPEN_ID, IDialogConstants.OPEN_LABEL, true);
+		createButton(parent, IDialogConstants.CLOSE_ID, IDialogConstants.CLOSE_LABEL, false);
+	}
+	
+	@Override
+	protected void buttonPressed(int buttonId) {
+		if(buttonId == IDialogConstants.OPEN_ID) {
+			openEditor();
+		} else if(buttonId == IDialogConstants.CLOSE_ID) {
+			close();
+		} else {
+			super.buttonPressed(buttonId);
+		}
+	}
+	
+	@Override
+	public boolean close() {
+		try {
+			tagImage.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		return super.close();
+	}
+	
+	private void openEditor() {
+		byte[] ndef = tagImage.getNdefMessage();
+		if(ndef == null) {
+			MessageDialog.openInformation(getShell(), "Tag image", "No NDEF message in " + tagImage.getFile().getName());
+			
+			return;
+		}
+		
+		Activator.info("Open tag image " + tagImage.getFile());
+
+		IStorage storage = new NdefTerminalStorage(ndef, tagImage.getFile().getName());
+		// no tag id, an image is a snapshot and should not be updated by live reads
+		IStorageEditorInput input = new NdefTerminalInput(storage, tagImage.getFile().getName(), null);
+		
+		IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
+		if(page != null) {
+			try {
+				page.openEditor(input, NdefMultiPageEditor.class.getName());
+			} catch (PartInitException e) {
+				Activator.warn("Unable to open tag image: " + e.toString());
+			}
+		}
+	}
+	
+	private class PageContentProvider implements ILazyContentProvider {
+		
+		@Override
+		public void updateElement(int i) {
+			tableViewer.replace(Integer.valueOf(i), i);
+		}
+		
+		@Override
+		public void inputChanged(Viewer viewer, Object oldInput, Object newInput) {
+		}
+		
+		@Override
+		public void dispose() {
+		}
+	}
+	
+	private class PageLabelProvider extends LabelProvider implements ITableLabelProvider {
+		
+		@Override
+		public Image getColumnImage(Object element, int columnIndex) {
+			return null;
+		}
+		
+		@Override
+		public String getColumnText(Object element, int columnIndex) {
+			int page = (Integer)element;
+			
+			switch(columnIndex) {
+			case 0 : return Integer.toString(page);
+			case 1 : return NdefMessageTemplate.toHexString(tagImage.getPage(page));
+			case 2 : return toText(tagImage.getPage(page));
+			case 3 : return tagImage.getArea(page).name().toLowerCase().replace('_', ' ');
+			default : return null;
+			}
+		}
+	}
+	
+	private static String toText(byte[] data) {
+		StringBuilder builder = new StringBuilder(data.length);
+		for(byte b : data) {
+			if(b >= 0x20 && b < 0x7F) {
+				builder.append((char)b);
+			} else {
+				builder.append('.');
+			}
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,122 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.nfctools.ndef.NdefOperations;
+
+/**
+ * 
+ * Tag operation to be run by the {@link NdefTerminalExecutor}, off the UI thread. The outcome is 
+ * reported on the UI thread, exactly once: either success, or failure (including timeout). 
+ * Commands which are cancelled or superseded before they run are not reported.
+ * 
+ * @author thomas
+ *
+ * @param <T> result type
+ */
+
+public abstract class NdefTerminalCommand<T> {
+
+	public static final long DEFAULT_TIMEOUT = 5000;
+	
+	private final String name;
+	private final long timeout;
+	private final int retries;
+	
+	private final AtomicBoolean complete = new AtomicBoolean();
+	
+	public NdefTerminalCommand(String name) {
+		this(name, DEFAULT_TIMEOUT, 0);
+	}
+
+	/**
+	 * 
+	 * @param name name for logging and status messages
+	 * @param timeout milliseconds from the start of the first attempt until the command is reported as failed
+	 * @param retries number of additional attempts after a failure, within the timeout
+	 */
+	
+	public NdefTerminalCommand(String name, long timeout, int retries) {
+		this.name = name;
+		this.timeout = timeout;
+		this.retries = retries;
+	}
+
+	/**
+	 * 
+	 * Run the command against the tag currently on the terminal. Called on the executor thread.
+	 * 
+	 */
+	
+	protected abstract T execute(NdefOperations ndefOperations) throws Exception;
+	
+	/**
+	 * 
+	 * Called on the UI thread.
+	 * 
+	 */
+	
+	protected void onSuccess(T result) {
+	}
+	
+	/**
+	 * 
+	 * Called on the UI thread.
+	 * 
+	 * @param message reason for failure
+	 */
+	
+	protected void onFailure(String message) {
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getTimeout() {
+		return timeout;
+	}
+	
+	public int getRetries() {
+		return retries;
+	}
+	
+	/**
+	 * 
+	 * @return true the first time only
+	 */
+	
+	boolean complete() {
+		return complete.compareAndSet(false, true);
+	}
+	
+	boolean isComplete() {
+		return complete.get();
+	}
+}
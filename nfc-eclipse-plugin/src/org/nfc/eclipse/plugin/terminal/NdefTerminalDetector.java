@@ -26,8 +26,18 @@
 
 package org.nfc.eclipse.plugin.terminal;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
 
 import org.eclipse.core.resources.IStorage;
 import org.eclipse.swt.widgets.Display;
@@ -39,98 +49,163 @@ import org.eclipse.ui.PlatformUI;
 import org.nfc.eclipse.plugin.Activator;
 import org.nfc.eclipse.plugin.NdefEditorPart;
 import org.nfc.eclipse.plugin.NdefMultiPageEditor;
-import org.nfctools.NfcAdapter;
 import org.nfctools.api.Tag;
-import org.nfctools.api.UnknownTagListener;
-import org.nfctools.mf.classic.MfClassicNfcTagListener;
-import org.nfctools.mf.ul.Type2NfcTagListener;
+import org.nfctools.api.TagInfo;
 import org.nfctools.ndef.NdefContext;
 import org.nfctools.ndef.NdefOperations;
-import org.nfctools.ndef.NdefOperationsListener;
 import org.nfctools.ndef.Record;
 import org.nfctools.scio.Terminal;
-import org.nfctools.scio.TerminalHandler;
-import org.nfctools.scio.TerminalMode;
 import org.nfctools.scio.TerminalStatus;
-import org.nfctools.scio.TerminalStatusListener;
 import org.nfctools.spi.acs.AcsTerminal;
 import org.nfctools.spi.scm.SclTerminal;
 
 
-public class NdefTerminalDetector implements Runnable, NdefOperationsListener, TerminalStatusListener, UnknownTagListener {
+public class NdefTerminalDetector implements Runnable {
+
+	/** How long to block waiting for a change in card terminal state; also bounds the time to notice an additional terminal */
+	private static final long CHANGE_TIMEOUT = 5000;
+
+	/** Delays between listing terminals while there are none to wait on, and between attempts after errors */
+	private static final long MIN_BACKOFF = 250;
+	private static final long MAX_BACKOFF = 5000;
+	private static final long MAX_BACKOFF_SEEN_READER = 1000;
+
+	/** System property naming a {@link NdefTagEmulator.Layout}; if set, an emulated terminal with such a tag is added */
+	public static final String EMULATOR_PROPERTY = "org.nfc.eclipse.plugin.terminal.emulator";
+	
+	/** System property naming a directory; if set, the traffic of each card terminal is recorded to a {@link NdefApduTrace} there */
+	public static final String TRACE_PROPERTY = "org.nfc.eclipse.plugin.terminal.trace";
+
+	/** System property naming a {@link NdefApduTrace} file; if set, a terminal replaying it is added */
+	public static final String REPLAY_PROPERTY = "org.nfc.eclipse.plugin.terminal.replay";
+	
+	/** System property with the replay speed, see {@link NdefReplayTerminal} */
+	public static final String REPLAY_SPEED_PROPERTY = "org.nfc.eclipse.plugin.terminal.replay.speed";
+	
+	/** Number of tags for which contents are cached */
+	private static final int TAG_CACHE_SIZE = 64;
 
 	private static NdefTerminalDetector detector;
 
 	public static void initialize() {
 		detector = new NdefTerminalDetector();
+		
+		String layout = System.getProperty(EMULATOR_PROPERTY);
+		if(layout != null) {
+			NdefTerminalEmulator emulator = new NdefTerminalEmulator();
+			emulator.present(new NdefTagEmulator(NdefTagEmulator.Layout.valueOf(layout), new byte[]{0x04, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01}));
+			
+			detector.addEmulator(emulator);
+		}
+		
+		String replay = System.getProperty(REPLAY_PROPERTY);
+		if(replay != null) {
+			double speed = 1;
+			try {
+				speed = Double.parseDouble(System.getProperty(REPLAY_SPEED_PROPERTY, "1"));
+			} catch(NumberFormatException e) {
+				Activator.warn("Illegal replay speed " + System.getProperty(REPLAY_SPEED_PROPERTY));
+			}
+			detector.addEmulator(new NdefReplayTerminal(new File(replay), speed));
+		}
 	}
 	
 	public static NdefTerminalDetector getInstance() {
 		return detector;
 	}
 	
-	private Terminal currentTerminal;
+	/** Readers, active reader and listeners; replaced as a whole, never locked */
+	private final AtomicReference<NdefTerminalState> state = new AtomicReference<NdefTerminalState>(NdefTerminalState.EMPTY);
 	
-	private TerminalHandler terminalHandler;
+	/** Serializes starting and stopping of the detector thread and readers; not used by the getters called from the UI */
+	private final Object lifecycle = new Object();
 	
-	private NfcAdapter nfcAdapter;
+	/** Emulated and replay terminals, which are not subject to card terminal detection */
+	private final List<Terminal> emulators = new ArrayList<Terminal>();
 	
-	private boolean close = false;
-		
-	private NdefTerminalListener ndefTerminalReadListener;
+	private volatile boolean close = false;
 
-	private NdefTerminalListener ndefTerminalWriteListener;
-
-	private NdefOperations ndefOperations;
+	private final NdefTagCache tagCache = new NdefTagCache(TAG_CACHE_SIZE);
 	
-	private TerminalStatus terminalStatus = null;
+	/** Runs tag operations requested from the UI */
+	private final NdefTerminalExecutor executor = new NdefTerminalExecutor(this);
 	
-	private int counter = 0;
+	/** Reader and tag events, for any number of subscribers */
+	private final NdefTerminalEventBus eventBus = new NdefTerminalEventBus();
 	
-	private Thread thread;
+	/** Whether buffered captures are due to be flushed, so that they reach the disk also when no more tags come */
+	private final AtomicBoolean captureFlushScheduled = new AtomicBoolean();
 	
-	public NdefTerminalDetector() {
-		terminalHandler = new TerminalHandler();
-		terminalHandler.addTerminal(new AcsTerminal());
-		terminalHandler.addTerminal(new SclTerminal());
-	}
+	private int counter = 0;
+	
+	private volatile Thread thread;
 	
-	public boolean detectTerminal() {
+	/**
+	 * 
+	 * Start a reader for each supported terminal which is not already running, and stop readers for terminals which are gone.
+	 * 
+	 * @param names names of all available card terminals
+	 * @return true if the set of running readers changed
+	 */
+
+	private boolean detectTerminals(CardTerminals cardTerminals, List<String> names) {
 		
-		synchronized(this) {
-			Terminal terminal = terminalHandler.getAvailableTerminal();
+		synchronized(lifecycle) {
+			boolean changed = false;
 			
-			if(currentTerminal == terminal) {
-				return false;
+			List<NdefTerminalReader> removed = new ArrayList<NdefTerminalReader>();
+			for(NdefTerminalReader reader : state.get().getReaders().values()) {
+				if(!names.contains(reader.getTerminalName()) && !emulators.contains(reader.getTerminal())) {
+					removed.add(reader);
+				}
+			}
+			if(!removed.isEmpty()) {
+				removeReaders(removed);
+				
+				changed = true;
 			}
 			
-			if(currentTerminal != null) {
-				stopReader();
+			for(String name : names) {
+				if(state.get().getReader(name) == null) {
+					Terminal terminal = createTerminal(name);
+					if(terminal != null) {
+						terminal.setCardTerminal(cardTerminals.getTerminal(name));
+						
+						log("Starting terminal " + name);
+						startReader(new NdefTerminalReader(this, terminal));
+						
+						changed = true;
+					}
+				}
 			}
 			
-			if(terminal != null) {
+			if(!state.get().getReaders().isEmpty()) {
+				// cached, so only the first terminal ever seen touches the preference store
 				NdefTerminalWrapper.setSeenTerminal(true);
-				
-				startReader(terminal);
 			}
-			return true;
+			return changed;
 		}
 
 	}
 
-	private void startReader(Terminal terminal) {
-		synchronized(this) {
-			log("Starting terminal " + terminal.getTerminalName());
-			
-			currentTerminal = terminal;
-			currentTerminal.setStatusListener(this);
-			nfcAdapter = new NfcAdapter(terminal, TerminalMode.INITIATOR);
-			
-			nfcAdapter.registerTagListener(new MfClassicNfcTagListener(this));
-			nfcAdapter.registerTagListener(new Type2NfcTagListener(this));
-			nfcAdapter.registerUnknownTagListerner(this);
-			nfcAdapter.startListening();
+	/**
+	 * 
+	 * @return a new terminal for the card terminal with the given name, or null if not supported
+	 */
+	
+	private Terminal createTerminal(String name) {
+		// each reader needs its own instance, terminals keep their card terminal and scanning thread 
+		Terminal[] terminals = new Terminal[]{new AcsTerminal(), new SclTerminal()};
+		for(Terminal terminal : terminals) {
+			if(terminal.canHandle(name)) {
+				String trace = System.getProperty(TRACE_PROPERTY);
+				if(trace != null) {
+					return new NdefTracingTerminal(terminal, new File(trace));
+				}
+				return terminal;
+			}
 		}
+		return null;
 	}
 
 	public void notfiyChange() {
@@ -174,38 +249,133 @@ public class NdefTerminalDetector implements Runnable, NdefOperationsListener, T
 			
 	}
 
-	public void stopReader() {
-		synchronized(this) {
-			log("Stopping terminal " + currentTerminal.getTerminalName());
-			if(nfcAdapter != null) {
-				nfcAdapter.stopListening();
+	/**
+	 * 
+	 * Publish and start a reader, so that the reader is known before it reports anything.
+	 * 
+	 */
+	
+	private void startReader(NdefTerminalReader reader) {
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withReader(reader)));
+		
+		reader.start();
+		
+		eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.READER_ATTACHED, reader.getTerminalName()));
+	}
+	
+	/**
+	 * 
+	 * Unpublish and stop readers.
+	 * 
+	 */
+	
+	private void removeReaders(List<NdefTerminalReader> readers) {
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withoutReaders(readers)));
+		
+		for(NdefTerminalReader reader : readers) {
+			log("Stopping terminal " + reader.getTerminalName());
+			
+			reader.stop();
+			
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.READER_DETACHED, reader.getTerminalName()));
+		}
+	}
+
+	public void stopReaders() {
+		synchronized(lifecycle) {
+			removeReaders(new ArrayList<NdefTerminalReader>(state.get().getReaders().values()));
+		}
+	}
+	
+	public void startDetecting() {
+		synchronized(lifecycle) {
+			if(thread == null) {
+				close = false;
+				
+				thread = new Thread(this, "NFC terminal detector");
+				thread.setDaemon(true);
+				thread.start();
 				
-				nfcAdapter = null;
+				for(Terminal emulator : emulators) {
+					startEmulator(emulator);
+				}
 			}
-			currentTerminal = null;
-			ndefOperations = null;
 		}
+		notfiyChange();
 	}
+
+	/**
+	 * 
+	 * Add a terminal without hardware, like a {@link NdefTerminalEmulator} or {@link NdefReplayTerminal}. 
+	 * It runs alongside the detected card terminals while detecting.
+	 * 
+	 */
 	
-	public void startDetecting() {
-		if(thread == null) {
-			close = false;
+	public void addEmulator(Terminal emulator) {
+		synchronized(lifecycle) {
+			if(state.get().getReader(emulator.getTerminalName()) != null) {
+				throw new IllegalArgumentException("Terminal " + emulator.getTerminalName() + " already exists");
+			}
+			emulators.add(emulator);
 			
-			thread = new Thread(this);
-			thread.start();
+			if(thread != null) {
+				startEmulator(emulator);
+			}
 		}
 		notfiyChange();
 	}
+
+	public void removeEmulator(Terminal emulator) {
+		synchronized(lifecycle) {
+			if(emulators.remove(emulator)) {
+				NdefTerminalReader reader = state.get().getReader(emulator.getTerminalName());
+				if(reader != null) {
+					removeReaders(Collections.singletonList(reader));
+				}
+			}
+		}
+		notfiyChange();
+	}
+	
+	private void startEmulator(Terminal emulator) {
+		log("Starting emulated terminal " + emulator.getTerminalName());
+		startReader(new NdefTerminalReader(this, emulator));
+	}
 	
 	public void stopDetecting() {
 		log("Stop detecting card terminals");
 		
-		close = true;
+		synchronized(lifecycle) {
+			close = true;
+			
+			// a detector blocked in waitForChange exits after at most CHANGE_TIMEOUT, 
+			// but it no longer counts as running so detection can be restarted right away
+			Thread thread = this.thread;
+			this.thread = null;
+			if(thread != null) {
+				thread.interrupt();
+			}
+			
+			stopReaders();
+		}
 		
-		Thread thread = this.thread;
-		thread.interrupt();
+		executor.cancelAll();
 		
-		stopReader();
+		// no more reads until detection is restarted
+		NdefCaptureFile captureFile = state.get().getCaptureFile();
+		if(captureFile != null) {
+			try {
+				captureFile.flush();
+			} catch(IOException e) {
+				log("Problem flushing capture file: " + e.toString());
+			}
+		}
 		
 		notfiyChange();
 	}
@@ -214,51 +384,140 @@ public class NdefTerminalDetector implements Runnable, NdefOperationsListener, T
 	public void run() {
 		log("Start detecting card terminals");
 
+		Thread current = Thread.currentThread();
 		try {
-			while(!close) {
+			CardTerminals cardTerminals = TerminalFactory.getDefault().terminals();
+			
+			List<String> names = null;
+			long backoff = MIN_BACKOFF;
+			while(!close && thread == current) {
 				try {
-					if(detectTerminal()) {
-						notfiyChange();
+					List<String> available = listTerminals(cardTerminals);
+					if(!available.equals(names)) {
+						names = available;
+						
+						if(detectTerminals(cardTerminals, names)) {
+							notfiyChange();
+						}
 					}
-				} catch(RuntimeException e) {
-					// usually caused by SCARD_E_NO_READERS_AVAILABLE on list()
-					// ignore
-				}
-				try {
-					// sleep for less time (be more responsive) if we know the user has an NFC reader
-					if(NdefTerminalWrapper.hasSeenReader()) {
-						Thread.sleep(1000);
+
+					if(names.isEmpty()) {
+						// PC/SC has nothing to wait on until a terminal is attached, so keep listing, less and less often
+						backoff = backoff(backoff);
 					} else {
-						Thread.sleep(5000);
+						// blocks until a card is inserted or removed or a terminal detached, then check for changes
+						cardTerminals.waitForChange(CHANGE_TIMEOUT);
+						
+						backoff = MIN_BACKOFF;
+					}
+				} catch(CardException e) {
+					if(backoff == MIN_BACKOFF) {
+						log("Problem detecting card terminals: " + e.getMessage());
+					}
+					// check the terminals again after backing off
+					names = null;
+					
+					backoff = backoff(backoff);
+				} catch(RuntimeException e) {
+					if(backoff == MIN_BACKOFF) {
+						log("Problem detecting card terminals: " + e.toString());
 					}
-				} catch (InterruptedException e) {
+					names = null;
 					
+					backoff = backoff(backoff);
 				}
 			}
 		} finally {
-			thread = null;
+			synchronized(lifecycle) {
+				if(thread == current) {
+					thread = null;
+				}
+			}
+			log("Stopped detecting card terminals");
+		}
+	}
+
+	private List<String> listTerminals(CardTerminals cardTerminals) throws CardException {
+		List<String> names = new ArrayList<String>();
+		try {
+			for(CardTerminal cardTerminal : cardTerminals.list()) {
+				names.add(cardTerminal.getName());
+			}
+		} catch(CardException e) {
+			// some platforms report no terminals as an error
+			if(e.getMessage() == null || !e.getMessage().contains("SCARD_E_NO_READERS_AVAILABLE")) {
+				throw e;
+			}
 		}
+		return names;
 	}
 
-	private void openNewEditor(final byte[] encode) {
-		log("Open NDEF content in new editor");
+	/**
+	 * 
+	 * Sleep for the given delay.
+	 * 
+	 * @return the next delay, doubled up to a limit which is lower (more responsive) if we know the user has an NFC reader 
+	 */
+
+	private long backoff(long delay) {
+		if(!sleep(delay)) {
+			return delay;
+		}
+		return Math.min(delay * 2, NdefTerminalWrapper.hasSeenReader() ? MAX_BACKOFF_SEEN_READER : MAX_BACKOFF);
+	}
+
+	/**
+	 * 
+	 * @return false if interrupted, i.e. stopping
+	 */
+	
+	private static boolean sleep(long delay) {
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * 
+	 * Open the tag contents in a new editor. If an editor for the same tag is already open, it is activated instead, 
+	 * and updated unless the contents came from the tag cache.
+	 * 
+	 * @param tagId tag UID, or null if unknown
+	 * @param cached true if the contents came from the tag cache, and so are unchanged
+	 */
+	
+	private void openNewEditor(final NdefTerminalReader reader, final byte[] encode, final String tagId, final List<Record> list, final boolean cached) {
+		log("Open NDEF content from " + reader.getTerminalName() + " in new editor");
 
 		Display.getDefault().asyncExec(new Runnable() {
 			public void run() {
-				
-				// TODO add tag id and type
-				// if some tag id i already open, activate its editor TODO
-				
-				IStorage storage = new NdefTerminalStorage(encode, currentTerminal.getTerminalName() + "-" + counter++); // TODO file name counter i temporary solution
-				IStorageEditorInput input = new NdefTerminalInput(storage, currentTerminal.getTerminalName());
+				String name;
+				if(tagId != null) {
+					name = reader.getTerminalName() + "-" + tagId;
+				} else {
+					name = reader.getTerminalName() + "-" + counter++;
+				}
+				IStorage storage = new NdefTerminalStorage(encode, name);
+				IStorageEditorInput input = new NdefTerminalInput(storage, reader.getTerminalName(), tagId);
 
 				IWorkbenchPage page = PlatformUI.getWorkbench().getActiveWorkbenchWindow().getActivePage();
 
 				if (page != null) {
 					try {
-						page.openEditor(input, NdefMultiPageEditor.class.getName());
+						// the workbench activates an open editor with an equal input, i.e. for the same tag
+						IEditorPart editorPart = page.openEditor(input, NdefMultiPageEditor.class.getName());
 						
-						setStatus("Read tag successful.");
+						if(editorPart != null && editorPart.getEditorInput() != input) {
+							if(!cached && editorPart instanceof NdefTerminalListener) {
+								((NdefTerminalListener)editorPart).setNdefContent(list);
+							}
+							setStatus(reader, "Read tag successful, activated open editor.");
+						} else {
+							setStatus(reader, "Read tag successful.");
+						}
 					} catch (PartInitException e) {
 						log(e.toString());
 
@@ -271,6 +530,14 @@ public class NdefTerminalDetector implements Runnable, NdefOperationsListener, T
 		});
 	}
 	
+	private void setStatus(NdefTerminalReader reader, String message) {
+		if(state.get().getReaders().size() > 1) {
+			// tell readers apart
+			message = reader.getTerminalName() + ": " + message;
+		}
+		setStatus(message);
+	}
+	
 	private void setStatus(final String message) {
 		// notify status line if editor is open
     	Display.getDefault().asyncExec(
@@ -309,149 +576,592 @@ public class NdefTerminalDetector implements Runnable, NdefOperationsListener, T
 	// http://eclipsesnippets.blogspot.no/2008/06/programmatically-opening-editor.html
 	// http://stackoverflow.com/questions/171824/programmatically-showing-a-view-from-an-eclipse-plug-in
 	
-	@Override
-	public void onNdefOperations(NdefOperations ndefOperations) {
-		log("onNdefOperations");
+	/**
+	 * 
+	 * Tag detected on a reader. Called on the scanning thread of the reader, so tags on different readers 
+	 * are read and written in parallel.
+	 * 
+	 */
+	
+	void onNdefOperations(NdefTerminalReader reader, NdefOperations ndefOperations) {
+		log("onNdefOperations on " + reader.getTerminalName());
 		
-		synchronized(this) {
-			this.ndefOperations = ndefOperations;
-			
-			if(ndefTerminalWriteListener != null && ndefTerminalReadListener != null) {
-				// read first then write, if not the same editor
-				read(false);
-				if(ndefTerminalWriteListener != ndefTerminalReadListener) {
-					write();
-				}
-			} else if(ndefTerminalWriteListener != null) {
-				write();
-			} else if(ndefTerminalReadListener != null) {
-				read(false);
-			} else {
-				read(true);
+		NdefTerminalState current;
+		NdefTerminalState next;
+		do {
+			current = state.get();
+			next = current.withActiveReader(reader);
+		} while(current != next && !state.compareAndSet(current, next));
+		
+		List<NdefTerminalListener> ndefTerminalReadListeners = next.getNdefTerminalReadListeners();
+		NdefTerminalListener ndefTerminalWriteListener = next.getNdefTerminalWriteListener();
+		NdefProvisioner ndefProvisioner = next.getNdefProvisioner();
+		NdefCaptureFile captureFile = next.getCaptureFile();
+		NdefTagImage cloneImage = next.getCloneImage();
+		
+		eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.TAG_PRESENT, reader.getTerminalName(), getTagId(ndefOperations), null, null));
+		
+		// tag IO without any lock
+		if(ndefProvisioner != null) {
+			provision(reader, ndefOperations, ndefProvisioner);
+		} else if(cloneImage != null) {
+			clone(reader, ndefOperations, cloneImage);
+		} else if(ndefTerminalWriteListener != null && !ndefTerminalReadListeners.isEmpty()) {
+			// read first then write, if the written editor does not also read
+			read(reader, ndefOperations, true);
+			if(!ndefTerminalReadListeners.contains(ndefTerminalWriteListener)) {
+				write(reader, ndefOperations, ndefTerminalWriteListener, next.getNdefTerminalWriteMessage());
 			}
+		} else if(ndefTerminalWriteListener != null) {
+			write(reader, ndefOperations, ndefTerminalWriteListener, next.getNdefTerminalWriteMessage());
+		} else if(!ndefTerminalReadListeners.isEmpty()) {
+			read(reader, ndefOperations, true);
+		} else if(captureFile != null) {
+			capture(reader, ndefOperations, captureFile);
+		} else {
+			read(reader, ndefOperations, false);
+		}
+	}
+	
+	/**
+	 * 
+	 * @return tag UID as hex, or null if unknown
+	 */
+	
+	private static String getTagId(NdefOperations ndefOperations) {
+		TagInfo tagInfo = ndefOperations.getTagInfo();
+		if(tagInfo != null && tagInfo.getId() != null) {
+			return NdefMessageTemplate.toHexString(tagInfo.getId());
 		}
+		return null;
 	}
 	
-	private void read(boolean newEditor) {
+	/**
+	 * 
+	 * Read the tag and publish the contents, which the read listeners receive via their subscriptions. 
+	 * Open the contents in a new editor if there are no read listeners.
+	 * 
+	 * @param autoRead true if there are read listeners
+	 */
+	
+	private void read(NdefTerminalReader reader, NdefOperations ndefOperations, boolean autoRead) {
+		String tagId = getTagId(ndefOperations);
+		
 		List<Record> list; 
-		if (ndefOperations.isFormatted()) {
-			if (ndefOperations.hasNdefMessage()) {
-				list = ndefOperations.readNdefMessage();
+		try {
+			if (ndefOperations.isFormatted()) {
+				if (ndefOperations.hasNdefMessage()) {
+					list = ndefOperations.readNdefMessage();
+				} else {
+					log("Empty formatted tag. Size: " + ndefOperations.getMaxSize() + " bytes");
+					
+					 list = new ArrayList<Record>();
+				}
 			} else {
-				log("Empty formatted tag. Size: " + ndefOperations.getMaxSize() + " bytes");
+				log("Empty tag. NOT formatted. Size: " + ndefOperations.getMaxSize() + " bytes");
 				
 				 list = new ArrayList<Record>();
 			}
-		} else {
-			log("Empty tag. NOT formatted. Size: " + ndefOperations.getMaxSize() + " bytes");
+		} catch(RuntimeException e) {
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), tagId, null, "Read failed: " + e.toString()));
 			
-			 list = new ArrayList<Record>();
+			throw e;
 		}
 		
-		if(newEditor) {
+		boolean cached = ndefOperations instanceof NdefType2Operations && ((NdefType2Operations)ndefOperations).isCached();
+		if(cached) {
+			log("Tag unchanged since last seen, using cached contents");
+		}
+		
+		// publish the message rather than the records, so that every read listener decodes records of its own
+		final byte[] encode = NdefContext.getNdefMessageEncoder().encode(list);
+		
+		eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.READ_COMPLETE, reader.getTerminalName(), tagId, encode, null));
+		
+		if(!autoRead) {
 			log("Read NDEF into new editor");
 			
-			final byte[] encode = NdefContext.getNdefMessageEncoder().encode(list);
+			openNewEditor(reader, encode, tagId, list, cached);
+		} else {
+			log("Read NDEF into open editors");
+			
+			setStatus(reader, "Auto-read successful.");
+		}
 
-			openNewEditor(encode);
+	}
+	
+	/**
+	 * 
+	 * Read the tag and append it to the capture file, whether or not it could be decoded.
+	 * 
+	 */
+	
+	private void capture(NdefTerminalReader reader, NdefOperations ndefOperations, NdefCaptureFile captureFile) {
+		String tagId = getTagId(ndefOperations);
+		String tagType = null;
+		TagInfo tagInfo = ndefOperations.getTagInfo();
+		if(tagInfo != null && tagInfo.getTagType() != null) {
+			tagType = tagInfo.getTagType().name();
+		}
+		
+		NdefCaptureFile.Status status;
+		String message = null;
+		byte[] ndef = null;
+		try {
+			if(!ndefOperations.isFormatted()) {
+				status = NdefCaptureFile.Status.NOT_FORMATTED;
+			} else if(!ndefOperations.hasNdefMessage()) {
+				status = NdefCaptureFile.Status.EMPTY;
+			} else {
+				List<Record> list = ndefOperations.readNdefMessage();
+				
+				ndef = getNdefMessage(ndefOperations);
+				if(ndef == null) {
+					ndef = NdefContext.getNdefMessageEncoder().encode(list);
+				}
+				status = NdefCaptureFile.Status.DECODED;
+			}
+		} catch(Exception e) {
+			status = NdefCaptureFile.Status.FAILED;
+			message = e.toString();
+			
+			// keep what is on the tag, for later analysis
+			ndef = getNdefMessage(ndefOperations);
+		}
+		if(ndef == null) {
+			ndef = new byte[0];
+		}
+		if(status == NdefCaptureFile.Status.FAILED) {
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), tagId, null, "Read failed: " + message));
 		} else {
-			log("Read NDEF into open editor " + ndefTerminalReadListener.getClass().getSimpleName());
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.READ_COMPLETE, reader.getTerminalName(), tagId, ndef, null));
+		}
+		
+		try {
+			captureFile.append(new NdefCaptureFile.Capture(System.currentTimeMillis(), reader.getTerminalName(), tagId, tagType, status, message, ndef));
 			
-			ndefTerminalReadListener.setNdefContent(list);
+			setStatus(reader, "Captured tag #" + captureFile.getCount() + " (" + status.name().toLowerCase().replace('_', ' ') + ").");
+		} catch(IOException e) {
+			log("Unable to capture tag: " + e.toString());
 			
-			setStatus("Auto-read successful.");
+			setStatus(reader, "Capture not possible.");
+		}
+		
+		scheduleCaptureFlush();
+	}
+	
+	private void scheduleCaptureFlush() {
+		if(captureFlushScheduled.compareAndSet(false, true)) {
+			executor.schedule(new Runnable() {
+				public void run() {
+					captureFlushScheduled.set(false);
+					
+					// a replaced capture file was flushed when closed
+					NdefCaptureFile captureFile = state.get().getCaptureFile();
+					if(captureFile != null) {
+						try {
+							captureFile.flush();
+						} catch(IOException e) {
+							log("Problem flushing capture file: " + e.toString());
+						}
+					}
+				}
+			}, NdefCaptureFile.FLUSH_INTERVAL);
 		}
-
 	}
 	
-	private void write() {
-		log("Write NDEF from editor " + ndefTerminalWriteListener.getClass().getSimpleName());
+	/**
+	 * 
+	 * @return raw NDEF message as on the tag, or null if not known
+	 */
+	
+	private static byte[] getNdefMessage(NdefOperations ndefOperations) {
+		if(ndefOperations instanceof NdefType2Operations) {
+			byte[] image = ((NdefType2Operations)ndefOperations).getImage();
+			if(image != null) {
+				return NdefTagCache.getNdefMessage(image);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * 
+	 * @param ndef message of the write listener, encoded on the UI thread, or null if it could not be encoded
+	 */
+	
+	private void write(NdefTerminalReader reader, NdefOperations ndefOperations, NdefTerminalListener ndefTerminalWriteListener, byte[] ndef) {
+		log("Write NDEF from editor " + ndefTerminalWriteListener.getClass().getSimpleName() + " to " + reader.getTerminalName());
 
-		List<Record> records = ndefTerminalWriteListener.getNdefRecords();
-		
 		if(ndefOperations != null) {
+			if(ndef == null) {
+    			setStatus(reader, "Auto-write not possible.");
+    			
+    			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), getTagId(ndefOperations), null, "Write failed: message could not be encoded"));
+    			
+    			return;
+			}
     		try {
-    			NdefContext.getNdefMessageEncoder().encode(records);
-
-				if(ndefOperations.isFormatted()) {
-					ndefOperations.writeNdefMessage(records.toArray(new Record[records.size()]));
-				} else {
-					ndefOperations.format(records.toArray(new Record[records.size()]));
+    			// the records belong to the editor, so write what it encoded
+    			NdefTerminalWriteCommand.write(ndefOperations, ndef);
+    			
+				if(ndefOperations.isFormatted() && ndefOperations instanceof NdefType2Operations) {
+					NdefType2Operations type2Operations = (NdefType2Operations)ndefOperations;
+					
+					log("Wrote " + type2Operations.getLastWrittenPages() + " of " + type2Operations.getDataPages() + " pages");
 				}
-    			setStatus("Auto-write successful.");
+    			setStatus(reader, "Auto-write successful.");
+    			
+    			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.WRITE_COMPLETE, reader.getTerminalName(), getTagId(ndefOperations), ndef, null));
     		} catch(Exception e) {
-    			setStatus("Auto-write not possible.");
+    			setStatus(reader, "Auto-write not possible.");
+    			
+    			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), getTagId(ndefOperations), null, "Write failed: " + e.toString()));
     		}
 		}
 	}
 
-	@Override
-	public void onStatusChanged(TerminalStatus status) {
-
-		synchronized(this) {
-			if(this.terminalStatus != status) {
-				/*
-				if(status == TerminalStatus.CLOSED) {
-					stopReader();
-					
-					notfiyChange();
-				} else 
-				*/
-				if(status == TerminalStatus.CONNECTED) {
-					setStatus("Tag connected.");
-				} else if(status == TerminalStatus.DISCONNECTED) {
-					setStatus("Tag disconnected.");
-					
-					ndefOperations = null;
-				} else if(status == TerminalStatus.WAITING) {
-					// do nothing
-				}
-				this.terminalStatus = status;
+	private void provision(NdefTerminalReader reader, NdefOperations ndefOperations, NdefProvisioner ndefProvisioner) {
+		NdefProvisioner.Result result = ndefProvisioner.provision(reader.getTerminalName(), ndefOperations);
+		if(result != null) {
+			log("Provisioning: " + result);
+			
+			if(result.isSuccess()) {
+				setStatus(reader, "Provisioned #" + result.getSequence() + ". " + ndefProvisioner.getStatistics());
+				
+				eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.WRITE_COMPLETE, reader.getTerminalName(), getTagId(ndefOperations), null, "Provisioned #" + result.getSequence()));
+			} else {
+				setStatus(reader, "Provisioning #" + result.getSequence() + " failed: " + result.getFailure() + ". " + ndefProvisioner.getStatistics());
+				
+				eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), getTagId(ndefOperations), null, "Provisioning #" + result.getSequence() + " failed: " + result.getFailure()));
 			}
+		} else if(ndefProvisioner.getFailure() != null) {
+			setStatus(reader, "Provisioning stopped: " + ndefProvisioner.getFailure() + ". " + ndefProvisioner.getStatistics());
+		} else {
+			setStatus(reader, "Provisioning done. " + ndefProvisioner.getStatistics());
+		}
+	}
+
+	/**
+	 * 
+	 * Restore the clone image onto the tag, writing only the data pages which differ from the tag.
+	 * 
+	 */
+	
+	private void clone(NdefTerminalReader reader, NdefOperations ndefOperations, NdefTagImage cloneImage) {
+		String tagId = getTagId(ndefOperations);
+		
+		if(!(ndefOperations instanceof NdefType2Operations)) {
+			setStatus(reader, "Clone not possible, not a Type 2 tag.");
+			
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), tagId, null, "Clone failed: not a Type 2 tag"));
+			
+			return;
+		}
+		NdefType2Operations type2Operations = (NdefType2Operations)ndefOperations;
+		try {
+			int pages = type2Operations.restore(cloneImage);
+			
+			log("Cloned " + cloneImage.getFile().getName() + " to " + reader.getTerminalName() + ", wrote " + pages + " of " + type2Operations.getDataPages() + " pages");
+			
+			setStatus(reader, "Clone successful, " + pages + " pages written.");
+			
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.WRITE_COMPLETE, reader.getTerminalName(), tagId, null, "Cloned " + cloneImage.getFile().getName()));
+		} catch(Exception e) {
+			setStatus(reader, "Clone not possible.");
+			
+			eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), tagId, null, "Clone failed: " + e.toString()));
+		}
+	}
+
+	void onStatusChanged(NdefTerminalReader reader, TerminalStatus status) {
+		if(status == TerminalStatus.CONNECTED) {
+			setStatus(reader, "Tag connected.");
+		} else if(status == TerminalStatus.DISCONNECTED) {
+			setStatus(reader, "Tag disconnected.");
+		} else if(status == TerminalStatus.WAITING) {
+			// do nothing
+		}
+	}
+
+	void unsupportedTag(NdefTerminalReader reader, Tag tag) {
+		setStatus(reader, "Unsupported tag of type " + tag.getTagType() + " detected");
+		
+		eventBus.publish(new NdefTerminalEvent(NdefTerminalEvent.Type.ERROR, reader.getTerminalName(), null, null, "Unsupported tag of type " + tag.getTagType()));
+	}
+
+	/**
+	 * 
+	 * @return current readers, active reader and listeners
+	 */
+	
+	public NdefTerminalState getState() {
+		return state.get();
+	}
+	
+	/**
+	 * 
+	 * Delivers read tags to an editor, on the listener's own subscription to the event bus.
+	 * 
+	 */
+	
+	private static class ReadListenerSubscriber implements NdefTerminalSubscriber {
+		
+		private final NdefTerminalListener ndefTerminalListener;
+
+		public ReadListenerSubscriber(NdefTerminalListener ndefTerminalListener) {
+			this.ndefTerminalListener = ndefTerminalListener;
+		}
+		
+		@Override
+		public void onEvent(NdefTerminalEvent event) {
+			// decoded for this listener only, so editors never share records
+			ndefTerminalListener.setNdefContent(event.getRecords());
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof ReadListenerSubscriber && ((ReadListenerSubscriber)obj).ndefTerminalListener == ndefTerminalListener;
+		}
+		
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(ndefTerminalListener);
 		}
+		
+		@Override
+		public String toString() {
+			return ndefTerminalListener.getClass().getSimpleName();
+		}
+	}
+	
+	public List<NdefTerminalListener> getNdefTerminalReadListeners() {
+		return state.get().getNdefTerminalReadListeners();
 	}
 
-	public NdefTerminalListener getNdefTerminalReadListener() {
-		return ndefTerminalReadListener;
+	/**
+	 * 
+	 * Add a listener which receives the contents of every tag read, alongside any other read listeners.
+	 * 
+	 */
+	
+	public void addNdefTerminalReadListener(NdefTerminalListener ndefTerminalReadListener) {
+		NdefTerminalState current;
+		NdefTerminalState next;
+		do {
+			current = state.get();
+			next = current.withNdefTerminalReadListener(ndefTerminalReadListener);
+		} while(current != next && !state.compareAndSet(current, next));
+		
+		if(current != next) {
+			eventBus.subscribe(new ReadListenerSubscriber(ndefTerminalReadListener), NdefTerminalEvent.Type.READ_COMPLETE);
+		}
 	}
 
-	public void setNdefTerminalReadListener(NdefTerminalListener ndefTerminalReadListener) {
-		synchronized(this) {
-			this.ndefTerminalReadListener = ndefTerminalReadListener;
+	public void removeNdefTerminalReadListener(NdefTerminalListener ndefTerminalReadListener) {
+		NdefTerminalState current;
+		NdefTerminalState next;
+		do {
+			current = state.get();
+			next = current.withoutNdefTerminalReadListener(ndefTerminalReadListener);
+		} while(current != next && !state.compareAndSet(current, next));
+		
+		if(current != next) {
+			eventBus.unsubscribe(new ReadListenerSubscriber(ndefTerminalReadListener));
 		}
 	}
 	
 	public NdefTerminalListener getNdefTerminalWriteListener() {
-		return ndefTerminalWriteListener;
+		return state.get().getNdefTerminalWriteListener();
 	}
 
-	public void setNdefTerminalWriteListener(NdefTerminalListener ndefTerminalWriteListener) {
-		synchronized(this) {
-			this.ndefTerminalWriteListener = ndefTerminalWriteListener;
+	public byte[] getNdefTerminalWriteMessage() {
+		return state.get().getNdefTerminalWriteMessage();
+	}
+
+	/**
+	 * 
+	 * @param ndef raw NDEF message of the write listener, encoded on the UI thread, or null if it could not be encoded; copied
+	 */
+	
+	public void setNdefTerminalWriteListener(NdefTerminalListener ndefTerminalWriteListener, byte[] ndef) {
+		byte[] copy = ndef != null ? ndef.clone() : null;
+		
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withNdefTerminalWriteListener(ndefTerminalWriteListener, copy)));
+	}
+
+	/**
+	 * 
+	 * Replace the message written to tags as they arrive, if the listener still is the write listener.
+	 * 
+	 * @param ndef raw NDEF message, encoded on the UI thread, or null if it could not be encoded; copied
+	 */
+	
+	public void setNdefTerminalWriteMessage(NdefTerminalListener ndefTerminalWriteListener, byte[] ndef) {
+		byte[] copy = ndef != null ? ndef.clone() : null;
+		
+		NdefTerminalState current;
+		do {
+			current = state.get();
+			if(current.getNdefTerminalWriteListener() != ndefTerminalWriteListener) {
+				return;
+			}
+		} while(!state.compareAndSet(current, current.withNdefTerminalWriteListener(ndefTerminalWriteListener, copy)));
+	}
+
+	public NdefProvisioner getNdefProvisioner() {
+		return state.get().getNdefProvisioner();
+	}
+
+	/**
+	 * 
+	 * Start provisioning, replacing (and stopping) any current provisioner.
+	 * 
+	 * @param ndefProvisioner started provisioner, or null to stop provisioning
+	 */
+	
+	public void setNdefProvisioner(NdefProvisioner ndefProvisioner) {
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withNdefProvisioner(ndefProvisioner)));
+		
+		NdefProvisioner previous = current.getNdefProvisioner();
+		if(previous != null && previous != ndefProvisioner) {
+			previous.stop();
 		}
 	}
 
-	public String getTerminalName() {
-		synchronized(this) {
-			if(currentTerminal != null) {
-				return currentTerminal.getTerminalName();
+	public NdefCaptureFile getCaptureFile() {
+		return state.get().getCaptureFile();
+	}
+
+	/**
+	 * 
+	 * Start capturing tags which would otherwise open in new editors, replacing (and closing) any current capture file.
+	 * 
+	 * @param captureFile open capture file, or null to stop capturing
+	 */
+	
+	public void setCaptureFile(NdefCaptureFile captureFile) {
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withCaptureFile(captureFile)));
+		
+		NdefCaptureFile previous = current.getCaptureFile();
+		if(previous != null && previous != captureFile) {
+			try {
+				previous.close();
+			} catch(IOException e) {
+				log("Problem closing capture file: " + e.toString());
 			}
-			return null;
 		}
 	}
 
+	public NdefTagImage getCloneImage() {
+		return state.get().getCloneImage();
+	}
+
+	/**
+	 * 
+	 * Start cloning an image onto every tag presented, instead of reading or writing the tags. 
+	 * Any current clone image is replaced (and closed).
+	 * 
+	 * @param cloneImage open image, or null to stop cloning
+	 */
+	
+	public void setCloneImage(NdefTagImage cloneImage) {
+		NdefTerminalState current;
+		do {
+			current = state.get();
+		} while(!state.compareAndSet(current, current.withCloneImage(cloneImage)));
+		
+		NdefTagImage previous = current.getCloneImage();
+		if(previous != null && previous != cloneImage) {
+			try {
+				previous.close();
+			} catch(IOException e) {
+				log("Problem closing clone image: " + e.toString());
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * @return name of the active reader, with the number of other readers if any, or null if no readers
+	 */
+	
+	public String getTerminalName() {
+		return state.get().getTerminalName();
+	}
+
+	/**
+	 * 
+	 * @return the reader which saw the most recent tag, or the first reader, or null if no readers
+	 */
+	
+	public NdefTerminalReader getActiveReader() {
+		return state.get().getActiveReader();
+	}
+
+	public List<NdefTerminalReader> getReaders() {
+		return new ArrayList<NdefTerminalReader>(state.get().getReaders().values());
+	}
+
 	public NdefOperations getNdefOperations() {
-		return ndefOperations;
+		NdefTerminalReader reader = getActiveReader();
+		if(reader != null) {
+			return reader.getNdefOperations();
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * Stop handing out operations for a tag, on whichever reader it is.
+	 * 
+	 */
+	
+	void invalidateNdefOperations(NdefOperations ndefOperations) {
+		for(NdefTerminalReader reader : state.get().getReaders().values()) {
+			if(reader.invalidate(ndefOperations)) {
+				log("Tag on " + reader.getTerminalName() + " must be presented again");
+			}
+		}
 	}
 
 	public TerminalStatus getTerminalStatus() {
-		return terminalStatus;
+		NdefTerminalReader reader = getActiveReader();
+		if(reader != null) {
+			return reader.getTerminalStatus();
+		}
+		return null;
 	}
 
-	@Override
-	public void unsupportedTag(Tag tag) {
-		setStatus("Unsupported tag of type " + tag.getTagType() + " detected");
-	};
+	/**
+	 * 
+	 * @return contents of recently seen tags, shared by all readers
+	 */
+	
+	public NdefTagCache getTagCache() {
+		return tagCache;
+	}
+
+	public NdefTerminalExecutor getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * 
+	 * @return bus for subscribing to reader and tag events
+	 */
 	
+	public NdefTerminalEventBus getEventBus() {
+		return eventBus;
+	}
 	
 }
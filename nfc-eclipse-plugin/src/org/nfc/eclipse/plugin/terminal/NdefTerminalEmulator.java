@@ -0,0 +1,241 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.nfc.eclipse.plugin.Activator;
+import org.nfctools.api.TagListener;
+import org.nfctools.api.TagScannerListener;
+import org.nfctools.scio.AbstractTerminal;
+import org.nfctools.scio.TerminalMode;
+import org.nfctools.scio.TerminalStatus;
+
+/**
+ * 
+ * Card terminal without hardware. Tags are presented to and removed from the terminal on a script, 
+ * which is played on the terminal's own scanning thread, just like a physical reader reports tags:
+ * <pre>
+ * emulator.present(tag).pause(500).remove();
+ * </pre>
+ * Script steps can be added at any time, before or after the terminal starts listening.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalEmulator extends AbstractTerminal {
+
+	public static final String NAME_PREFIX = "Emulator";
+	
+	private static final Object REMOVE = new Object();
+	
+	private static class Pause {
+		
+		private final long millis;
+		
+		public Pause(long millis) {
+			this.millis = millis;
+		}
+	}
+	
+	private final String name;
+	
+	private final BlockingQueue<Object> script = new LinkedBlockingQueue<Object>();
+	
+	private TagListener tagListener;
+	
+	private TagScannerListener tagScannerListener;
+	
+	private Thread thread;
+	
+	private NdefTagEmulator current;
+	
+	public NdefTerminalEmulator() {
+		this(NAME_PREFIX);
+	}
+	
+	public NdefTerminalEmulator(String name) {
+		if(!canHandle(name)) {
+			throw new IllegalArgumentException("Name must start with " + NAME_PREFIX);
+		}
+		this.name = name;
+	}
+
+	/**
+	 * 
+	 * Put the tag on the terminal, removing the current tag first if there is one.
+	 * 
+	 */
+	
+	public NdefTerminalEmulator present(NdefTagEmulator tag) {
+		script.add(tag);
+		
+		return this;
+	}
+	
+	public NdefTerminalEmulator remove() {
+		script.add(REMOVE);
+		
+		return this;
+	}
+	
+	public NdefTerminalEmulator pause(long millis) {
+		script.add(new Pause(millis));
+		
+		return this;
+	}
+
+	/**
+	 * 
+	 * @return the tag currently on the terminal, or null
+	 */
+	
+	public synchronized NdefTagEmulator getTag() {
+		return current;
+	}
+	
+	/**
+	 * 
+	 * @return true if all script steps have been played
+	 */
+	
+	public boolean isIdle() {
+		return script.isEmpty();
+	}
+	
+	@Override
+	public boolean canHandle(String terminalName) {
+		return terminalName.startsWith(NAME_PREFIX);
+	}
+
+	@Override
+	public String getTerminalName() {
+		return name;
+	}
+	
+	@Override
+	public void registerTagListener(TagListener tagListener) {
+		this.tagListener = tagListener;
+	}
+
+	@Override
+	public void setMode(TerminalMode terminalMode, TagScannerListener tagScannerListener) {
+		if(terminalMode != TerminalMode.INITIATOR) {
+			throw new IllegalArgumentException("Only initiator mode is emulated");
+		}
+		this.tagScannerListener = tagScannerListener;
+	}
+
+	@Override
+	public synchronized void startListening() {
+		if(thread == null) {
+			thread = new Thread(new Runnable() {
+				public void run() {
+					play();
+				}
+			}, "NFC terminal " + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	@Override
+	public synchronized void stopListening() {
+		if(thread != null) {
+			thread.interrupt();
+			
+			thread = null;
+		}
+	}
+
+	private void play() {
+		notifyStatus(TerminalStatus.WAITING);
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				Object step = script.take();
+				
+				if(step instanceof Pause) {
+					Thread.sleep(((Pause)step).millis);
+				} else if(step == REMOVE) {
+					removeTag();
+				} else if(step instanceof NdefTagEmulator) {
+					removeTag();
+					
+					NdefTagEmulator tag = (NdefTagEmulator)step;
+					tag.activate();
+					
+					synchronized(this) {
+						current = tag;
+					}
+					notifyStatus(TerminalStatus.CONNECTED);
+					
+					try {
+						if(tagListener != null) {
+							tagListener.onTag(tag);
+						}
+					} catch(Exception e) {
+						Activator.info("Tag handling failed on " + name + ": " + e.toString());
+						
+						if(tagScannerListener != null) {
+							tagScannerListener.onTagHandingFailed(e);
+						}
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+		if(tagScannerListener != null) {
+			tagScannerListener.onScanningEnded();
+		}
+	}
+	
+	private void removeTag() {
+		boolean removed;
+		synchronized(this) {
+			removed = current != null;
+			current = null;
+		}
+		if(removed) {
+			notifyStatus(TerminalStatus.DISCONNECTED);
+			notifyStatus(TerminalStatus.WAITING);
+		}
+	}
+	
+	@Override
+	public void initInitiatorDep() throws IOException {
+		throw new IOException("Peer to peer is not emulated");
+	}
+
+	@Override
+	public void initTargetDep() throws IOException {
+		throw new IOException("Peer to peer is not emulated");
+	}
+}
@@ -0,0 +1,154 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.nfctools.ndef.NdefContext;
+import org.nfctools.ndef.Record;
+
+/**
+ * 
+ * Something which happened on a terminal, as published on the {@link NdefTerminalEventBus}.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalEvent {
+
+	public enum Type {
+		/** A reader was started */
+		READER_ATTACHED,
+		/** A reader was stopped or disconnected */
+		READER_DETACHED,
+		/** A supported tag was detected; the tag id is set if known */
+		TAG_PRESENT,
+		/** A tag was read; the NDEF message is set */
+		READ_COMPLETE,
+		/** A tag was written; the NDEF message is set if known */
+		WRITE_COMPLETE,
+		/** Reading, writing or provisioning failed, or the tag is not supported; the message is set */
+		ERROR;
+	}
+	
+	private final Type type;
+	private final String terminalName;
+	private final long time = System.currentTimeMillis();
+	private final String tagId;
+	private final byte[] ndef;
+	private final String message;
+	
+	/**
+	 * 
+	 * @param tagId tag UID as hex, or null
+	 * @param ndef NDEF message read or written, or null
+	 * @param message description, or null
+	 */
+	
+	public NdefTerminalEvent(Type type, String terminalName, String tagId, byte[] ndef, String message) {
+		this.type = type;
+		this.terminalName = terminalName;
+		this.tagId = tagId;
+		this.ndef = ndef != null ? ndef.clone() : null;
+		this.message = message;
+	}
+	
+	public NdefTerminalEvent(Type type, String terminalName) {
+		this(type, terminalName, null, null, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getTerminalName() {
+		return terminalName;
+	}
+
+	/**
+	 * 
+	 * @return when the event occurred, in milliseconds since the epoch
+	 */
+	
+	public long getTime() {
+		return time;
+	}
+
+	public String getTagId() {
+		return tagId;
+	}
+
+	public byte[] getNdef() {
+		return ndef != null ? ndef.clone() : null;
+	}
+
+	/**
+	 * 
+	 * Decode the NDEF message anew on every call, so that each subscriber gets records of its own 
+	 * to edit, rather than records shared with the other subscribers.
+	 * 
+	 * @return records read or written, or null if the NDEF message is not set
+	 */
+	
+	public List<Record> getRecords() {
+		if(ndef == null) {
+			return null;
+		}
+		if(ndef.length == 0) {
+			return new ArrayList<Record>();
+		}
+		return NdefContext.getNdefMessageDecoder().decodeToRecords(ndef);
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(type);
+		builder.append(" on ");
+		builder.append(terminalName);
+		if(tagId != null) {
+			builder.append(", tag ");
+			builder.append(tagId);
+		}
+		if(ndef != null) {
+			builder.append(", ");
+			builder.append(ndef.length);
+			builder.append(" bytes");
+		}
+		if(message != null) {
+			builder.append(": ");
+			builder.append(message);
+		}
+		return builder.toString();
+	}
+}
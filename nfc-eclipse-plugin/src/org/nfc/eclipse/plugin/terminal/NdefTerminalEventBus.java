@@ -0,0 +1,217 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.nfc.eclipse.plugin.Activator;
+import org.nfc.eclipse.plugin.terminal.NdefTerminalExecutor.DaemonThreadFactory;
+
+/**
+ * 
+ * Delivers terminal events to any number of subscribers. Each subscriber has its own bounded queue 
+ * and delivery thread, so publishing never blocks the thread handling the tag: a slow subscriber 
+ * only delays itself, and once its queue is full further events for it are dropped and counted.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalEventBus {
+
+	public static final int DEFAULT_CAPACITY = 64;
+	
+	/** Idle time after which a subscriber's delivery thread is released */
+	private static final long KEEP_ALIVE = 30;
+	
+	public class Subscription implements RejectedExecutionHandler {
+		
+		private final NdefTerminalSubscriber subscriber;
+		private final boolean[] types = new boolean[NdefTerminalEvent.Type.values().length];
+		private final ThreadPoolExecutor executor;
+		
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		
+		private Subscription(NdefTerminalSubscriber subscriber, int capacity, NdefTerminalEvent.Type ... types) {
+			this.subscriber = subscriber;
+			
+			if(types.length == 0) {
+				types = NdefTerminalEvent.Type.values();
+			}
+			for(NdefTerminalEvent.Type type : types) {
+				this.types[type.ordinal()] = true;
+			}
+			
+			this.executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(capacity), new DaemonThreadFactory("NFC terminal subscriber " + subscriber), this);
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+		
+		public NdefTerminalSubscriber getSubscriber() {
+			return subscriber;
+		}
+		
+		public boolean accepts(NdefTerminalEvent.Type type) {
+			return types[type.ordinal()];
+		}
+		
+		public long getDelivered() {
+			return delivered.get();
+		}
+		
+		/**
+		 * 
+		 * @return number of events not delivered because the subscriber's queue was full
+		 */
+		
+		public long getDropped() {
+			return dropped.get();
+		}
+		
+		public void unsubscribe() {
+			if(subscriptions.remove(this)) {
+				executor.shutdown();
+			}
+		}
+		
+		private void deliver(final NdefTerminalEvent event) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						subscriber.onEvent(event);
+						
+						delivered.incrementAndGet();
+					} catch(Exception e) {
+						Activator.warn("Subscriber " + subscriber + " failed on " + event, e);
+					}
+				}
+			});
+		}
+
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if(!executor.isShutdown()) { // i.e. not unsubscribed concurrently
+				if(dropped.incrementAndGet() == 1) {
+					Activator.info("Subscriber " + subscriber + " is falling behind, dropping events");
+				}
+			}
+		}
+	}
+	
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+	
+	/**
+	 * 
+	 * Subscribe to events of the given types, or all events if no types are given.
+	 * 
+	 */
+	
+	public Subscription subscribe(NdefTerminalSubscriber subscriber, NdefTerminalEvent.Type ... types) {
+		return subscribe(subscriber, DEFAULT_CAPACITY, types);
+	}
+
+	/**
+	 * 
+	 * Subscribe to events of the given types, or all events if no types are given.
+	 * 
+	 * @param capacity number of events which may wait for delivery before events are dropped
+	 */
+	
+	public Subscription subscribe(NdefTerminalSubscriber subscriber, int capacity, NdefTerminalEvent.Type ... types) {
+		if(capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be positive");
+		}
+		Subscription subscription = new Subscription(subscriber, capacity, types);
+		
+		subscriptions.add(subscription);
+		
+		return subscription;
+	}
+	
+	/**
+	 * 
+	 * Remove all subscriptions of subscribers equal to the given subscriber.
+	 * 
+	 * @return true if a subscription was removed
+	 */
+	
+	public boolean unsubscribe(NdefTerminalSubscriber subscriber) {
+		boolean removed = false;
+		for(Subscription subscription : subscriptions) {
+			if(subscription.getSubscriber().equals(subscriber)) {
+				subscription.unsubscribe();
+				
+				removed = true;
+			}
+		}
+		return removed;
+	}
+	
+	public boolean isSubscribed(NdefTerminalSubscriber subscriber) {
+		for(Subscription subscription : subscriptions) {
+			if(subscription.getSubscriber().equals(subscriber)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	public List<Subscription> getSubscriptions() {
+		return subscriptions;
+	}
+	
+	/**
+	 * 
+	 * Queue the event for all interested subscribers, without waiting for delivery.
+	 * 
+	 * @return true if any subscriber was interested
+	 */
+	
+	public boolean publish(NdefTerminalEvent event) {
+		boolean interested = false;
+		for(Subscription subscription : subscriptions) {
+			if(subscription.accepts(event.getType())) {
+				subscription.deliver(event);
+				
+				interested = true;
+			}
+		}
+		return interested;
+	}
+	
+	public void shutdown() {
+		for(Subscription subscription : subscriptions) {
+			subscription.unsubscribe();
+		}
+	}
+}
@@ -0,0 +1,288 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.swt.widgets.Display;
+import org.nfc.eclipse.plugin.Activator;
+import org.nfctools.ndef.NdefOperations;
+
+/**
+ * 
+ * Runs tag operations on a dedicated thread, so that a slow or half-removed tag never blocks 
+ * the UI thread. Commands run one at a time, in order, against the tag on the active terminal.
+ * A command which times out is reported as failed and its thread is abandoned (tag IO cannot 
+ * always be interrupted); the remaining commands continue on a new thread. As the abandoned thread 
+ * may still be using the tag, the tag is invalidated first, so no two threads ever share its operations;
+ * commands fail as not possible until the tag is presented again.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalExecutor {
+
+	private static final long RETRY_DELAY = 100;
+	
+	private final NdefTerminalDetector detector;
+	
+	private final ScheduledExecutorService watchdog;
+	
+	private volatile ExecutorService executor;
+	
+	private final Set<Future<?>> futures = Collections.newSetFromMap(new ConcurrentHashMap<Future<?>, Boolean>());
+	
+	/** The newest command for latest-wins submission, waiting to run */
+	private final AtomicReference<NdefTerminalCommand<?>> latest = new AtomicReference<NdefTerminalCommand<?>>();
+	
+	public NdefTerminalExecutor(NdefTerminalDetector detector) {
+		this.detector = detector;
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("NFC terminal watchdog"));
+		this.executor = createExecutor();
+	}
+	
+	private static ExecutorService createExecutor() {
+		return Executors.newSingleThreadExecutor(new DaemonThreadFactory("NFC terminal executor"));
+	}
+
+	/**
+	 * 
+	 * Queue a command.
+	 * 
+	 * @return future for cancelling the command
+	 */
+	
+	public Future<?> submit(final NdefTerminalCommand<?> command) {
+		return enqueue(new Runnable() {
+			public void run() {
+				execute(command);
+			}
+		});
+	}
+
+	/**
+	 * 
+	 * Queue a command which replaces any command submitted this way which has not yet started, 
+	 * i.e. after a burst of submissions only the first and the last command run. Intended for 
+	 * auto-write, where only the newest contents matter.
+	 * 
+	 */
+	
+	public void submitLatest(NdefTerminalCommand<?> command) {
+		NdefTerminalCommand<?> previous = latest.getAndSet(command);
+		if(previous == null) {
+			enqueue(new Runnable() {
+				public void run() {
+					NdefTerminalCommand<?> command = latest.getAndSet(null);
+					if(command != null) {
+						execute(command);
+					}
+				}
+			});
+		} else {
+			Activator.info("Command " + previous.getName() + " superseded");
+		}
+	}
+
+	private Future<?> enqueue(Runnable runnable) {
+		FutureTask<Void> future = new FutureTask<Void>(runnable, null) {
+			@Override
+			protected void done() {
+				futures.remove(this);
+			}
+		};
+		futures.add(future);
+		
+		synchronized(this) {
+			executor.execute(future);
+		}
+		return future;
+	}
+	
+	/**
+	 * 
+	 * Cancel all queued commands, and interrupt the running command, if any.
+	 * 
+	 */
+	
+	public void cancelAll() {
+		latest.set(null);
+		
+		for(Future<?> future : futures) {
+			future.cancel(true);
+		}
+		futures.clear();
+	}
+
+	/**
+	 * 
+	 * Run a short task on the watchdog thread after a delay, i.e. housekeeping which must not wait for tag IO.
+	 * 
+	 */
+	
+	public ScheduledFuture<?> schedule(Runnable runnable, long delay) {
+		return watchdog.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+	}
+
+	public void shutdown() {
+		cancelAll();
+		
+		executor.shutdownNow();
+		watchdog.shutdownNow();
+	}
+	
+	private <T> void execute(final NdefTerminalCommand<T> command) {
+		final ExecutorService owner = executor;
+		final Thread worker = Thread.currentThread();
+		
+		// the operations the command is using, if any
+		final AtomicReference<NdefOperations> current = new AtomicReference<NdefOperations>();
+		
+		ScheduledFuture<?> timer = watchdog.schedule(new Runnable() {
+			public void run() {
+				if(command.complete()) {
+					Activator.info("Command " + command.getName() + " timed out after " + command.getTimeout() + "ms");
+					
+					failure(command, "Timed out");
+					
+					abandon(owner, worker, current.get());
+				}
+			}
+		}, command.getTimeout(), TimeUnit.MILLISECONDS);
+		
+		try {
+			for(int attempt = 0; ; attempt++) {
+				NdefOperations ndefOperations = detector.getNdefOperations();
+				current.set(ndefOperations);
+				if(ndefOperations == null) {
+					if(command.complete()) {
+						failure(command, "Operation not possible");
+					}
+					return;
+				}
+				
+				try {
+					T result = command.execute(ndefOperations);
+					
+					if(command.complete()) {
+						success(command, result);
+					}
+					return;
+				} catch(Exception e) {
+					if(command.isComplete() || Thread.currentThread().isInterrupted()) {
+						// timed out or cancelled
+						return;
+					}
+					if(attempt >= command.getRetries()) {
+						if(command.complete()) {
+							failure(command, e.toString());
+						}
+						return;
+					}
+					Activator.info("Command " + command.getName() + " failed, retry: " + e.toString());
+					
+					try {
+						Thread.sleep(RETRY_DELAY);
+					} catch (InterruptedException e1) {
+						return;
+					}
+				}
+			}
+		} finally {
+			timer.cancel(false);
+		}
+	}
+	
+	/**
+	 * 
+	 * Leave a thread which is stuck in tag IO behind, and run the remaining commands on a new thread.
+	 * The tag the thread is stuck on is invalidated before, so that the new thread does not use it too.
+	 * 
+	 */
+	
+	private void abandon(ExecutorService owner, Thread worker, NdefOperations ndefOperations) {
+		if(ndefOperations != null) {
+			detector.invalidateNdefOperations(ndefOperations);
+		}
+		synchronized(this) {
+			if(executor == owner) {
+				executor = createExecutor();
+				
+				List<Runnable> pending = owner.shutdownNow();
+				for(Runnable runnable : pending) {
+					executor.execute(runnable);
+				}
+			}
+		}
+		worker.interrupt();
+	}
+	
+	private static <T> void success(final NdefTerminalCommand<T> command, final T result) {
+		Display.getDefault().asyncExec(new Runnable() {
+			public void run() {
+				command.onSuccess(result);
+			}
+		});
+	}
+	
+	private static void failure(final NdefTerminalCommand<?> command, final String message) {
+		Display.getDefault().asyncExec(new Runnable() {
+			public void run() {
+				command.onFailure(message);
+			}
+		});
+	}
+	
+	static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String name;
+
+		public DaemonThreadFactory(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
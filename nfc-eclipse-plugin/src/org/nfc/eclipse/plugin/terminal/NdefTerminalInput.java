@@ -35,10 +35,28 @@ public class NdefTerminalInput implements IStorageEditorInput {
 	
 	private IStorage storage;
 	private String terminal;
+	private String tagId;
 
 	NdefTerminalInput(IStorage storage, String terminal) {
+		this(storage, terminal, null);
+	}
+
+	/**
+	 * 
+	 * Input for contents read from a tag. Inputs for the same tag are equal, so that the 
+	 * workbench reuses an open editor rather than opening a duplicate.
+	 * 
+	 * @param tagId tag UID, or null if unknown
+	 */
+	
+	NdefTerminalInput(IStorage storage, String terminal, String tagId) {
 		this.storage = storage;
 		this.terminal = terminal;
+		this.tagId = tagId;
+	}
+
+	public String getTagId() {
+		return tagId;
 	}
 
 	public boolean exists() {
@@ -62,9 +80,31 @@ public class NdefTerminalInput implements IStorageEditorInput {
 	}
 
 	public String getToolTipText() {
+		if(tagId != null) {
+			return "Content from tag " + tagId + " on terminal " + terminal;
+		}
 		return "Content from terminal " + terminal;
 	}
 
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj) {
+			return true;
+		}
+		if(tagId == null || !(obj instanceof NdefTerminalInput)) {
+			return false;
+		}
+		return tagId.equals(((NdefTerminalInput)obj).tagId);
+	}
+
+	@Override
+	public int hashCode() {
+		if(tagId != null) {
+			return tagId.hashCode();
+		}
+		return System.identityHashCode(this);
+	}
+
 	@SuppressWarnings("rawtypes")
 	public Object getAdapter(Class adapter) {
 		return null;
@@ -0,0 +1,149 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.nfctools.NfcAdapter;
+import org.nfctools.api.Tag;
+import org.nfctools.api.UnknownTagListener;
+import org.nfctools.mf.classic.MfClassicNfcTagListener;
+import org.nfctools.ndef.NdefOperations;
+import org.nfctools.ndef.NdefOperationsListener;
+import org.nfctools.scio.Terminal;
+import org.nfctools.scio.TerminalMode;
+import org.nfctools.scio.TerminalStatus;
+import org.nfctools.scio.TerminalStatusListener;
+
+/**
+ * 
+ * A single card terminal with its own adapter. Each terminal scans for tags on its own thread, 
+ * so tags on different terminals are handled in parallel. Tag events are passed on to the detector 
+ * together with the terminal they occurred on.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalReader implements NdefOperationsListener, TerminalStatusListener, UnknownTagListener {
+
+	private final NdefTerminalDetector detector;
+	
+	private final Terminal terminal;
+	
+	private NfcAdapter nfcAdapter;
+	
+	private final AtomicReference<NdefOperations> ndefOperations = new AtomicReference<NdefOperations>();
+	
+	private volatile TerminalStatus terminalStatus = null;
+	
+	public NdefTerminalReader(NdefTerminalDetector detector, Terminal terminal) {
+		this.detector = detector;
+		this.terminal = terminal;
+	}
+
+	public void start() {
+		synchronized(this) {
+			terminal.setStatusListener(this);
+			nfcAdapter = new NfcAdapter(terminal, TerminalMode.INITIATOR);
+			
+			nfcAdapter.registerTagListener(new MfClassicNfcTagListener(this));
+			nfcAdapter.registerTagListener(new NdefType2TagListener(this, detector.getTagCache()));
+			nfcAdapter.registerUnknownTagListerner(this);
+			nfcAdapter.startListening();
+		}
+	}
+
+	public void stop() {
+		synchronized(this) {
+			if(nfcAdapter != null) {
+				nfcAdapter.stopListening();
+				
+				nfcAdapter = null;
+			}
+			ndefOperations.set(null);
+		}
+	}
+
+	public String getTerminalName() {
+		return terminal.getTerminalName();
+	}
+
+	public Terminal getTerminal() {
+		return terminal;
+	}
+
+	/**
+	 * 
+	 * @return operations for the tag currently on the terminal, or null
+	 */
+	
+	public NdefOperations getNdefOperations() {
+		return ndefOperations.get();
+	}
+
+	/**
+	 * 
+	 * Stop handing out operations for a tag, i.e. when a command got stuck on it. The tag must then be presented again.
+	 * 
+	 * @return true if the operations were those of the tag currently on the terminal
+	 */
+	
+	boolean invalidate(NdefOperations ndefOperations) {
+		return this.ndefOperations.compareAndSet(ndefOperations, null);
+	}
+
+	public TerminalStatus getTerminalStatus() {
+		return terminalStatus;
+	}
+
+	@Override
+	public void onNdefOperations(NdefOperations ndefOperations) {
+		this.ndefOperations.set(ndefOperations);
+		
+		detector.onNdefOperations(this, ndefOperations);
+	}
+
+	@Override
+	public void onStatusChanged(TerminalStatus status) {
+		if(this.terminalStatus != status) {
+			this.terminalStatus = status;
+			
+			if(status == TerminalStatus.DISCONNECTED) {
+				ndefOperations.set(null);
+			}
+			
+			detector.onStatusChanged(this, status);
+		}
+	}
+
+	@Override
+	public void unsupportedTag(Tag tag) {
+		detector.unsupportedTag(this, tag);
+	}
+	
+}
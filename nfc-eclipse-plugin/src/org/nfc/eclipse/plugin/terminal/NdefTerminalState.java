@@ -0,0 +1,220 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 
+ * Immutable snapshot of the detector state shown in and changed from the UI: the running readers, 
+ * the active reader and the listeners. Snapshots are replaced as a whole, so the UI can read a 
+ * consistent state without taking any lock which is held while tags are being read or written.
+ * 
+ * @author thomas
+ *
+ */
+
+public final class NdefTerminalState {
+
+	static final NdefTerminalState EMPTY = new NdefTerminalState(Collections.<String, NdefTerminalReader>emptyMap(), null, Collections.<NdefTerminalListener>emptyList(), null, null, null, null, null);
+	
+	private final Map<String, NdefTerminalReader> readers;
+	private final NdefTerminalReader activeReader;
+	private final List<NdefTerminalListener> ndefTerminalReadListeners;
+	private final NdefTerminalListener ndefTerminalWriteListener;
+	private final byte[] ndefTerminalWriteMessage;
+	private final NdefProvisioner ndefProvisioner;
+	private final NdefCaptureFile captureFile;
+	private final NdefTagImage cloneImage;
+	
+	private NdefTerminalState(Map<String, NdefTerminalReader> readers, NdefTerminalReader activeReader, List<NdefTerminalListener> ndefTerminalReadListeners, NdefTerminalListener ndefTerminalWriteListener, byte[] ndefTerminalWriteMessage, NdefProvisioner ndefProvisioner, NdefCaptureFile captureFile, NdefTagImage cloneImage) {
+		this.readers = readers;
+		this.activeReader = activeReader;
+		this.ndefTerminalReadListeners = ndefTerminalReadListeners;
+		this.ndefTerminalWriteListener = ndefTerminalWriteListener;
+		this.ndefTerminalWriteMessage = ndefTerminalWriteMessage;
+		this.ndefProvisioner = ndefProvisioner;
+		this.captureFile = captureFile;
+		this.cloneImage = cloneImage;
+	}
+
+	/**
+	 * 
+	 * @return running readers by terminal name, in order of detection
+	 */
+	
+	public Map<String, NdefTerminalReader> getReaders() {
+		return readers;
+	}
+	
+	public NdefTerminalReader getReader(String terminalName) {
+		return readers.get(terminalName);
+	}
+
+	/**
+	 * 
+	 * @return the reader which saw the most recent tag, or the first reader, or null if no readers
+	 */
+	
+	public NdefTerminalReader getActiveReader() {
+		if(activeReader != null) {
+			return activeReader;
+		}
+		if(!readers.isEmpty()) {
+			return readers.values().iterator().next();
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @return name of the active reader, with the number of other readers if any, or null if no readers
+	 */
+	
+	public String getTerminalName() {
+		NdefTerminalReader reader = getActiveReader();
+		if(reader != null) {
+			if(readers.size() > 1) {
+				return reader.getTerminalName() + " (+" + (readers.size() - 1) + ")";
+			}
+			return reader.getTerminalName();
+		}
+		return null;
+	}
+
+	/**
+	 * 
+	 * @return listeners which receive every tag read, in order of registration
+	 */
+	
+	public List<NdefTerminalListener> getNdefTerminalReadListeners() {
+		return ndefTerminalReadListeners;
+	}
+
+	public NdefTerminalListener getNdefTerminalWriteListener() {
+		return ndefTerminalWriteListener;
+	}
+
+	/**
+	 * 
+	 * @return raw NDEF message of the write listener, as encoded on the UI thread; not to be modified. Null if it could not be encoded.
+	 */
+	
+	public byte[] getNdefTerminalWriteMessage() {
+		return ndefTerminalWriteMessage;
+	}
+
+	public NdefProvisioner getNdefProvisioner() {
+		return ndefProvisioner;
+	}
+
+	public NdefCaptureFile getCaptureFile() {
+		return captureFile;
+	}
+
+	public NdefTagImage getCloneImage() {
+		return cloneImage;
+	}
+	
+	NdefTerminalState withReader(NdefTerminalReader reader) {
+		Map<String, NdefTerminalReader> readers = new LinkedHashMap<String, NdefTerminalReader>(this.readers);
+		readers.put(reader.getTerminalName(), reader);
+		
+		return new NdefTerminalState(Collections.unmodifiableMap(readers), activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+	
+	/**
+	 * 
+	 * @return state without the given readers; if the active reader is among them, there is no active reader
+	 */
+	
+	NdefTerminalState withoutReaders(List<NdefTerminalReader> removed) {
+		Map<String, NdefTerminalReader> readers = new LinkedHashMap<String, NdefTerminalReader>(this.readers);
+		for(NdefTerminalReader reader : removed) {
+			if(readers.get(reader.getTerminalName()) == reader) {
+				readers.remove(reader.getTerminalName());
+			}
+		}
+		NdefTerminalReader activeReader = this.activeReader;
+		if(removed.contains(activeReader)) {
+			activeReader = null;
+		}
+		return new NdefTerminalState(Collections.unmodifiableMap(readers), activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+	
+	NdefTerminalState withoutReaders() {
+		return withoutReaders(new ArrayList<NdefTerminalReader>(readers.values()));
+	}
+	
+	NdefTerminalState withActiveReader(NdefTerminalReader activeReader) {
+		if(this.activeReader == activeReader || !readers.containsValue(activeReader)) {
+			// already active, or stopped while reading
+			return this;
+		}
+		return new NdefTerminalState(readers, activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+	
+	NdefTerminalState withNdefTerminalReadListener(NdefTerminalListener ndefTerminalReadListener) {
+		if(ndefTerminalReadListeners.contains(ndefTerminalReadListener)) {
+			return this;
+		}
+		List<NdefTerminalListener> ndefTerminalReadListeners = new ArrayList<NdefTerminalListener>(this.ndefTerminalReadListeners);
+		ndefTerminalReadListeners.add(ndefTerminalReadListener);
+		
+		return new NdefTerminalState(readers, activeReader, Collections.unmodifiableList(ndefTerminalReadListeners), ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+	
+	NdefTerminalState withoutNdefTerminalReadListener(NdefTerminalListener ndefTerminalReadListener) {
+		if(!ndefTerminalReadListeners.contains(ndefTerminalReadListener)) {
+			return this;
+		}
+		List<NdefTerminalListener> ndefTerminalReadListeners = new ArrayList<NdefTerminalListener>(this.ndefTerminalReadListeners);
+		ndefTerminalReadListeners.remove(ndefTerminalReadListener);
+		
+		return new NdefTerminalState(readers, activeReader, Collections.unmodifiableList(ndefTerminalReadListeners), ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+
+	NdefTerminalState withNdefTerminalWriteListener(NdefTerminalListener ndefTerminalWriteListener, byte[] ndefTerminalWriteMessage) {
+		return new NdefTerminalState(readers, activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+
+	NdefTerminalState withNdefProvisioner(NdefProvisioner ndefProvisioner) {
+		return new NdefTerminalState(readers, activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+
+	NdefTerminalState withCaptureFile(NdefCaptureFile captureFile) {
+		return new NdefTerminalState(readers, activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+
+	NdefTerminalState withCloneImage(NdefTagImage cloneImage) {
+		return new NdefTerminalState(readers, activeReader, ndefTerminalReadListeners, ndefTerminalWriteListener, ndefTerminalWriteMessage, ndefProvisioner, captureFile, cloneImage);
+	}
+}
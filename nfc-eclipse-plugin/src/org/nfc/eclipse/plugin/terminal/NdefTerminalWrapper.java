@@ -43,6 +43,10 @@ import org.osgi.service.prefs.Preferences;
 
 public class NdefTerminalWrapper {
 
+	/** Cached preferences, the detector and the status line check these frequently */
+	private static volatile Boolean seenReader;
+	private static volatile Boolean readerEnabled;
+
 	public static boolean isAvailable() {
 		try {
 			return org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance() != null;
@@ -52,12 +56,56 @@ public class NdefTerminalWrapper {
 	}
 	
 
-	public static NdefTerminalListener getNdefTerminalReadListener() {
+	public static boolean isNdefTerminalReadListener(NdefTerminalListener ndefTerminalListener) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				return detector.getNdefTerminalReadListeners().contains(ndefTerminalListener);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return false;
+	}
+
+	public static void addNdefTerminalReadListener(NdefTerminalListener ndefTerminalListener) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.addNdefTerminalReadListener(ndefTerminalListener);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+
+	public static void removeNdefTerminalReadListener(NdefTerminalListener ndefTerminalListener) {
 		try {
 			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
 	
 			if(detector != null) {
-				return detector.getNdefTerminalReadListener();
+				detector.removeNdefTerminalReadListener(ndefTerminalListener);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+	
+	/**
+	 * 
+	 * Subscribe to reader and tag events of the given types, or all events if no types are given.
+	 * 
+	 * @return the subscription, or null if terminals are not available
+	 */
+	
+	public static NdefTerminalEventBus.Subscription subscribe(NdefTerminalSubscriber subscriber, NdefTerminalEvent.Type ... types) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				return detector.getEventBus().subscribe(subscriber, types);
 			}
 		} catch(Exception e) {
 			// ignore
@@ -65,12 +113,12 @@ public class NdefTerminalWrapper {
 		return null;
 	}
 
-	public static void setNdefTerminalReadListener(NdefTerminalListener ndefTerminalListener) {
+	public static void unsubscribe(NdefTerminalSubscriber subscriber) {
 		try {
 			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
 	
 			if(detector != null) {
-				detector.setNdefTerminalReadListener(ndefTerminalListener);
+				detector.getEventBus().unsubscribe(subscriber);
 			}
 		} catch(Exception e) {
 			// ignore
@@ -90,12 +138,104 @@ public class NdefTerminalWrapper {
 		return null;
 	}
 
-	public static void setNdefTerminalWriteListener(NdefTerminalListener ndefTerminalListener) {
+	/**
+	 * 
+	 * @param ndef message of the listener, encoded on the UI thread, for writing to tags as they arrive
+	 */
+	
+	public static void setNdefTerminalWriteListener(NdefTerminalListener ndefTerminalListener, byte[] ndef) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.setNdefTerminalWriteListener(ndefTerminalListener, ndef);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+
+	public static void setNdefTerminalWriteMessage(NdefTerminalListener ndefTerminalListener, byte[] ndef) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.setNdefTerminalWriteMessage(ndefTerminalListener, ndef);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+
+	public static NdefProvisioner getNdefProvisioner() {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				return detector.getNdefProvisioner();
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return null;
+	}
+
+	public static void setNdefProvisioner(NdefProvisioner ndefProvisioner) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.setNdefProvisioner(ndefProvisioner);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+
+	public static NdefCaptureFile getCaptureFile() {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				return detector.getCaptureFile();
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return null;
+	}
+
+	public static void setCaptureFile(NdefCaptureFile captureFile) {
 		try {
 			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
 	
 			if(detector != null) {
-				detector.setNdefTerminalWriteListener(ndefTerminalListener);
+				detector.setCaptureFile(captureFile);
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+	}
+
+	public static NdefTagImage getCloneImage() {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				return detector.getCloneImage();
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return null;
+	}
+
+	public static void setCloneImage(NdefTagImage cloneImage) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.setCloneImage(cloneImage);
 			}
 		} catch(Exception e) {
 			// ignore
@@ -116,6 +256,51 @@ public class NdefTerminalWrapper {
 	}
 
 
+	/**
+	 * 
+	 * Run a tag operation off the UI thread.
+	 * 
+	 * @return false if there is no terminal support, in which case the command is not run
+	 */
+	
+	public static boolean submit(NdefTerminalCommand<?> command) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.getExecutor().submit(command);
+				
+				return true;
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return false;
+	}
+
+	/**
+	 * 
+	 * Run a tag operation off the UI thread, replacing any such operation which has not started yet.
+	 * 
+	 * @return false if there is no terminal support, in which case the command is not run
+	 * @see NdefTerminalExecutor#submitLatest(NdefTerminalCommand)
+	 */
+	
+	public static boolean submitLatest(NdefTerminalCommand<?> command) {
+		try {
+			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
+	
+			if(detector != null) {
+				detector.getExecutor().submitLatest(command);
+				
+				return true;
+			}
+		} catch(Exception e) {
+			// ignore
+		} 
+		return false;
+	}
+
 	public static NdefOperations getNdefOperations() {
 		try {
 			org.nfc.eclipse.plugin.terminal.NdefTerminalDetector detector = org.nfc.eclipse.plugin.terminal.NdefTerminalDetector.getInstance();
@@ -130,24 +315,38 @@ public class NdefTerminalWrapper {
 	}
 
 	public static boolean hasSeenReader() {
-		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
-		Preferences reader = preferences.node("reader");
-
-		return reader.getBoolean("seen", false);
+		Boolean seen = seenReader;
+		if(seen == null) {
+			Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+			Preferences reader = preferences.node("reader");
+	
+			seen = reader.getBoolean("seen", false);
+			
+			seenReader = seen;
+		}
+		return seen;
 	}
 
 	public static boolean isReaderEnabledPreference() {
-		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
-		Preferences reader = preferences.node("reader");
-
-		return reader.getBoolean("enable", true);
+		Boolean enabled = readerEnabled;
+		if(enabled == null) {
+			Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+			Preferences reader = preferences.node("reader");
+	
+			enabled = reader.getBoolean("enable", true);
+			
+			readerEnabled = enabled;
+		}
+		return enabled;
 	}
 
 	public static void setReaderEnabledPreference(boolean enabled) {
-		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
-		Preferences reader = preferences.node("reader");
+		if(isReaderEnabledPreference() != enabled) {
+			readerEnabled = enabled;
+			
+			Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+			Preferences reader = preferences.node("reader");
 
-		if(reader.getBoolean("enable", true) != enabled) {
 			reader.putBoolean("enable", enabled);
 			
 			try {
@@ -159,11 +358,55 @@ public class NdefTerminalWrapper {
 		}
 	}
 
-	public static void setSeenTerminal(boolean seen) {
+	public static boolean isProvisionVerifyPreference() {
 		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
-		Preferences reader = preferences.node("reader");
+		Preferences provision = preferences.node("provision");
+
+		return provision.getBoolean("verify", true);
+	}
+
+	public static void setProvisionVerifyPreference(boolean verify) {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences provision = preferences.node("provision");
+
+		provision.putBoolean("verify", verify);
+		
+		try {
+			  // Forces the application to save the preferences
+			  preferences.flush();
+		} catch (BackingStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static boolean isProvisionReadOnlyPreference() {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences provision = preferences.node("provision");
+
+		return provision.getBoolean("readOnly", false);
+	}
+
+	public static void setProvisionReadOnlyPreference(boolean readOnly) {
+		Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+		Preferences provision = preferences.node("provision");
+
+		provision.putBoolean("readOnly", readOnly);
+		
+		try {
+			  // Forces the application to save the preferences
+			  preferences.flush();
+		} catch (BackingStoreException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public static void setSeenTerminal(boolean seen) {
+		if(hasSeenReader() != seen) {
+			seenReader = seen;
+			
+			Preferences preferences = ConfigurationScope.INSTANCE.getNode(Activator.class.getPackage().getName());
+			Preferences reader = preferences.node("reader");
 
-		if(reader.getBoolean("seen", false) != seen) {
 			reader.putBoolean("seen", seen);
 			
 			try {
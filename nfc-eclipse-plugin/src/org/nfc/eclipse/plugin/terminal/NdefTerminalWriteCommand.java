@@ -0,0 +1,89 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.util.List;
+
+import org.nfctools.ndef.NdefContext;
+import org.nfctools.ndef.NdefOperations;
+import org.nfctools.ndef.Record;
+
+/**
+ * 
+ * Write a message which was encoded on the UI thread, so that the executor thread never touches the
+ * records of an editor. Type 2 tags get the encoded message as is, other tags a privately decoded copy.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTerminalWriteCommand extends NdefTerminalCommand<Void> {
+
+	private final byte[] ndef;
+	
+	public NdefTerminalWriteCommand(String name, byte[] ndef) {
+		this(name, DEFAULT_TIMEOUT, 0, ndef);
+	}
+
+	/**
+	 * 
+	 * @param ndef raw NDEF message, copied
+	 */
+	
+	public NdefTerminalWriteCommand(String name, long timeout, int retries, byte[] ndef) {
+		super(name, timeout, retries);
+		
+		this.ndef = ndef.clone();
+	}
+
+	@Override
+	protected Void execute(NdefOperations ndefOperations) {
+		write(ndefOperations, ndef);
+		
+		return null;
+	}
+
+	/**
+	 * 
+	 * Write or format with an encoded message, without touching any editor records.
+	 * 
+	 */
+	
+	static void write(NdefOperations ndefOperations, byte[] ndef) {
+		if(ndefOperations.isFormatted() && ndefOperations instanceof NdefType2Operations) {
+			((NdefType2Operations)ndefOperations).writeNdefMessage(ndef);
+		} else {
+			List<Record> records = NdefContext.getNdefMessageDecoder().decodeToRecords(ndef);
+			
+			if(ndefOperations.isFormatted()) {
+				ndefOperations.writeNdefMessage(records.toArray(new Record[records.size()]));
+			} else {
+				ndefOperations.format(records.toArray(new Record[records.size()]));
+			}
+		}
+	}
+}
@@ -0,0 +1,274 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import javax.smartcardio.CardTerminal;
+
+import org.nfc.eclipse.plugin.Activator;
+import org.nfctools.api.ApduTag;
+import org.nfctools.api.Tag;
+import org.nfctools.api.TagListener;
+import org.nfctools.api.TagScannerListener;
+import org.nfctools.ndef.NdefListener;
+import org.nfctools.nfcip.NFCIPConnectionListener;
+import org.nfctools.scio.Command;
+import org.nfctools.scio.Response;
+import org.nfctools.scio.Terminal;
+import org.nfctools.scio.TerminalMode;
+import org.nfctools.scio.TerminalStatus;
+import org.nfctools.scio.TerminalStatusListener;
+
+/**
+ * 
+ * Terminal which records the traffic of another terminal, such as an ACS or SCL terminal, 
+ * to a {@link NdefApduTrace}. Tags are passed on wrapped, so that every command sent to a tag 
+ * and its response are recorded along with the time the exchange took. Each listening session 
+ * gets its own trace file, which can be played back with a {@link NdefReplayTerminal}.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefTracingTerminal implements Terminal {
+
+	public static final String EXTENSION = ".apdutrace";
+	
+	private class TracingTag extends Tag implements ApduTag {
+		
+		private final ApduTag tag;
+		private final NdefApduTrace.Writer writer;
+		
+		public TracingTag(Tag tag, NdefApduTrace.Writer writer) {
+			super(tag.getTagType(), tag.getGeneralBytes());
+			
+			this.tag = (ApduTag)tag;
+			this.writer = writer;
+		}
+
+		@Override
+		public Response transmit(Command command) {
+			long start = System.nanoTime();
+			Response response;
+			try {
+				response = tag.transmit(command);
+			} catch(RuntimeException e) {
+				record(writer, command, null, e.toString(), start);
+				
+				throw e;
+			}
+			record(writer, command, response, null, start);
+			
+			return response;
+		}
+	}
+	
+	private final Terminal terminal;
+	
+	private final File directory;
+	
+	private NdefApduTrace.Writer writer;
+	
+	private File file;
+	
+	/**
+	 * 
+	 * @param terminal terminal to record
+	 * @param directory directory for trace files
+	 */
+	
+	public NdefTracingTerminal(Terminal terminal, File directory) {
+		this.terminal = terminal;
+		this.directory = directory;
+	}
+	
+	/**
+	 * 
+	 * @return the current or most recent trace file, or null
+	 */
+	
+	public synchronized File getFile() {
+		return file;
+	}
+	
+	private synchronized NdefApduTrace.Writer getWriter() {
+		return writer;
+	}
+	
+	private void record(NdefApduTrace.Writer writer, Command command, Response response, String failure, long start) {
+		try {
+			writer.exchange(command, response, failure, start, System.nanoTime());
+		} catch(IOException e) {
+			// tracing must not interfere with the terminal
+		}
+	}
+
+	@Override
+	public void registerTagListener(final TagListener tagListener) {
+		terminal.registerTagListener(new TagListener() {
+			
+			@Override
+			public void onTag(Tag tag) {
+				NdefApduTrace.Writer writer = getWriter();
+				if(writer != null) {
+					try {
+						writer.tag(tag);
+					} catch(IOException e) {
+						// ignore
+					}
+					if(tag instanceof ApduTag) {
+						tag = new TracingTag(tag, writer);
+					}
+				}
+				tagListener.onTag(tag);
+			}
+		});
+	}
+
+	@Override
+	public void setStatusListener(final TerminalStatusListener statusListener) {
+		terminal.setStatusListener(new TerminalStatusListener() {
+			
+			@Override
+			public void onStatusChanged(TerminalStatus status) {
+				NdefApduTrace.Writer writer = getWriter();
+				if(writer != null) {
+					try {
+						writer.status(status);
+					} catch(IOException e) {
+						// ignore
+					}
+				}
+				if(statusListener != null) {
+					statusListener.onStatusChanged(status);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void startListening() {
+		synchronized(this) {
+			if(writer == null) {
+				String name = terminal.getTerminalName().replaceAll("[^A-Za-z0-9]+", "_");
+				
+				file = new File(directory, name + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + EXTENSION);
+				try {
+					writer = new NdefApduTrace.Writer(file);
+					
+					Activator.info("Tracing " + terminal.getTerminalName() + " to " + file);
+				} catch(IOException e) {
+					Activator.warn("Unable to trace " + terminal.getTerminalName() + " to " + file + ": " + e.toString());
+				}
+			}
+		}
+		terminal.startListening();
+	}
+
+	@Override
+	public void stopListening() {
+		terminal.stopListening();
+		
+		NdefApduTrace.Writer writer;
+		synchronized(this) {
+			writer = this.writer;
+			
+			this.writer = null;
+		}
+		if(writer != null) {
+			try {
+				writer.close();
+			} catch(IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	@Override
+	public void setNfcipConnectionListener(NFCIPConnectionListener nfcipConnectionListener) {
+		terminal.setNfcipConnectionListener(nfcipConnectionListener);
+	}
+
+	@Override
+	public void setMode(TerminalMode terminalMode, TagScannerListener tagScannerListener) {
+		terminal.setMode(terminalMode, tagScannerListener);
+	}
+
+	@Override
+	public boolean canHandle(String terminalName) {
+		return terminal.canHandle(terminalName);
+	}
+
+	@Override
+	public String getTerminalName() {
+		return terminal.getTerminalName();
+	}
+
+	@Override
+	public void initInitiatorDep() throws IOException {
+		terminal.initInitiatorDep();
+	}
+
+	@Override
+	public void initTargetDep() throws IOException {
+		terminal.initTargetDep();
+	}
+
+	@Override
+	public void setCardTerminal(CardTerminal cardTerminal) {
+		terminal.setCardTerminal(cardTerminal);
+	}
+
+	@Override
+	public CardTerminal getCardTerminal() {
+		return terminal.getCardTerminal();
+	}
+
+	@Override
+	public void setNdefListener(NdefListener ndefListener) {
+		terminal.setNdefListener(ndefListener);
+	}
+
+	@Override
+	public void open() throws IOException {
+		terminal.open();
+	}
+
+	@Override
+	public void close() throws IOException {
+		terminal.close();
+	}
+
+	@Override
+	public Object getConnectionToken() {
+		return terminal.getConnectionToken();
+	}
+}
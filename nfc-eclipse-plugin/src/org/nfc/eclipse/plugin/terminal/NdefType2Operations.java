@@ -0,0 +1,473 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nfctools.NfcException;
+import org.nfctools.api.TagInfo;
+import org.nfctools.mf.block.MfBlock;
+import org.nfctools.mf.tlv.NdefMessageTlv;
+import org.nfctools.mf.tlv.TypeLengthValueReader;
+import org.nfctools.mf.tlv.TypeLengthValueWriter;
+import org.nfctools.mf.ul.DataBlock;
+import org.nfctools.mf.ul.MemoryLayout;
+import org.nfctools.mf.ul.MfUlReaderWriter;
+import org.nfctools.mf.ul.Type2NdefOperations;
+import org.nfctools.ndef.Record;
+import org.nfctools.tags.TagOutputStream;
+
+/**
+ * 
+ * Type 2 tag operations which keep the last-known image of the data area, so that a new 
+ * NDEF message only is written to the pages which actually changed, and the NDEF message 
+ * is decoded from memory rather than read from the tag piece by piece. The image is read 
+ * in a single pass (see {@link #readImage()}) or known from the first complete write; 
+ * after a failed write it is discarded again, since the tag contents are then undefined.
+ * With a {@link NdefTagCache}, a tag which is already in the cache only has its used pages 
+ * read if those pages are unchanged; the records are still decoded from the image every time.
+ * Complete memory images are dumped to and restored from image files, see {@link NdefTagImage}.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefType2Operations extends Type2NdefOperations {
+
+	private final MemoryLayout memoryLayout;
+	
+	private final MfUlReaderWriter readerWriter;
+	
+	/** data pages as last read or written, or null if unknown */
+	private byte[] image;
+	
+	/** number of leading pages of the image which are known to match the tag */
+	private int knownPages;
+	
+	private int lastWrittenPages;
+	
+	private NdefTagCache tagCache;
+	
+	private byte[] capabilityContainer;
+	
+	private boolean cached;
+	
+	public NdefType2Operations(MemoryLayout memoryLayout, MfUlReaderWriter readerWriter, TagInfo tagInfo, boolean formatted, boolean writable) {
+		super(memoryLayout, readerWriter, tagInfo, formatted, writable);
+		
+		this.memoryLayout = memoryLayout;
+		this.readerWriter = readerWriter;
+	}
+
+	/**
+	 * 
+	 * Use a cache for the tag contents.
+	 * 
+	 * @param tagCache cache keyed by tag UID
+	 * @param capabilityContainer capability container as read from the tag
+	 */
+	
+	public void setTagCache(NdefTagCache tagCache, byte[] capabilityContainer) {
+		this.tagCache = tagCache;
+		this.capabilityContainer = capabilityContainer;
+	}
+	
+	/**
+	 * 
+	 * Read the data area into memory, in as few commands as the reader/writer allows. If the tag is 
+	 * cached, the used pages are read first, and the rest is only read if they do not match the cache.
+	 * 
+	 */
+	
+	public void readImage() {
+		int bytesPerPage = memoryLayout.getBytesPerPage();
+		
+		byte[] image = new byte[getDataPages() * bytesPerPage];
+		try {
+			if(tagCache != null) {
+				NdefTagCache.Entry entry = tagCache.get(getTagInfo().getId());
+				if(entry != null) {
+					int pages = Math.min(getDataPages(), (entry.getLength() + bytesPerPage - 1) / bytesPerPage);
+					
+					readPages(image, 0, pages);
+					
+					if(entry.matches(capabilityContainer, image)) {
+						this.image = image;
+						this.knownPages = pages;
+						this.cached = true;
+						
+						return;
+					}
+					readPages(image, pages, getDataPages() - pages);
+				} else {
+					readPages(image, 0, getDataPages());
+				}
+			} else {
+				readPages(image, 0, getDataPages());
+			}
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		this.image = image;
+		this.knownPages = getDataPages();
+	}
+	
+	private void readPages(byte[] image, int index, int count) throws IOException {
+		if(count > 0) {
+			int bytesPerPage = memoryLayout.getBytesPerPage();
+			
+			MfBlock[] blocks = readerWriter.readBlock(memoryLayout.getFirstDataPage() + index, count);
+			for(int i = 0; i < blocks.length; i++) {
+				System.arraycopy(blocks[i].getData(), 0, image, (index + i) * bytesPerPage, bytesPerPage);
+			}
+		}
+	}
+	
+	@Override
+	public List<Record> readNdefMessage() {
+		assertFormatted();
+		if (lastReadRecords != null) {
+			return lastReadRecords;
+		}
+		if(image == null) {
+			readImage();
+		}
+		convertRecords(new TypeLengthValueReader(new ByteArrayInputStream(image)));
+		
+		if(tagCache != null && !cached) {
+			tagCache.put(getTagInfo().getId(), capabilityContainer, image);
+		}
+		
+		return lastReadRecords;
+	}
+
+	/**
+	 * 
+	 * Read the data area from the tag again, ignoring the known image and the tag cache, i.e. to verify 
+	 * what was just written. The data area read becomes the known image.
+	 * 
+	 * @return the raw NDEF message, or null if the data area holds none
+	 */
+	
+	public byte[] rereadNdefMessage() {
+		assertFormatted();
+		
+		lastReadRecords = null;
+		image = null;
+		cached = false;
+		
+		byte[] image = new byte[getDataPages() * memoryLayout.getBytesPerPage()];
+		try {
+			readPages(image, 0, getDataPages());
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		this.image = image;
+		this.knownPages = getDataPages();
+		
+		if(tagCache != null) {
+			tagCache.put(getTagInfo().getId(), capabilityContainer, image);
+		}
+		
+		return NdefTagCache.getNdefMessage(image);
+	}
+
+	@Override
+	public void writeNdefMessage(Record... records) {
+		writeNdefMessage(convertRecordsToBytes(records));
+	}
+
+	/**
+	 * 
+	 * Write an already encoded NDEF message, i.e. one which was prepared ahead, so that it need not be decoded 
+	 * into records and encoded again.
+	 * 
+	 * @param ndef raw NDEF message
+	 */
+	
+	public void writeNdefMessage(byte[] ndef) {
+		lastReadRecords = null;
+		assertWritable();
+		assertFormatted();
+		
+		byte[] buffer = convertNdefMessage(ndef);
+		
+		byte[] previous = image;
+		image = null;
+		cached = false;
+		if(tagCache != null) {
+			tagCache.remove(getTagInfo().getId());
+		}
+
+		int bytesPerPage = memoryLayout.getBytesPerPage();
+		
+		// counted as we go, so that a failed write tells whether the tag was touched at all
+		lastWrittenPages = 0;
+		try {
+			int offset = 0;
+			for (int page = memoryLayout.getFirstDataPage(); page <= memoryLayout.getLastDataPage(); page++) {
+				if(previous == null || page - memoryLayout.getFirstDataPage() >= knownPages || !equals(previous, buffer, offset, bytesPerPage)) {
+					readerWriter.writeBlock(page, new DataBlock(buffer, offset));
+					
+					lastWrittenPages++;
+				}
+				offset += bytesPerPage;
+			}
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		
+		image = buffer;
+		knownPages = getDataPages();
+		
+		if(tagCache != null) {
+			tagCache.put(getTagInfo().getId(), capabilityContainer, buffer);
+		}
+	}
+
+	/**
+	 * 
+	 * Read all pages of the tag into a new image file: the UID, lock, capability container and data pages 
+	 * in as few commands as possible, then the control pages after the data area one by one, up to the 
+	 * last page of the memory layout or the end of the tag, whichever comes first. The data area read 
+	 * along the way becomes the known image.
+	 * 
+	 * @return the image, open for reading
+	 */
+	
+	public NdefTagImage dump(File file) throws IOException {
+		int lastDataPage = memoryLayout.getLastDataPage();
+		
+		List<MfBlock> blocks = new ArrayList<MfBlock>(Arrays.asList(readerWriter.readBlock(0, lastDataPage + 1)));
+		for(int page = lastDataPage + 1; page <= memoryLayout.getLastPage(); page++) {
+			try {
+				blocks.add(readerWriter.readBlock(page, 1)[0]);
+			} catch(IOException e) {
+				// smaller tag than the layout
+				break;
+			}
+		}
+		
+		NdefTagImage tagImage = NdefTagImage.create(file, blocks.size());
+		for(int page = 0; page < blocks.size(); page++) {
+			tagImage.putPage(page, blocks.get(page).getData(), 0);
+		}
+		tagImage.force();
+		
+		int bytesPerPage = memoryLayout.getBytesPerPage();
+		
+		byte[] image = new byte[getDataPages() * bytesPerPage];
+		for(int i = 0; i < getDataPages(); i++) {
+			System.arraycopy(blocks.get(memoryLayout.getFirstDataPage() + i).getData(), 0, image, i * bytesPerPage, bytesPerPage);
+		}
+		this.image = image;
+		this.knownPages = getDataPages();
+		
+		return tagImage;
+	}
+	
+	/**
+	 * 
+	 * Write the data area of an image to the tag, but only the pages which differ from what is on the tag. 
+	 * Pages of the tag which are not already known are read first. The UID, lock and control pages are never 
+	 * written, as they are fixed or one-time programmable. Neither is the capability container, except on a blank 
+	 * tag: it is written last, once the data area is complete. The image is rejected if its capability container 
+	 * or data area does not match the tag.
+	 * 
+	 * @return number of data pages written
+	 */
+	
+	public int restore(NdefTagImage tagImage) {
+		assertWritable();
+		
+		if(tagImage.getPageCount() <= memoryLayout.getLastDataPage()) {
+			throw new IllegalArgumentException("Image of " + tagImage.getPageCount() + " pages does not cover the data area of the tag");
+		}
+		
+		byte[] imageContainer = tagImage.getCapabilityContainer();
+		byte[] tagContainer;
+		try {
+			tagContainer = readerWriter.readBlock(NdefTagImage.CAPABILITY_PAGE, 1)[0].getData();
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		boolean blank = isBlank(tagContainer);
+		if(!blank && !Arrays.equals(tagContainer, imageContainer)) {
+			throw new IllegalArgumentException("Capability container " + NdefMessageTemplate.toHexString(imageContainer) + " of the image does not match " + NdefMessageTemplate.toHexString(tagContainer) + " of the tag");
+		}
+		if(tagImage.isFormatted() && tagImage.getLastDataPage() != memoryLayout.getLastDataPage()) {
+			throw new IllegalArgumentException("Data area of the image ends at page " + tagImage.getLastDataPage() + ", of the tag at page " + memoryLayout.getLastDataPage());
+		}
+		
+		int bytesPerPage = memoryLayout.getBytesPerPage();
+		int firstDataPage = memoryLayout.getFirstDataPage();
+		
+		byte[] current = new byte[getDataPages() * bytesPerPage];
+		int known = 0;
+		if(image != null) {
+			System.arraycopy(image, 0, current, 0, knownPages * bytesPerPage);
+			
+			known = knownPages;
+		}
+		
+		lastReadRecords = null;
+		image = null;
+		cached = false;
+		if(tagCache != null) {
+			tagCache.remove(getTagInfo().getId());
+		}
+		
+		byte[] buffer = new byte[getDataPages() * bytesPerPage];
+		int pages = 0;
+		try {
+			readPages(current, known, getDataPages() - known);
+			
+			for(int i = 0; i < getDataPages(); i++) {
+				tagImage.getPage(firstDataPage + i, buffer, i * bytesPerPage);
+				
+				if(!equals(current, buffer, i * bytesPerPage, bytesPerPage)) {
+					readerWriter.writeBlock(firstDataPage + i, new DataBlock(buffer, i * bytesPerPage));
+					
+					pages++;
+				}
+			}
+			
+			if(blank && tagImage.isFormatted()) {
+				readerWriter.writeBlock(NdefTagImage.CAPABILITY_PAGE, new DataBlock(imageContainer, 0));
+				
+				formatted = true;
+			}
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		
+		image = buffer;
+		knownPages = getDataPages();
+		lastWrittenPages = pages;
+		
+		return pages;
+	}
+	
+	private static boolean isBlank(byte[] page) {
+		for(byte b : page) {
+			if(b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void format(Record... records) {
+		image = null;
+		cached = false;
+		if(tagCache != null) {
+			tagCache.remove(getTagInfo().getId());
+		}
+		
+		super.format(records);
+	}
+	
+	@Override
+	public void makeReadOnly() {
+		image = null;
+		cached = false;
+		if(tagCache != null) {
+			tagCache.remove(getTagInfo().getId());
+		}
+		
+		super.makeReadOnly();
+	}
+	
+	/**
+	 * 
+	 * Lay out a message the same way as the superclass: an optional lock control TLV followed by the NDEF message TLV,
+	 * zero-padded to the size of the data area.
+	 * 
+	 */
+	
+	private byte[] convertNdefMessage(byte[] ndef) {
+		TagOutputStream out = new TagOutputStream(getMaxSize());
+		TypeLengthValueWriter writer = new TypeLengthValueWriter(out);
+		if (memoryLayout.hasDynamicLockBytes()) {
+			writer.write(memoryLayout.createLockControlTlv());
+		}
+		writer.write(new NdefMessageTlv(ndef));
+		writer.close();
+		return out.getBuffer();
+	}
+	
+	private static boolean equals(byte[] a, byte[] b, int offset, int length) {
+		for(int i = offset; i < offset + length; i++) {
+			if(a[i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * 
+	 * @return number of data pages actually written by the last call to {@link #writeNdefMessage(byte[])} or {@link #restore(NdefTagImage)}, 
+	 * also if it failed part way through a write
+	 */
+	
+	public int getLastWrittenPages() {
+		return lastWrittenPages;
+	}
+	
+	public int getDataPages() {
+		return memoryLayout.getLastDataPage() - memoryLayout.getFirstDataPage() + 1;
+	}
+	
+	/**
+	 * 
+	 * @return true if only the used pages were read, as they matched the tag cache
+	 */
+	
+	public boolean isCached() {
+		return cached;
+	}
+	
+	/**
+	 * 
+	 * @return copy of the data area as last read or written, or null if not completely known
+	 */
+	
+	public byte[] getImage() {
+		byte[] image = this.image;
+		if(image != null && knownPages == getDataPages()) {
+			return Arrays.copyOf(image, image.length);
+		}
+		return null;
+	}
+}
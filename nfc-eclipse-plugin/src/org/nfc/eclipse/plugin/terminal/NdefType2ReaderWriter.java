@@ -0,0 +1,103 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.nfctools.api.ApduTag;
+import org.nfctools.mf.block.MfBlock;
+import org.nfctools.mf.ul.DataBlock;
+import org.nfctools.scio.Command;
+import org.nfctools.scio.Response;
+import org.nfctools.spi.acs.AcrMfUlReaderWriter;
+
+/**
+ * 
+ * Type 2 reader/writer which reads four pages per command, as the tag READ command returns 16 bytes.
+ * Readers which do not pass on more than a single page make us fall back to one page per command.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefType2ReaderWriter extends AcrMfUlReaderWriter {
+
+	private static final int PAGES_PER_READ = 4;
+	
+	private static final int BYTES_PER_PAGE = 4;
+	
+	private final ApduTag tag;
+	
+	private volatile boolean multiPageRead = true;
+	
+	private int commands;
+	
+	public NdefType2ReaderWriter(ApduTag tag) {
+		super(tag);
+		
+		this.tag = tag;
+	}
+
+	@Override
+	public MfBlock[] readBlock(int page, int count) throws IOException {
+		if(!multiPageRead || count == 1) {
+			commands += count;
+			
+			return super.readBlock(page, count);
+		}
+		MfBlock[] blocks = new MfBlock[count];
+		for(int i = 0; i < count; i += PAGES_PER_READ) {
+			Response response = tag.transmit(new Command(0xB0, 0, page + i, PAGES_PER_READ * BYTES_PER_PAGE));
+			
+			commands++;
+			
+			byte[] data = response.getData();
+			if(!response.isSuccess() || data == null || data.length < PAGES_PER_READ * BYTES_PER_PAGE) {
+				multiPageRead = false;
+				
+				MfBlock[] remaining = readBlock(page + i, count - i);
+				System.arraycopy(remaining, 0, blocks, i, remaining.length);
+				
+				break;
+			}
+			for(int k = 0; k < PAGES_PER_READ && i + k < count; k++) {
+				blocks[i + k] = new DataBlock(Arrays.copyOfRange(data, k * BYTES_PER_PAGE, (k + 1) * BYTES_PER_PAGE));
+			}
+		}
+		return blocks;
+	}
+	
+	/**
+	 * 
+	 * @return number of read commands sent to the tag so far
+	 */
+	
+	public int getReadCommands() {
+		return commands;
+	}
+}
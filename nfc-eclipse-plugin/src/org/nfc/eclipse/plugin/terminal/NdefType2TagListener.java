@@ -0,0 +1,141 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+package org.nfc.eclipse.plugin.terminal;
+
+import java.io.IOException;
+
+import org.nfctools.NfcException;
+import org.nfctools.api.ApduTag;
+import org.nfctools.api.TagInfo;
+import org.nfctools.mf.block.MfBlock;
+import org.nfctools.mf.ul.CapabilityBlock;
+import org.nfctools.mf.ul.LockPage;
+import org.nfctools.mf.ul.MemoryLayout;
+import org.nfctools.mf.ul.Type2NdefOperations;
+import org.nfctools.mf.ul.Type2NfcTagListener;
+import org.nfctools.mf.ul.UltralightHandler;
+import org.nfctools.ndef.NdefOperationsListener;
+
+/**
+ * 
+ * Type 2 tag listener which hands out {@link NdefType2Operations}, for differential writes.
+ * Detection is the same as in the superclass, but reads go through a {@link NdefType2ReaderWriter}
+ * and the data area is read into memory in a single pass while the tag is being detected,
+ * so that subsequent queries need not go to the tag.
+ * 
+ * @author thomas
+ *
+ */
+
+public class NdefType2TagListener extends Type2NfcTagListener {
+
+	private final NdefTagCache tagCache;
+	
+	public NdefType2TagListener(NdefOperationsListener ndefListener) {
+		this(ndefListener, null);
+	}
+
+	/**
+	 * 
+	 * @param ndefListener listener
+	 * @param tagCache cache of tag contents, or null
+	 */
+	
+	public NdefType2TagListener(NdefOperationsListener ndefListener, NdefTagCache tagCache) {
+		super(ndefListener);
+		
+		this.tagCache = tagCache;
+	}
+
+	@Override
+	protected Type2NdefOperations createNdefOperations(ApduTag tag) {
+		NdefType2ReaderWriter readerWriter = new NdefType2ReaderWriter(tag);
+		
+		MemoryLayout memoryLayout = null;
+		CapabilityBlock capabilityBlock;
+		boolean formatted = false;
+		boolean writable = false;
+		TagInfo tagInfo;
+		try {
+			// the UID is in the first pages, so no need to read them twice
+			MfBlock[] initBlocks = readerWriter.readBlock(0, 5);
+			tagInfo = new TagInfo(tag.getTagType(), UltralightHandler.extractId(initBlocks));
+			
+			capabilityBlock = new CapabilityBlock(initBlocks[3].getData());
+			if (UltralightHandler.isBlank(initBlocks)) {
+				if (UltralightHandler.isUltralight(initBlocks[4].getData())) {
+					memoryLayout = MemoryLayout.ULTRALIGHT;
+				} else if (UltralightHandler.isUltralightC(initBlocks[4].getData())) {
+					memoryLayout = MemoryLayout.ULTRALIGHT_C;
+				} else {
+					throw new NfcException("Unknown tag size");
+				}
+				writable = true;
+			} else if (UltralightHandler.isFormatted(initBlocks)) {
+				formatted = true;
+				if (capabilityBlock.getSize() == 6) {
+					memoryLayout = MemoryLayout.ULTRALIGHT;
+				} else if (capabilityBlock.getSize() == 18) {
+					memoryLayout = MemoryLayout.ULTRALIGHT_C;
+				} else {
+					throw new NfcException("Unknown memory size " + capabilityBlock.getSize());
+				}
+				writable = !capabilityBlock.isReadOnly() && !isLocked(readerWriter, memoryLayout, initBlocks);
+			} else {
+				throw new NfcException("Unknown tag contents");
+			}
+		} catch (IOException e) {
+			throw new NfcException(e);
+		}
+		
+		NdefType2Operations ndefOperations = new NdefType2Operations(memoryLayout, readerWriter, tagInfo, formatted, writable);
+		if(formatted) {
+			if(tagCache != null) {
+				ndefOperations.setTagCache(tagCache, capabilityBlock.getData());
+			}
+			ndefOperations.readImage();
+		}
+		return ndefOperations;
+	}
+
+	private static boolean isLocked(NdefType2ReaderWriter readerWriter, MemoryLayout memoryLayout, MfBlock[] initBlocks) throws IOException {
+		for (LockPage lockPage : memoryLayout.getLockPages()) {
+			MfBlock block;
+			if(lockPage.getPage() < initBlocks.length) {
+				block = initBlocks[lockPage.getPage()];
+			} else {
+				block = readerWriter.readBlock(lockPage.getPage(), 1)[0];
+			}
+			for (byte lockByte : lockPage.getLockBytes()) {
+				if (block.getData()[lockByte] != 0) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
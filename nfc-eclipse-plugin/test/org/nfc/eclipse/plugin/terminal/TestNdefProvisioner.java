@@ -0,0 +1,259 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+
+package org.nfc.eclipse.plugin.terminal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nfctools.ndef.Record;
+import org.nfctools.ndef.wkt.records.UriRecord;
+
+/**
+ * 
+ * Provisioning through the terminal detector onto emulated tags: verification, locking, which 
+ * messages are retried on the next tag when a tag is locked or removed, and tags which come before 
+ * the next message or after the source failed.
+ * 
+ * @author thomas
+ *
+ */
+
+public class TestNdefProvisioner {
+
+	private static final long TIMEOUT = 2000;
+
+	private static final List<Record> RECORDS = Arrays.asList((Record)new UriRecord("http://nfc.example.com/a/path/long/enough/to/span/several/pages"));
+
+	private NdefTerminalDetector detector;
+	private NdefTerminalEmulator emulator;
+	private NdefProvisioner provisioner;
+	private BlockingQueue<NdefProvisioner.Result> results;
+	
+	@Before
+	public void setUp() {
+		results = new LinkedBlockingQueue<NdefProvisioner.Result>();
+		
+		NdefTerminalDetector.initialize();
+		detector = NdefTerminalDetector.getInstance();
+		
+		emulator = new NdefTerminalEmulator("Emulator test");
+		detector.addEmulator(emulator);
+		detector.startDetecting();
+	}
+	
+	@After
+	public void tearDown() {
+		detector.setNdefProvisioner(null);
+		if(provisioner != null) {
+			provisioner.stop();
+		}
+		detector.stopDetecting();
+		detector.removeEmulator(emulator);
+	}
+
+	@Test
+	public void testVerifyAndLock() throws Exception {
+		start(3, true, true);
+		
+		NdefTagEmulator first = newTag(1);
+		
+		NdefProvisioner.Result result = present(first);
+		assertTrue(result.getFailure(), result.isSuccess());
+		assertEquals(1, result.getSequence());
+		assertTrue(result.isVerified());
+		assertTrue(result.isReadOnly());
+
+		result = present(newTag(2));
+		assertTrue(result.getFailure(), result.isSuccess());
+		assertEquals(2, result.getSequence());
+		
+		// locked, so the message goes to the next tag
+		result = present(first);
+		assertFalse(result.isSuccess());
+		assertFalse(result.isWritten());
+		assertEquals(3, result.getSequence());
+		
+		result = present(newTag(3));
+		assertTrue(result.getFailure(), result.isSuccess());
+		assertEquals(3, result.getSequence());
+		assertTrue(result.isVerified());
+		
+		assertEquals(3, provisioner.getSucceeded());
+		assertEquals(1, provisioner.getFailed());
+	}
+
+	@Test
+	public void testRemoved() throws Exception {
+		start(3, false, false);
+		
+		// a tag which is not removed tells how many commands there are before the first write
+		NdefTagEmulator first = newTag(1);
+		NdefProvisioner.Result result = present(first);
+		assertTrue(result.getFailure(), result.isSuccess());
+		int reads = first.getReads();
+		
+		// removed before the first write, so the message goes to the next tag
+		NdefTagEmulator second = newTag(2);
+		second.setRemoveAfter(reads);
+		result = present(second);
+		assertFalse(result.isSuccess());
+		assertFalse(result.isWritten());
+		assertEquals(2, result.getSequence());
+		assertEquals(0, second.getWrites());
+
+		// removed after two writes, so the tag may hold the message and it is not retried
+		NdefTagEmulator third = newTag(3);
+		third.setRemoveAfter(reads + 2);
+		result = present(third);
+		assertFalse(result.isSuccess());
+		assertTrue(result.isWritten());
+		assertEquals(2, result.getSequence());
+		assertEquals(2, third.getWrites());
+		
+		result = present(newTag(4));
+		assertTrue(result.getFailure(), result.isSuccess());
+		assertEquals(3, result.getSequence());
+	}
+	
+	@Test
+	public void testNoMessageReady() throws Exception {
+		final CountDownLatch encoded = new CountDownLatch(1);
+		
+		start(new NdefProvisioner.Source() {
+			
+			@Override
+			public List<Record> next() {
+				try {
+					encoded.await();
+				} catch (InterruptedException e) {
+					return null;
+				}
+				return RECORDS;
+			}
+		}, false, false);
+		
+		NdefTagEmulator tag = newTag(1);
+		
+		// the tag waits for the message in vain, but the source is not exhausted
+		NdefProvisioner.Result result = present(tag, 5000 + TIMEOUT);
+		assertFalse(result.isSuccess());
+		assertFalse(result.isWritten());
+		assertEquals(0, result.getSequence());
+		assertEquals(0, tag.getWrites());
+		assertFalse(provisioner.isDone());
+		
+		encoded.countDown();
+		
+		result = present(tag);
+		assertTrue(result.getFailure(), result.isSuccess());
+		assertEquals(1, result.getSequence());
+	}
+
+	@Test
+	public void testEncodingFails() throws Exception {
+		start(new NdefProvisioner.Source() {
+			
+			private int count = 0;
+			
+			@Override
+			public List<Record> next() {
+				if(++count > 5) {
+					throw new IllegalArgumentException("Bad row " + count);
+				}
+				return RECORDS;
+			}
+		}, false, false);
+		
+		// the end of the source is not lost although the queue of encoded messages is full
+		for(int i = 1; i <= 5; i++) {
+			NdefProvisioner.Result result = present(newTag(i));
+			assertTrue(result.getFailure(), result.isSuccess());
+			assertEquals(i, result.getSequence());
+		}
+		
+		NdefTagEmulator tag = newTag(6);
+		emulator.present(tag);
+		
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while(!provisioner.isDone() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue(provisioner.isDone());
+		assertNotNull(provisioner.getFailure());
+		assertNull(results.poll());
+		assertEquals(0, tag.getWrites());
+	}
+	
+	private void start(int count, boolean verify, boolean readOnly) {
+		start(NdefProvisioner.repeat(RECORDS, count), verify, readOnly);
+	}
+	
+	private void start(NdefProvisioner.Source source, boolean verify, boolean readOnly) {
+		provisioner = new NdefProvisioner(source, verify, readOnly);
+		provisioner.setListener(new NdefProvisioner.Listener() {
+			
+			@Override
+			public void onResult(NdefProvisioner.Result result) {
+				results.add(result);
+			}
+		});
+		provisioner.start();
+		
+		detector.setNdefProvisioner(provisioner);
+	}
+	
+	private NdefProvisioner.Result present(NdefTagEmulator tag) throws InterruptedException {
+		return present(tag, TIMEOUT);
+	}
+	
+	private NdefProvisioner.Result present(NdefTagEmulator tag, long timeout) throws InterruptedException {
+		emulator.present(tag);
+		
+		NdefProvisioner.Result result = results.poll(timeout, TimeUnit.MILLISECONDS);
+		assertNotNull("Tag not provisioned", result);
+		
+		return result;
+	}
+	
+	private static NdefTagEmulator newTag(int serial) {
+		return new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x06, (byte)serial});
+	}
+}
@@ -0,0 +1,231 @@
+/***************************************************************************
+ *
+ * This file is part of the NFC Eclipse Plugin project at
+ * http://code.google.com/p/nfc-eclipse-plugin/
+ *
+ * Copyright (C) 2012 by Thomas Rorvik Skjolberg.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ ****************************************************************************/
+
+
+package org.nfc.eclipse.plugin.terminal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.nfctools.NfcAdapter;
+import org.nfctools.ndef.NdefContext;
+import org.nfctools.ndef.NdefOperations;
+import org.nfctools.ndef.NdefOperationsListener;
+import org.nfctools.ndef.Record;
+import org.nfctools.ndef.wkt.records.UriRecord;
+import org.nfctools.scio.TerminalMode;
+
+/**
+ * 
+ * Type 2 tag listener and operations over an emulated tag: only changed pages are written, a write
+ * interrupted by removal of the tag, lock bits, the tag cache and reading back what was written.
+ * 
+ * @author thomas
+ *
+ */
+
+public class TestNdefType2Operations {
+
+	private static final long TIMEOUT = 2000;
+	
+	private static final String URI = "http://nfc.example.com/a/path/long/enough/to/span/several/pages";
+
+	private NdefTerminalEmulator emulator;
+	private NfcAdapter nfcAdapter;
+	private NdefTagCache tagCache;
+	private BlockingQueue<NdefOperations> operations;
+	
+	@Before
+	public void setUp() {
+		operations = new LinkedBlockingQueue<NdefOperations>();
+		tagCache = new NdefTagCache(4);
+		
+		emulator = new NdefTerminalEmulator("Emulator test");
+		
+		nfcAdapter = new NfcAdapter(emulator, TerminalMode.INITIATOR);
+		nfcAdapter.registerTagListener(new NdefType2TagListener(new NdefOperationsListener() {
+			
+			@Override
+			public void onNdefOperations(NdefOperations ndefOperations) {
+				// the tag stays in the field until the next script step
+				operations.add(ndefOperations);
+			}
+		}, tagCache));
+		nfcAdapter.startListening();
+	}
+	
+	@After
+	public void tearDown() {
+		nfcAdapter.stopListening();
+	}
+	
+	@Test
+	public void testWriteChangedPagesOnly() throws Exception {
+		NdefTagEmulator tag = new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x01});
+		
+		NdefType2Operations ndefOperations = present(tag);
+		
+		ndefOperations.writeNdefMessage(new UriRecord(URI));
+		int written = ndefOperations.getLastWrittenPages();
+		assertTrue(written > 2);
+		assertTrue(written < ndefOperations.getDataPages());
+		assertEquals(written, tag.getWrites());
+
+		// same message again
+		ndefOperations.writeNdefMessage(new UriRecord(URI));
+		assertEquals(0, ndefOperations.getLastWrittenPages());
+		assertEquals(written, tag.getWrites());
+		
+		// last character only
+		String uri = URI.substring(0, URI.length() - 1) + "t";
+		ndefOperations.writeNdefMessage(new UriRecord(uri));
+		assertEquals(1, ndefOperations.getLastWrittenPages());
+		assertEquals(written + 1, tag.getWrites());
+		
+		assertArrayEquals(encode(uri), ndefOperations.rereadNdefMessage());
+	}
+
+	@Test
+	public void testRemovedWhileWriting() throws Exception {
+		NdefTagEmulator tag = new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x02});
+		
+		NdefType2Operations ndefOperations = present(tag);
+		
+		tag.setRemoveAfter(2);
+		try {
+			ndefOperations.writeNdefMessage(new UriRecord(URI));
+			
+			fail();
+		} catch(RuntimeException e) {
+			// expected
+		}
+		assertEquals(2, ndefOperations.getLastWrittenPages());
+		assertEquals(2, tag.getWrites());
+		assertNull(ndefOperations.getImage());
+		
+		// the half-written tag must not be mistaken for the cached one
+		tag.setRemoveAfter(-1);
+		ndefOperations = present(tag);
+		assertFalse(ndefOperations.isCached());
+		
+		ndefOperations.writeNdefMessage(new UriRecord(URI));
+		assertArrayEquals(encode(URI), ndefOperations.rereadNdefMessage());
+	}
+	
+	@Test
+	public void testLockBits() throws Exception {
+		NdefTagEmulator tag = new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x03});
+		
+		NdefType2Operations ndefOperations = present(tag);
+		assertTrue(ndefOperations.isWritable());
+		
+		ndefOperations.writeNdefMessage(new UriRecord(URI));
+		ndefOperations.makeReadOnly();
+		
+		// lock bits take effect once the tag enters the field again
+		assertFalse(tag.isLocked(4));
+		
+		ndefOperations = present(tag);
+		assertTrue(tag.isLocked(4));
+		assertTrue(tag.isLocked(16));
+		assertFalse(ndefOperations.isWritable());
+		assertEquals(URI, ((UriRecord)ndefOperations.readNdefMessage().get(0)).getUri());
+		
+		int writes = tag.getWrites();
+		try {
+			ndefOperations.writeNdefMessage(new UriRecord("http://nfc.example.com"));
+			
+			fail();
+		} catch(RuntimeException e) {
+			// expected
+		}
+		assertEquals(writes, tag.getWrites());
+	}
+	
+	@Test
+	public void testCachedRecordsAreNotShared() throws Exception {
+		NdefTagEmulator tag = new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x04});
+		
+		present(tag).writeNdefMessage(new UriRecord(URI));
+		
+		NdefType2Operations ndefOperations = present(tag);
+		List<Record> records = ndefOperations.readNdefMessage();
+		assertTrue(ndefOperations.isCached());
+		
+		// callers may modify what they read
+		((UriRecord)records.get(0)).setUri("http://nfc.example.com");
+		
+		ndefOperations = present(tag);
+		List<Record> cachedRecords = ndefOperations.readNdefMessage();
+		assertTrue(ndefOperations.isCached());
+		assertNotSame(records.get(0), cachedRecords.get(0));
+		assertEquals(URI, ((UriRecord)cachedRecords.get(0)).getUri());
+	}
+
+	@Test
+	public void testRereadFromTag() throws Exception {
+		NdefTagEmulator tag = new NdefTagEmulator(NdefTagEmulator.Layout.NTAG213, new byte[]{0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x05});
+		
+		NdefType2Operations ndefOperations = present(tag);
+		ndefOperations.writeNdefMessage(new UriRecord(URI));
+		assertArrayEquals(encode(URI), ndefOperations.rereadNdefMessage());
+		
+		// changed behind the back of the operations, i.e. a write which did not stick
+		tag.setData(new byte[]{0x03, 0x00, (byte)0xFE});
+		
+		assertEquals(URI, ((UriRecord)ndefOperations.readNdefMessage().get(0)).getUri());
+		assertFalse(Arrays.equals(encode(URI), ndefOperations.rereadNdefMessage()));
+		assertTrue(ndefOperations.readNdefMessage().isEmpty());
+	}
+	
+	private NdefType2Operations present(NdefTagEmulator tag) throws InterruptedException {
+		emulator.present(tag);
+		
+		NdefOperations ndefOperations = operations.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+		assertNotNull("No tag detected", ndefOperations);
+		
+		return (NdefType2Operations)ndefOperations;
+	}
+	
+	private static byte[] encode(String uri) {
+		return NdefContext.getNdefMessageEncoder().encode(Arrays.asList((Record)new UriRecord(uri)));
+	}
+}
@@ -0,0 +1,72 @@
+package com.google.zxing.qrcode.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.ReaderException;
+import com.google.zxing.WriterException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.common.HybridBinarizer;
+import com.google.zxing.qrcode.binary.BinaryQRCodeReader;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * {@link BinaryQRCodeReader#decode(BinaryBitmap)} of rendered symbols, with and without the pure barcode fast path.
+ * The binarization is part of the measurement, as the {@link BinaryBitmap} caches it.
+ *
+ * @author Thomas Skjolberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+  @Param({"16", "512", "2048"})
+  public int size;
+
+  @Param({"false", "true"})
+  public boolean pureBarcode;
+
+  private LuminanceSource source;
+  private BinaryQRCodeReader reader;
+
+  @Setup
+  public void setup() throws WriterException, ReaderException {
+    byte[] payload = Payloads.create(size, ErrorCorrectionLevel.L);
+
+    BitMatrix matrix = new BinaryQRCodeWriter().encode(payload, BarcodeFormat.QR_CODE, 600, 600);
+    source = new BufferedImageLuminanceSource(MatrixToImageWriter.toBufferedImage(matrix));
+
+    reader = new BinaryQRCodeReader();
+    reader.setPureBarcode(pureBarcode);
+
+    // fail early rather than measuring exceptions
+    reader.decode(new BinaryBitmap(new HybridBinarizer(source)));
+  }
+
+  @Benchmark
+  public byte[] decode() throws ReaderException {
+    return reader.decode(new BinaryBitmap(new HybridBinarizer(source)));
+  }
+
+}
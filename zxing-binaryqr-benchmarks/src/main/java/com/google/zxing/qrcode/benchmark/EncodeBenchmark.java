@@ -0,0 +1,59 @@
+package com.google.zxing.qrcode.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * {@link Encoder#encode(byte[], ErrorCorrectionLevel)} across payload sizes and error correction levels. Payloads
+ * larger than the capacity of the error correction level are truncated to version 40.
+ *
+ * @author Thomas Skjolberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+
+  @Param({"16", "128", "512", "1024", "2048", "2953"})
+  public int size;
+
+  @Param({"L", "M", "Q", "H"})
+  public ErrorCorrectionLevel ecLevel;
+
+  private byte[] payload;
+
+  @Setup
+  public void setup() {
+    payload = Payloads.create(size, ecLevel);
+  }
+
+  @Benchmark
+  public QRCode encode() throws WriterException {
+    return Encoder.encode(payload, ecLevel);
+  }
+
+  @Benchmark
+  public QRCode encodeDraft() throws WriterException {
+    return Encoder.encodeDraft(payload, ecLevel, null, null);
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.google.zxing.qrcode.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.binary.BinaryQRExporter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * {@link BinaryQRExporter} export of an already encoded symbol at typical label sizes, per output format.
+ *
+ * @author Thomas Skjolberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExportBenchmark {
+
+  private static final OutputStream NULL = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  @Param({"128", "1024"})
+  public int size;
+
+  @Param({"200", "400", "800"})
+  public int labelSize;
+
+  @Param({"PNG", "SVG", "PBM"})
+  public BinaryQRExporter.Format format;
+
+  private BinaryQRExporter exporter;
+  private QRCode code;
+
+  @Setup
+  public void setup() throws WriterException {
+    byte[] payload = Payloads.create(size, ErrorCorrectionLevel.L);
+
+    code = Encoder.encode(payload, ErrorCorrectionLevel.L);
+    exporter = new BinaryQRExporter(1);
+    exporter.setFormat(format);
+    // module size which gives about the label size
+    exporter.setModuleSize(Math.max(1, labelSize / (code.getMatrix().getWidth() + 8)));
+  }
+
+  @Benchmark
+  public void export() throws IOException {
+    exporter.write(code, NULL);
+  }
+
+}
@@ -0,0 +1,27 @@
+package com.google.zxing.qrcode.benchmark;
+
+import java.util.Random;
+
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Deterministic benchmark payloads.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class Payloads {
+
+  private Payloads() {
+  }
+
+  /**
+   * @return random bytes, truncated to the capacity of the largest QR code at the given error correction level
+   */
+  public static byte[] create(int size, ErrorCorrectionLevel ecLevel) {
+    byte[] payload = new byte[Math.min(size, QrCapacityPlanner.getMaxPayload(ecLevel))];
+    new Random(size).nextBytes(payload);
+    return payload;
+  }
+
+}
@@ -0,0 +1,56 @@
+package com.google.zxing.qrcode.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.BarcodeFormat;
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * {@link BinaryQRCodeWriter} rendering at typical label sizes, see {@link ExportBenchmark} for export per output format.
+ *
+ * @author Thomas Skjolberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+  @Param({"128", "1024"})
+  public int size;
+
+  @Param({"200", "400", "800"})
+  public int labelSize;
+
+  private byte[] payload;
+  private BinaryQRCodeWriter writer;
+
+  @Setup
+  public void setup() throws WriterException {
+    payload = Payloads.create(size, ErrorCorrectionLevel.L);
+    writer = new BinaryQRCodeWriter();
+  }
+
+  @Benchmark
+  public BitMatrix writer() throws WriterException {
+    return writer.encode(payload, BarcodeFormat.QR_CODE, labelSize, labelSize);
+  }
+
+}
@@ -0,0 +1,76 @@
+package com.google.zxing.qrcode.encoder;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.common.BitArray;
+import com.google.zxing.qrcode.benchmark.Payloads;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * Mask selection alone, i.e. without building the codewords: the full penalty search of {@link Encoder#encode(byte[], ErrorCorrectionLevel)}
+ * versus the heuristic used for draft symbols. Lives in the encoder package to reach the package private steps.
+ *
+ * @author Thomas Skjolberg
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MaskSelectionBenchmark {
+
+  @Param({"16", "512", "2953"})
+  public int size;
+
+  private final ErrorCorrectionLevel ecLevel = ErrorCorrectionLevel.L;
+
+  private BitArray bits;
+  private Version version;
+  private ByteMatrix matrix;
+
+  @Setup
+  public void setup() throws WriterException {
+    byte[] payload = Payloads.create(size, ecLevel);
+
+    version = QrCapacityPlanner.getVersion(payload.length, ecLevel);
+    Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
+    int numDataBytes = version.getTotalCodewords() - ecBlocks.getTotalECCodewords();
+
+    int numLengthBits = com.google.zxing.qrcode.decoder.Mode.BYTE.getCharacterCountBits(version);
+    long header = ((long) com.google.zxing.qrcode.decoder.Mode.BYTE.getBits() << numLengthBits) | payload.length;
+
+    byte[] dataBytes = new byte[numDataBytes];
+    Encoder.appendHeaderAndData(header, 4 + numLengthBits, payload, numDataBytes, dataBytes);
+    bits = Encoder.toBitArray(Encoder.interleaveWithECBytes(dataBytes, version.getTotalCodewords(), numDataBytes, ecBlocks.getNumBlocks()));
+
+    int dimension = version.getDimensionForVersion();
+    matrix = new ByteMatrix(dimension, dimension);
+  }
+
+  @Benchmark
+  public int full() throws WriterException {
+    return Encoder.chooseMaskPattern(bits, ecLevel, version, matrix);
+  }
+
+  @Benchmark
+  public int draft() throws WriterException {
+    return Encoder.chooseDraftMaskPattern(bits, ecLevel, version, matrix);
+  }
+
+}
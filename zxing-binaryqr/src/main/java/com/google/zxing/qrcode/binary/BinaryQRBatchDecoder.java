@@ -0,0 +1,298 @@
+package com.google.zxing.qrcode.binary;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.google.zxing.BinaryBitmap;
+import com.google.zxing.ChecksumException;
+import com.google.zxing.FormatException;
+import com.google.zxing.LuminanceSource;
+import com.google.zxing.NotFoundException;
+import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.HybridBinarizer;
+
+/**
+ * Decodes many QR code images on a thread pool. Each thread has its own {@link BinaryQRCodeReader} (and so its own
+ * {@link com.google.zxing.qrcode.decoder.Decoder}). Results are returned in input order, with timing and the reason
+ * for failure, if any. Images are loaded lazily and at most a few per thread are in flight at any time, so
+ * arbitrarily long sequences of images can be decoded.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class BinaryQRBatchDecoder {
+
+  /**
+   * An image to decode.
+   */
+  public interface Source {
+
+    String getName();
+
+    BinaryBitmap getBitmap() throws IOException;
+  }
+
+  /**
+   * Outcome of decoding a single image.
+   */
+  public static final class Result {
+
+    private final int index;
+    private final String name;
+    private final byte[] bytes;
+    private final String failure;
+    private final long loadNanos;
+    private final long decodeNanos;
+
+    Result(int index, String name, byte[] bytes, String failure, long loadNanos, long decodeNanos) {
+      this.index = index;
+      this.name = name;
+      this.bytes = bytes;
+      this.failure = failure;
+      this.loadNanos = loadNanos;
+      this.decodeNanos = decodeNanos;
+    }
+
+    /** Position of the image in the input */
+    public int getIndex() {
+      return index;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public boolean isSuccess() {
+      return bytes != null;
+    }
+
+    /** Decoded bytes, or null if decoding failed */
+    public byte[] getBytes() {
+      return bytes;
+    }
+
+    /** Reason for failure, or null if decoding succeeded */
+    public String getFailure() {
+      return failure;
+    }
+
+    /** Time spent loading and binarizing the image */
+    public long getLoadNanos() {
+      return loadNanos;
+    }
+
+    /** Time spent detecting and decoding the QR code */
+    public long getDecodeNanos() {
+      return decodeNanos;
+    }
+
+    @Override
+    public String toString() {
+      return name + ": " + (bytes != null ? bytes.length + " bytes" : failure) + " in " + ((loadNanos + decodeNanos) / 1000000) + "ms";
+    }
+  }
+
+  private static final int IN_FLIGHT_PER_THREAD = 4;
+
+  private final int threads;
+  private final ExecutorService executor;
+  private boolean compression = false;
+  private boolean pureBarcode = false;
+
+  private final ThreadLocal<BinaryQRCodeReader> readers = new ThreadLocal<BinaryQRCodeReader>() {
+    @Override
+    protected BinaryQRCodeReader initialValue() {
+      BinaryQRCodeReader reader = new BinaryQRCodeReader();
+      reader.setCompression(compression);
+      reader.setPureBarcode(pureBarcode);
+      return reader;
+    }
+  };
+
+  public BinaryQRBatchDecoder() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public BinaryQRBatchDecoder(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads " + threads);
+    }
+    this.threads = threads;
+    this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "binaryqr-decode-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Enable or disable unwrapping of compressed payloads, see {@link CompressedPayload}. Must be set before decoding.
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Enable or disable the pure barcode fast path, for images generated by {@link BinaryQRCodeWriter}.
+   * See {@link BinaryQRCodeReader#setPureBarcode(boolean)}. Must be set before decoding.
+   */
+  public void setPureBarcode(boolean pureBarcode) {
+    this.pureBarcode = pureBarcode;
+  }
+
+  public static Source fromFile(final File file) {
+    return new Source() {
+      @Override
+      public String getName() {
+        return file.getPath();
+      }
+
+      @Override
+      public BinaryBitmap getBitmap() throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+          throw new IOException("Unsupported image format");
+        }
+        return toBinaryBitmap(image);
+      }
+    };
+  }
+
+  public static Source fromImage(final String name, final BufferedImage image) {
+    return new Source() {
+      @Override
+      public String getName() {
+        return name;
+      }
+
+      @Override
+      public BinaryBitmap getBitmap() {
+        return toBinaryBitmap(image);
+      }
+    };
+  }
+
+  public static List<Source> fromFiles(List<File> files) {
+    List<Source> sources = new ArrayList<Source>(files.size());
+    for (File file : files) {
+      sources.add(fromFile(file));
+    }
+    return sources;
+  }
+
+  private static BinaryBitmap toBinaryBitmap(BufferedImage image) {
+    LuminanceSource source = new BufferedImageLuminanceSource(image);
+    return new BinaryBitmap(new HybridBinarizer(source));
+  }
+
+  /**
+   * Decode all images.
+   *
+   * @return one result per image, in input order
+   * @throws InterruptedException if interrupted while waiting for results
+   */
+  public List<Result> decode(Iterable<? extends Source> sources) throws InterruptedException {
+    return decode(sources.iterator());
+  }
+
+  public List<Result> decode(Iterator<? extends Source> sources) throws InterruptedException {
+    List<Result> results = new ArrayList<Result>();
+
+    Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+    int index = 0;
+    try {
+      while (sources.hasNext()) {
+        if (pending.size() >= threads * IN_FLIGHT_PER_THREAD) {
+          results.add(get(pending.poll()));
+        }
+        pending.add(executor.submit(new Task(index++, sources.next())));
+      }
+      while (!pending.isEmpty()) {
+        results.add(get(pending.poll()));
+      }
+    } finally {
+      for (Future<Result> future : pending) {
+        future.cancel(true);
+      }
+    }
+    return results;
+  }
+
+  private static Result get(Future<Result> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      // tasks catch everything they expect
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /**
+   * Stop the worker threads. The decoder cannot be used afterwards.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private final class Task implements Callable<Result> {
+
+    private final int index;
+    private final Source source;
+
+    Task(int index, Source source) {
+      this.index = index;
+      this.source = source;
+    }
+
+    @Override
+    public Result call() {
+      long start = System.nanoTime();
+      BinaryBitmap bitmap;
+      try {
+        bitmap = source.getBitmap();
+        // binarize up front, so that the decode time covers detection and decoding only
+        bitmap.getBlackMatrix();
+      } catch (IOException e) {
+        return new Result(index, source.getName(), null, "Cannot read image: " + e.getMessage(), System.nanoTime() - start, 0);
+      } catch (NotFoundException e) {
+        return new Result(index, source.getName(), null, "Cannot binarize image", System.nanoTime() - start, 0);
+      }
+      long loaded = System.nanoTime();
+
+      byte[] bytes = null;
+      String failure = null;
+      try {
+        bytes = readers.get().decode(bitmap);
+      } catch (NotFoundException e) {
+        failure = "No QR code found";
+      } catch (ChecksumException e) {
+        failure = "Error correction failed";
+      } catch (FormatException e) {
+        failure = "Invalid QR code format";
+      } catch (RuntimeException e) {
+        failure = e.toString();
+      }
+      return new Result(index, source.getName(), bytes, failure, loaded - start, System.nanoTime() - loaded);
+    }
+  }
+
+}
@@ -4,11 +4,14 @@ import com.google.zxing.BinaryBitmap;
 import com.google.zxing.ChecksumException;
 import com.google.zxing.FormatException;
 import com.google.zxing.NotFoundException;
+import com.google.zxing.common.BitMatrix;
 import com.google.zxing.common.DecoderResult;
 import com.google.zxing.common.DetectorResult;
 import com.google.zxing.qrcode.decoder.Decoder;
 import com.google.zxing.qrcode.detector.Detector;
 
+import java.util.Collection;
+
 /**
  * This implementation can detect and decode QR Codes in an image into bytes.
  *
@@ -18,10 +21,29 @@ public class BinaryQRCodeReader{
 
   private final Decoder decoder = new Decoder();
 
+  private boolean compression = false;
+  private boolean pureBarcode = false;
+
+  /**
+   * Enable or disable unwrapping of compressed payloads, see {@link CompressedPayload}.
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
   protected Decoder getDecoder() {
     return decoder;
   }
 
+  /**
+   * Enable or disable the pure barcode fast path for synthetic images, i.e. images of a single unrotated QR code
+   * surrounded by a quiet zone, with an integral module size. The module grid is then sampled directly, without
+   * the finder pattern search. Images which do not fit are passed on to the regular detector.
+   */
+  public void setPureBarcode(boolean pureBarcode) {
+    this.pureBarcode = pureBarcode;
+  }
+
   /**
    * Locates and decodes a QR code in an image.
    *
@@ -31,11 +53,127 @@ public class BinaryQRCodeReader{
    * @throws ChecksumException if error correction fails
    */
   public byte[] decode(BinaryBitmap image) throws NotFoundException, ChecksumException, FormatException {
-      DetectorResult detectorResult = new Detector(image.getBlackMatrix()).detect();
+      return decompress(decodeResult(image).getRawBytes());
+  }
+
+  /**
+   * Locates and decodes a QR code in an image, keeping the structured append metadata (if any).
+   *
+   * @return the decoder result, with the content as raw bytes
+   * @throws NotFoundException if a QR code cannot be found
+   * @throws FormatException if a QR code cannot be decoded
+   * @throws ChecksumException if error correction fails
+   */
+  public DecoderResult decodeResult(BinaryBitmap image) throws NotFoundException, ChecksumException, FormatException {
+      BitMatrix matrix = image.getBlackMatrix();
+      if (pureBarcode) {
+        BitMatrix bits = extractPureBits(matrix);
+        if (bits != null) {
+          try {
+            return decoder.decode(bits);
+          } catch (ChecksumException e) {
+            // not so pure after all, try the detector
+          } catch (FormatException e) {
+            // not so pure after all, try the detector
+          }
+        }
+      }
+
+      DetectorResult detectorResult = new Detector(matrix).detect();
+
+      return decoder.decode(detectorResult.getBits());
+  }
+
+  /**
+   * Sample the module grid of a pure barcode: the top left black module is the corner of the top left finder pattern,
+   * whose 7 module width gives the module size. The top right and bottom left finder patterns give the right and
+   * bottom edges (the bottom right module itself might be white).
+   *
+   * @return the modules, or null if the image does not look like a pure barcode
+   */
+  static BitMatrix extractPureBits(BitMatrix image) {
+    int[] leftTopBlack = image.getTopLeftOnBit();
+    if (leftTopBlack == null) {
+      return null;
+    }
+
+    int left = leftTopBlack[0];
+    int top = leftTopBlack[1];
+
+    // the top row of the finder pattern is a 7 module black run
+    int right = left;
+    while (right < image.getWidth() && image.get(right, top)) {
+      right++;
+    }
+    int finderWidth = right - left;
+    if (finderWidth < 7 || finderWidth % 7 != 0) {
+      return null;
+    }
+    int moduleSize = finderWidth / 7;
+
+    int edge = image.getWidth() - 1;
+    while (edge > left && !image.get(edge, top)) {
+      edge--;
+    }
+    int width = edge - left + 1;
+
+    edge = image.getHeight() - 1;
+    while (edge > top && !image.get(left, edge)) {
+      edge--;
+    }
+    int height = edge - top + 1;
+
+    if (width != height || width % moduleSize != 0) {
+      return null;
+    }
+    int dimension = width / moduleSize;
+    if (dimension < 21 || (dimension - 17) % 4 != 0) {
+      return null;
+    }
+
+    // sample the center of each module
+    int nudge = moduleSize / 2;
+    BitMatrix bits = new BitMatrix(dimension);
+    for (int y = 0; y < dimension; y++) {
+      int iOffset = top + y * moduleSize + nudge;
+      for (int x = 0; x < dimension; x++) {
+        if (image.get(left + x * moduleSize + nudge, iOffset)) {
+          bits.set(x, y);
+        }
+      }
+    }
+    return bits;
+  }
+
+  /**
+   * Decodes the symbols of a structured append sequence, in any order, and reassembles the content.
+   * A single image with a plain QR code is also accepted.
+   *
+   * @return the reassembled content
+   * @throws NotFoundException if a QR code cannot be found
+   * @throws FormatException if a QR code cannot be decoded, or symbols are missing or from different sequences
+   * @throws ChecksumException if error correction fails
+   */
+  public byte[] decodeStructuredAppend(Collection<BinaryBitmap> images) throws NotFoundException, ChecksumException, FormatException {
+      StructuredAppendAssembler assembler = new StructuredAppendAssembler();
+      for (BinaryBitmap image : images) {
+        DecoderResult result = decodeResult(image);
+        if (!result.hasStructuredAppend()) {
+          if (images.size() == 1) {
+            return decompress(result.getRawBytes());
+          }
+          throw FormatException.getFormatInstance();
+        }
+        assembler.add(result);
+      }
+      return decompress(assembler.getPayload());
+  }
 
-      DecoderResult decode = decoder.decode(detectorResult.getBits());
-      
-      return decode.getRawBytes();
+  private byte[] decompress(byte[] content) throws FormatException {
+    if (compression) {
+      return CompressedPayload.decompress(content);
+    }
+    return content;
   }
 
   public void reset() {
@@ -9,6 +9,7 @@ import com.google.zxing.qrcode.encoder.Encoder;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import com.google.zxing.qrcode.encoder.QRCode;
 
+import java.util.Arrays;
 import java.util.Map;
 
 /**
@@ -22,12 +23,32 @@ public final class BinaryQRCodeWriter {
 
   private int horizontalAligment = 0;
   private int verticalAligment = 0;
+
+  private boolean compression = false;
+
+  private boolean draft = false;
+  private QRCode previous;
   
   public void setAligment(int horizontal, int vertical) {
 	  this.horizontalAligment = horizontal;
 	  this.verticalAligment = vertical;
   }
   
+  /**
+   * Enable or disable compression of contents, whenever that results in a smaller QR code version. See {@link CompressedPayload}.
+   */
+  public void setCompression(boolean compression) {
+    this.compression = compression;
+  }
+
+  /**
+   * Enable or disable draft encoding, which reuses the mask of the previously encoded symbol or picks one using a
+   * cheap heuristic, instead of searching for the optimal mask. See {@link Encoder#encodeDraft(byte[], ErrorCorrectionLevel, Map, QRCode)}.
+   */
+  public void setDraft(boolean draft) {
+    this.draft = draft;
+  }
+
   public BinaryQRCodeWriter() {
   }
 
@@ -54,6 +75,63 @@ public final class BinaryQRCodeWriter {
     }
     */
 
+    checkArguments(format, width, height);
+
+    ErrorCorrectionLevel errorCorrectionLevel = getErrorCorrectionLevel(hints);
+    if (compression) {
+      contents = CompressedPayload.compressIfSmaller(contents, errorCorrectionLevel);
+    }
+
+    QRCode code;
+    if (draft) {
+      code = Encoder.encodeDraft(contents, errorCorrectionLevel, hints, previous);
+    } else {
+      code = Encoder.encode(contents, errorCorrectionLevel, hints);
+    }
+    previous = code;
+
+    return renderResult(code, width, height);
+  }
+
+  /**
+   * Encode contents too large for a single QR code as a structured append sequence of up to 16 symbols,
+   * each rendered at the requested dimensions. Contents which fit in a single QR code still
+   * result in a (one symbol) sequence.
+   *
+   * @return one matrix per symbol, in sequence order
+   * @throws WriterException if the contents do not fit in 16 symbols
+   */
+  public BitMatrix[] encodeStructuredAppend(byte[] contents,
+                                            BarcodeFormat format,
+                                            int width,
+                                            int height,
+                                            Map<EncodeHintType,?> hints) throws WriterException {
+
+    checkArguments(format, width, height);
+
+    ErrorCorrectionLevel errorCorrectionLevel = getErrorCorrectionLevel(hints);
+    if (compression) {
+      contents = CompressedPayload.compressIfSmaller(contents, errorCorrectionLevel);
+    }
+
+    int count = StructuredAppend.getSymbolCount(contents.length, errorCorrectionLevel);
+    if (count == -1) {
+      throw new WriterException("Data too big: " + contents.length + " > " + StructuredAppend.getMaxPayload(errorCorrectionLevel));
+    }
+    int parity = StructuredAppend.parity(contents);
+    int[] offsets = StructuredAppend.split(contents.length, count);
+
+    BitMatrix[] matrices = new BitMatrix[count];
+    for (int i = 0; i < count; i++) {
+      byte[] part = Arrays.copyOfRange(contents, offsets[i], offsets[i + 1]);
+
+      QRCode code = Encoder.encodeStructuredAppend(part, i, count, parity, errorCorrectionLevel, hints);
+      matrices[i] = renderResult(code, width, height);
+    }
+    return matrices;
+  }
+
+  private static void checkArguments(BarcodeFormat format, int width, int height) {
     if (format != BarcodeFormat.QR_CODE) {
       throw new IllegalArgumentException("Can only encode QR_CODE, but got " + format);
     }
@@ -62,7 +140,9 @@ public final class BinaryQRCodeWriter {
       throw new IllegalArgumentException("Requested dimensions are too small: " + width + 'x' +
           height);
     }
+  }
 
+  private static ErrorCorrectionLevel getErrorCorrectionLevel(Map<EncodeHintType,?> hints) {
     ErrorCorrectionLevel errorCorrectionLevel = ErrorCorrectionLevel.L;
     if (hints != null) {
       ErrorCorrectionLevel requestedECLevel = (ErrorCorrectionLevel) hints.get(EncodeHintType.ERROR_CORRECTION);
@@ -70,9 +150,7 @@ public final class BinaryQRCodeWriter {
         errorCorrectionLevel = requestedECLevel;
       }
     }
-
-    QRCode code = Encoder.encode(contents, errorCorrectionLevel, hints);
-    return renderResult(code, width, height);
+    return errorCorrectionLevel;
   }
 
   // Note that the input matrix uses 0 == white, 1 == black, while the output matrix uses
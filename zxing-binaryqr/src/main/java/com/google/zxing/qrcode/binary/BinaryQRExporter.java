@@ -0,0 +1,441 @@
+package com.google.zxing.qrcode.binary;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Version;
+import com.google.zxing.qrcode.encoder.ByteMatrix;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
+
+/**
+ * Headless export of binary QR codes to image files, rendered straight from the module matrix. Files are exported
+ * in parallel, and each output file is streamed to disk as it is rendered.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class BinaryQRExporter {
+
+  public enum Format {
+    PNG("png"), SVG("svg"), PBM("pbm");
+
+    private final String extension;
+
+    private Format(String extension) {
+      this.extension = extension;
+    }
+
+    public String getExtension() {
+      return extension;
+    }
+  }
+
+  /**
+   * Outcome of exporting a single file. Only the version and level of the QR code are kept, not the code itself.
+   */
+  public static final class Result {
+
+    private final File input;
+    private final File output;
+    private final Version version;
+    private final ErrorCorrectionLevel ecLevel;
+    private final String failure;
+    private final long nanos;
+
+    Result(File input, File output, QRCode code, String failure, long nanos) {
+      this.input = input;
+      this.output = output;
+      this.version = code != null ? code.getVersion() : null;
+      this.ecLevel = code != null ? code.getECLevel() : null;
+      this.failure = failure;
+      this.nanos = nanos;
+    }
+
+    public File getInput() {
+      return input;
+    }
+
+    /** The exported image, or null if the export failed */
+    public File getOutput() {
+      return output;
+    }
+
+    public boolean isSuccess() {
+      return failure == null;
+    }
+
+    /** Version of the encoded QR code, or null if the export failed */
+    public Version getVersion() {
+      return version;
+    }
+
+    /** Error correction level of the encoded QR code, or null if the export failed */
+    public ErrorCorrectionLevel getECLevel() {
+      return ecLevel;
+    }
+
+    /** Reason for failure, or null if the export succeeded */
+    public String getFailure() {
+      return failure;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    @Override
+    public String toString() {
+      if (failure != null) {
+        return input + ": " + failure;
+      }
+      return input + " -> " + output + ", " + version + "-" + ecLevel + " in " + (nanos / 1000000) + "ms";
+    }
+  }
+
+  /**
+   * Progress of a batch export.
+   */
+  public interface Progress {
+
+    /**
+     * @return true if the remaining files should not be exported; may be called from any thread
+     */
+    boolean isCanceled();
+
+    /**
+     * Called on the thread which started the export, in input order.
+     */
+    void exported(Result result);
+  }
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private int moduleSize = 4;
+  private int quietZone = 4;
+  private ErrorCorrectionLevel ecLevel;
+  private Format format = Format.PNG;
+  private final int threads;
+
+  public BinaryQRExporter() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  public BinaryQRExporter(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("Threads " + threads);
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * @param moduleSize size of a module in pixels (PNG, PBM) or user units (SVG)
+   */
+  public void setModuleSize(int moduleSize) {
+    if (moduleSize < 1) {
+      throw new IllegalArgumentException("Module size " + moduleSize);
+    }
+    this.moduleSize = moduleSize;
+  }
+
+  /**
+   * @param quietZone quiet zone width in modules
+   */
+  public void setQuietZone(int quietZone) {
+    if (quietZone < 0) {
+      throw new IllegalArgumentException("Quiet zone " + quietZone);
+    }
+    this.quietZone = quietZone;
+  }
+
+  /**
+   * @param ecLevel error correction level, or null for the strongest level which does not increase the version
+   */
+  public void setErrorCorrectionLevel(ErrorCorrectionLevel ecLevel) {
+    this.ecLevel = ecLevel;
+  }
+
+  public void setFormat(Format format) {
+    this.format = format;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  public QRCode encode(byte[] content) throws WriterException {
+    ErrorCorrectionLevel level = ecLevel;
+    if (level == null) {
+      QrCapacityPlanner.Plan plan = QrCapacityPlanner.plan(content.length);
+      if (plan == null) {
+        throw new WriterException("Data too big: " + content.length + " > " + QrCapacityPlanner.MAX_PAYLOAD);
+      }
+      level = plan.getErrorCorrectionLevel();
+    }
+    return Encoder.encode(content, level);
+  }
+
+  /**
+   * Write the QR code in the configured format. The stream is not closed.
+   */
+  public void write(QRCode code, OutputStream out) throws IOException {
+    ByteMatrix matrix = code.getMatrix();
+    switch (format) {
+      case PNG:
+        writePng(matrix, out);
+        break;
+      case SVG:
+        writeSvg(matrix, out);
+        break;
+      case PBM:
+        writePbm(matrix, out);
+        break;
+      default:
+        throw new IllegalStateException(format.name());
+    }
+  }
+
+  private void writePng(ByteMatrix matrix, OutputStream out) throws IOException {
+    int size = (matrix.getWidth() + 2 * quietZone) * moduleSize;
+
+    // 1 bit per pixel, 0 is black
+    BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_BYTE_BINARY);
+    WritableRaster raster = image.getRaster();
+
+    int[] row = new int[size];
+    for (int y = 0; y < size; y++) {
+      int moduleY = y / moduleSize - quietZone;
+      for (int x = 0; x < size; x++) {
+        int moduleX = x / moduleSize - quietZone;
+        row[x] = isDark(matrix, moduleX, moduleY) ? 0 : 1;
+      }
+      raster.setSamples(0, y, size, 1, 0, row);
+    }
+    if (!ImageIO.write(image, "png", out)) {
+      throw new IOException("No PNG writer");
+    }
+  }
+
+  private void writeSvg(ByteMatrix matrix, OutputStream out) throws IOException {
+    int modules = matrix.getWidth() + 2 * quietZone;
+    int size = modules * moduleSize;
+
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, ASCII));
+    writer.write("<?xml version=\"1.0\" encoding=\"US-ASCII\"?>\n");
+    writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + size + "\" height=\"" + size
+        + "\" viewBox=\"0 0 " + modules + " " + modules + "\" shape-rendering=\"crispEdges\">\n");
+    writer.write("<rect width=\"" + modules + "\" height=\"" + modules + "\" fill=\"#FFFFFF\"/>\n");
+    writer.write("<path fill=\"#000000\" d=\"");
+    // one horizontal run of dark modules per path segment
+    for (int y = 0; y < matrix.getHeight(); y++) {
+      int x = 0;
+      while (x < matrix.getWidth()) {
+        if (matrix.get(x, y) != 1) {
+          x++;
+          continue;
+        }
+        int start = x;
+        while (x < matrix.getWidth() && matrix.get(x, y) == 1) {
+          x++;
+        }
+        writer.write("M" + (start + quietZone) + " " + (y + quietZone) + "h" + (x - start) + "v1h-" + (x - start) + "z");
+      }
+      writer.write('\n');
+    }
+    writer.write("\"/>\n</svg>\n");
+    writer.flush();
+  }
+
+  private void writePbm(ByteMatrix matrix, OutputStream out) throws IOException {
+    int size = (matrix.getWidth() + 2 * quietZone) * moduleSize;
+
+    out.write(("P4\n" + size + " " + size + "\n").getBytes(ASCII));
+
+    // packed rows, most significant bit first, 1 is black
+    byte[] row = new byte[(size + 7) / 8];
+    for (int moduleY = -quietZone; moduleY < matrix.getHeight() + quietZone; moduleY++) {
+      for (int i = 0; i < row.length; i++) {
+        row[i] = 0;
+      }
+      for (int x = 0; x < size; x++) {
+        if (isDark(matrix, x / moduleSize - quietZone, moduleY)) {
+          row[x >> 3] |= 0x80 >>> (x & 0x07);
+        }
+      }
+      for (int i = 0; i < moduleSize; i++) {
+        out.write(row);
+      }
+    }
+  }
+
+  private static boolean isDark(ByteMatrix matrix, int x, int y) {
+    return x >= 0 && y >= 0 && x < matrix.getWidth() && y < matrix.getHeight() && matrix.get(x, y) == 1;
+  }
+
+  /**
+   * @return output file for the input file, i.e. the input file name with the extension of the configured format
+   */
+  public File getOutputFile(File input, File outputDirectory) {
+    String name = input.getName();
+    int dot = name.lastIndexOf('.');
+    if (dot > 0) {
+      name = name.substring(0, dot);
+    }
+    return new File(outputDirectory, name + "." + format.getExtension());
+  }
+
+  public Result export(File input, File output) {
+    long start = System.nanoTime();
+    try {
+      QRCode code = encode(read(input));
+
+      File parent = output.getParentFile();
+      if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Cannot create directory " + parent);
+      }
+      OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+      try {
+        write(code, out);
+      } finally {
+        out.close();
+      }
+      return new Result(input, output, code, null, System.nanoTime() - start);
+    } catch (IOException e) {
+      return new Result(input, null, null, "Cannot export: " + e.getMessage(), System.nanoTime() - start);
+    } catch (WriterException e) {
+      return new Result(input, null, null, "Cannot encode: " + e.getMessage(), System.nanoTime() - start);
+    }
+  }
+
+  private static byte[] read(File file) throws IOException {
+    long length = file.length();
+    if (length > QrCapacityPlanner.MAX_PAYLOAD) {
+      throw new IOException("File size " + length + " exceeds QR code capacity of " + QrCapacityPlanner.MAX_PAYLOAD + " bytes");
+    }
+    byte[] content = new byte[(int) length];
+    InputStream in = new FileInputStream(file);
+    try {
+      int offset = 0;
+      while (offset < content.length) {
+        int count = in.read(content, offset, content.length - offset);
+        if (count == -1) {
+          throw new IOException("Unexpected end of file");
+        }
+        offset += count;
+      }
+    } finally {
+      in.close();
+    }
+    return content;
+  }
+
+  /**
+   * Export all files into the output directory, in parallel. Output files are named after the input files;
+   * an input file whose output name is already taken by an earlier input file fails rather than overwriting it.
+   *
+   * @return one result per input file, in input order
+   * @throws InterruptedException if interrupted while waiting for the exports
+   */
+  public List<Result> export(List<File> inputs, File outputDirectory) throws InterruptedException {
+    List<File> outputs = new ArrayList<File>(inputs.size());
+    for (File input : inputs) {
+      outputs.add(getOutputFile(input, outputDirectory));
+    }
+    return export(inputs, outputs, null);
+  }
+
+  /**
+   * Export each input file to the corresponding output file, in parallel. Missing output directories are created.
+   * An input file whose output file is already taken by an earlier input file fails rather than overwriting it.
+   *
+   * @param progress progress and cancellation, or null
+   * @return one result per input file, in input order; files not exported because of cancellation have failed results
+   * @throws InterruptedException if interrupted while waiting for the exports
+   */
+  public List<Result> export(List<File> inputs, List<File> outputs, final Progress progress) throws InterruptedException {
+    if (inputs.size() != outputs.size()) {
+      throw new IllegalArgumentException("Got " + inputs.size() + " inputs but " + outputs.size() + " outputs");
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, inputs.size())), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "binaryqr-export-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    try {
+      Map<File, File> taken = new HashMap<File, File>();
+
+      List<Future<Result>> futures = new ArrayList<Future<Result>>(inputs.size());
+      for (int i = 0; i < inputs.size(); i++) {
+        final File input = inputs.get(i);
+        final File output = outputs.get(i);
+
+        final File previous = taken.put(output.getAbsoluteFile(), input);
+        futures.add(executor.submit(new Callable<Result>() {
+          @Override
+          public Result call() {
+            if (previous != null) {
+              return new Result(input, null, null, "Output " + output + " is also the output of " + previous, 0);
+            }
+            if (progress != null && progress.isCanceled()) {
+              return new Result(input, null, null, "Canceled", 0);
+            }
+            return export(input, output);
+          }
+        }));
+        if (previous != null) {
+          // the first input keeps the output
+          taken.put(output.getAbsoluteFile(), previous);
+        }
+      }
+
+      List<Result> results = new ArrayList<Result>(inputs.size());
+      for (Future<Result> future : futures) {
+        Result result;
+        try {
+          result = future.get();
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+        results.add(result);
+
+        if (progress != null) {
+          progress.exported(result);
+        }
+      }
+      return results;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+}
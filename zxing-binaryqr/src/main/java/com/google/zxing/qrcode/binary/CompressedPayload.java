@@ -0,0 +1,143 @@
+package com.google.zxing.qrcode.binary;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.google.zxing.FormatException;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Optional compressed payload envelope: a magic header, the uncompressed length and a raw DEFLATE stream.
+ * <pre>
+ * 2 bytes magic 'Z' 'D'
+ * 4 bytes uncompressed length (big endian)
+ * n bytes DEFLATE stream (no zlib header)
+ * </pre>
+ * The magic starts with the NDEF message begin flag cleared, so the envelope never is a valid NDEF message.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class CompressedPayload {
+
+  private static final byte MAGIC_0 = 'Z';
+  private static final byte MAGIC_1 = 'D';
+
+  public static final int HEADER_BYTES = 2 + 4;
+
+  /** DEFLATE cannot expand more than this, so larger declared lengths are never genuine */
+  private static final int MAX_RATIO = 1032;
+
+  private CompressedPayload() {
+  }
+
+  public static boolean isCompressed(byte[] content) {
+    return content.length >= HEADER_BYTES && content[0] == MAGIC_0 && content[1] == MAGIC_1;
+  }
+
+  /**
+   * @return the payload wrapped in a compressed envelope, regardless of whether the result is smaller
+   */
+  public static byte[] compress(byte[] content) {
+    Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+    try {
+      deflater.setInput(content);
+      deflater.finish();
+
+      // incompressible data grows by 5 bytes per 16K block
+      byte[] buffer = new byte[HEADER_BYTES + content.length + 5 * (content.length / 16384 + 1) + 16];
+      int length = HEADER_BYTES;
+      while (!deflater.finished()) {
+        if (length == buffer.length) {
+          byte[] larger = new byte[buffer.length * 2];
+          System.arraycopy(buffer, 0, larger, 0, length);
+          buffer = larger;
+        }
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+
+      buffer[0] = MAGIC_0;
+      buffer[1] = MAGIC_1;
+      buffer[2] = (byte) (content.length >>> 24);
+      buffer[3] = (byte) (content.length >>> 16);
+      buffer[4] = (byte) (content.length >>> 8);
+      buffer[5] = (byte) content.length;
+
+      byte[] envelope = new byte[length];
+      System.arraycopy(buffer, 0, envelope, 0, length);
+      return envelope;
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Compress the payload only if that pays off: the compressed payload must fit in a QR code at least one version
+   * smaller than the uncompressed payload. Payloads too large for a single QR code are compressed whenever
+   * the result is smaller.
+   *
+   * @param ecLevels allowed error correction levels, or none for all levels, see {@link QrCapacityPlanner#plan(int, ErrorCorrectionLevel...)}
+   * @return the compressed envelope, or the original payload
+   */
+  public static byte[] compressIfSmaller(byte[] content, ErrorCorrectionLevel... ecLevels) {
+    byte[] compressed = compress(content);
+    if (compressed.length >= content.length) {
+      return content;
+    }
+
+    QrCapacityPlanner.Plan plain = QrCapacityPlanner.plan(content.length, ecLevels);
+    if (plain == null) {
+      return compressed;
+    }
+    QrCapacityPlanner.Plan plan = QrCapacityPlanner.plan(compressed.length, ecLevels);
+    if (plan.getVersion().getVersionNumber() < plain.getVersion().getVersionNumber()) {
+      return compressed;
+    }
+    return content;
+  }
+
+  /**
+   * @return the uncompressed payload, or the payload itself if it is not a compressed envelope
+   * @throws FormatException if the DEFLATE stream is corrupt, does not match the declared length or is followed by trailing data
+   */
+  public static byte[] decompress(byte[] content) throws FormatException {
+    if (!isCompressed(content)) {
+      return content;
+    }
+    int length = ((content[2] & 0xFF) << 24) | ((content[3] & 0xFF) << 16) | ((content[4] & 0xFF) << 8) | (content[5] & 0xFF);
+    // bound the allocation by what the stream can possibly inflate to
+    if (length < 0 || (long) length > (long) (content.length - HEADER_BYTES) * MAX_RATIO) {
+      throw FormatException.getFormatInstance();
+    }
+
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(content, HEADER_BYTES, content.length - HEADER_BYTES);
+
+      byte[] payload = new byte[length];
+      int offset = 0;
+      while (offset < length) {
+        int count = inflater.inflate(payload, offset, length - offset);
+        if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          throw FormatException.getFormatInstance();
+        }
+        offset += count;
+      }
+      if (!inflater.finished()) {
+        // the end of block marker may remain; anything more means the declared length is too short
+        if (inflater.inflate(new byte[1]) != 0 || !inflater.finished()) {
+          throw FormatException.getFormatInstance();
+        }
+      }
+      if (inflater.getRemaining() > 0) {
+        throw FormatException.getFormatInstance();
+      }
+      return payload;
+    } catch (DataFormatException e) {
+      throw FormatException.getFormatInstance();
+    } finally {
+      inflater.end();
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+package com.google.zxing.qrcode.binary;
+
+import java.util.Random;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * LT (Luby transform) fountain code for streaming a payload as an endless sequence of QR code frames.
+ * The payload is cut into equally sized source blocks; each frame carries the XOR of a pseudo-random
+ * subset of the blocks, so the payload can be recovered from any sufficiently large set of frames,
+ * regardless of which frames were missed.
+ * <br/><br/>
+ * The first frames are systematic, i.e. frame n &lt; block count carries block n as-is.
+ * Subsequent frames pick their degree from the robust soliton distribution and their blocks
+ * using a {@link Random} seeded with the (scrambled) frame sequence number.
+ * <br/><br/>
+ * Frame layout (big endian):
+ * <pre>
+ * 4 bytes sequence number
+ * 4 bytes payload length
+ * 2 bytes block size
+ * 4 bytes CRC32 of the payload
+ * n bytes encoded block
+ * </pre>
+ *
+ * @author Thomas Skjolberg
+ */
+public final class FountainCode {
+
+  public static final int HEADER_BYTES = 4 + 4 + 2 + 4;
+
+  public static final int MAX_BLOCK_SIZE = 0xFFFF;
+
+  /** Robust soliton tuning parameters */
+  private static final double C = 0.1;
+  private static final double DELTA = 0.5;
+
+  private FountainCode() {
+  }
+
+  /**
+   * @return the largest block size so that frames fit in the given version and error correction level
+   */
+  public static int getBlockSize(int versionNumber, ErrorCorrectionLevel ecLevel) {
+    int blockSize = QrCapacityPlanner.getCapacity(versionNumber, ecLevel) - HEADER_BYTES;
+    if (blockSize <= 0) {
+      throw new IllegalArgumentException("Version " + versionNumber + "-" + ecLevel + " too small for fountain frames");
+    }
+    return Math.min(blockSize, MAX_BLOCK_SIZE);
+  }
+
+  public static int getBlockCount(int length, int blockSize) {
+    return Math.max(1, (length + blockSize - 1) / blockSize);
+  }
+
+  /**
+   * @return cumulative robust soliton distribution for degrees 1..blockCount, index 0 is degree 1
+   */
+  static double[] getDegreeDistribution(int blockCount) {
+    double[] cdf = new double[blockCount];
+    if (blockCount == 1) {
+      cdf[0] = 1;
+      return cdf;
+    }
+    double r = C * Math.log(blockCount / DELTA) * Math.sqrt(blockCount);
+    int spike = (int) Math.max(1, Math.min(blockCount, Math.round(blockCount / r)));
+
+    double sum = 0;
+    for (int d = 1; d <= blockCount; d++) {
+      // ideal soliton
+      double p = d == 1 ? 1.0 / blockCount : 1.0 / (d * (d - 1.0));
+      // robust correction
+      if (d < spike) {
+        p += r / (d * (double) blockCount);
+      } else if (d == spike) {
+        p += r * Math.log(r / DELTA) / blockCount;
+      }
+      sum += p;
+      cdf[d - 1] = sum;
+    }
+    for (int i = 0; i < cdf.length; i++) {
+      cdf[i] /= sum;
+    }
+    return cdf;
+  }
+
+  /**
+   * @return the indexes of the source blocks XOR'ed into the frame with the given sequence number
+   */
+  static int[] getNeighbours(int sequence, int blockCount, double[] distribution) {
+    if (sequence < blockCount) {
+      return new int[] {sequence};
+    }
+    Random random = new Random(mix(sequence));
+
+    double x = random.nextDouble();
+    int degree = 1;
+    while (degree < blockCount && distribution[degree - 1] < x) {
+      degree++;
+    }
+
+    int[] neighbours = new int[degree];
+    int count = 0;
+    while (count < degree) {
+      int candidate = random.nextInt(blockCount);
+      boolean duplicate = false;
+      for (int i = 0; i < count; i++) {
+        if (neighbours[i] == candidate) {
+          duplicate = true;
+          break;
+        }
+      }
+      if (!duplicate) {
+        neighbours[count++] = candidate;
+      }
+    }
+    return neighbours;
+  }
+
+  /**
+   * Scramble the sequence number, as the first values drawn from {@link Random} with consecutive seeds are correlated.
+   */
+  private static long mix(long seed) {
+    long z = seed * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  static void xor(byte[] target, byte[] source) {
+    for (int i = 0; i < target.length; i++) {
+      target[i] ^= source[i];
+    }
+  }
+
+  static void writeInt(byte[] buffer, int offset, int value) {
+    buffer[offset] = (byte) (value >>> 24);
+    buffer[offset + 1] = (byte) (value >>> 16);
+    buffer[offset + 2] = (byte) (value >>> 8);
+    buffer[offset + 3] = (byte) value;
+  }
+
+  static int readInt(byte[] buffer, int offset) {
+    return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16) | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+  }
+
+}
@@ -0,0 +1,210 @@
+package com.google.zxing.qrcode.binary;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.google.zxing.FormatException;
+
+/**
+ * Reference decoder for fountain coded frames, see {@link FountainCode}. Frames may be added in any order;
+ * duplicates and frames which add no new information are ignored. Source blocks are recovered by
+ * peeling: whenever a frame has a single unknown block left, that block is solved and XOR'ed out of
+ * all other pending frames.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class FountainDecoder {
+
+  private static final class Symbol {
+    private byte[] data;
+    private final int[] neighbours;
+    private int unknown;
+
+    Symbol(byte[] data, int[] neighbours, int unknown) {
+      this.data = data;
+      this.neighbours = neighbours;
+      this.unknown = unknown;
+    }
+  }
+
+  private int length = -1;
+  private int blockSize;
+  private int checksum;
+  private double[] distribution;
+
+  private byte[][] blocks;
+  private List<Symbol>[] waiting;
+  private int solved = 0;
+  private int received = 0;
+
+  /**
+   * Add a frame.
+   *
+   * @return true if the payload can be recovered
+   * @throws FormatException if the frame is malformed or belongs to another payload
+   */
+  public boolean add(byte[] frame) throws FormatException {
+    if (frame.length < FountainCode.HEADER_BYTES + 1) {
+      throw FormatException.getFormatInstance();
+    }
+    int sequence = FountainCode.readInt(frame, 0);
+    int frameLength = FountainCode.readInt(frame, 4);
+    int frameBlockSize = ((frame[8] & 0xFF) << 8) | (frame[9] & 0xFF);
+    int frameChecksum = FountainCode.readInt(frame, 10);
+
+    if (sequence < 0 || frameLength < 0 || frameBlockSize == 0 || frame.length != FountainCode.HEADER_BYTES + frameBlockSize) {
+      throw FormatException.getFormatInstance();
+    }
+
+    if (length == -1) {
+      init(frameLength, frameBlockSize, frameChecksum);
+    } else if (length != frameLength || blockSize != frameBlockSize || checksum != frameChecksum) {
+      throw FormatException.getFormatInstance();
+    }
+    received++;
+
+    if (isComplete()) {
+      return true;
+    }
+
+    byte[] data = new byte[blockSize];
+    System.arraycopy(frame, FountainCode.HEADER_BYTES, data, 0, blockSize);
+
+    int[] neighbours = FountainCode.getNeighbours(sequence, blocks.length, distribution);
+    int unknown = 0;
+    int last = -1;
+    for (int index : neighbours) {
+      if (blocks[index] != null) {
+        FountainCode.xor(data, blocks[index]);
+      } else {
+        unknown++;
+        last = index;
+      }
+    }
+
+    if (unknown == 1) {
+      solve(last, data);
+    } else if (unknown > 1) {
+      Symbol symbol = new Symbol(data, neighbours, unknown);
+      for (int index : neighbours) {
+        if (blocks[index] == null) {
+          if (waiting[index] == null) {
+            waiting[index] = new ArrayList<Symbol>();
+          }
+          waiting[index].add(symbol);
+        }
+      }
+    }
+
+    return isComplete();
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void init(int length, int blockSize, int checksum) {
+    this.length = length;
+    this.blockSize = blockSize;
+    this.checksum = checksum;
+
+    int blockCount = FountainCode.getBlockCount(length, blockSize);
+    this.distribution = FountainCode.getDegreeDistribution(blockCount);
+    this.blocks = new byte[blockCount][];
+    this.waiting = new List[blockCount];
+  }
+
+  private void solve(int index, byte[] data) {
+    Deque<Object[]> queue = new ArrayDeque<Object[]>();
+    queue.add(new Object[] {index, data});
+
+    while (!queue.isEmpty()) {
+      Object[] next = queue.poll();
+      int block = (Integer) next[0];
+      if (blocks[block] != null) {
+        continue;
+      }
+      blocks[block] = (byte[]) next[1];
+      solved++;
+
+      List<Symbol> symbols = waiting[block];
+      waiting[block] = null;
+      if (symbols == null) {
+        continue;
+      }
+      for (Symbol symbol : symbols) {
+        if (symbol.data == null) {
+          continue;
+        }
+        FountainCode.xor(symbol.data, blocks[block]);
+        symbol.unknown--;
+        if (symbol.unknown == 1) {
+          for (int neighbour : symbol.neighbours) {
+            if (blocks[neighbour] == null && neighbour != block) {
+              queue.add(new Object[] {neighbour, symbol.data});
+              break;
+            }
+          }
+          // the data now belongs to the solved block
+          symbol.data = null;
+        }
+      }
+    }
+  }
+
+  public boolean isComplete() {
+    return blocks != null && solved == blocks.length;
+  }
+
+  /**
+   * @return number of source blocks, or -1 if no frames have been added yet
+   */
+  public int getBlockCount() {
+    if (blocks == null) {
+      return -1;
+    }
+    return blocks.length;
+  }
+
+  public int getSolvedBlocks() {
+    return solved;
+  }
+
+  /**
+   * @return number of frames added, including duplicates
+   */
+  public int getReceived() {
+    return received;
+  }
+
+  /**
+   * @return the recovered payload
+   * @throws FormatException if blocks are missing or the checksum does not match
+   */
+  public byte[] getPayload() throws FormatException {
+    if (!isComplete()) {
+      throw FormatException.getFormatInstance();
+    }
+    byte[] payload = new byte[length];
+    for (int i = 0; i < blocks.length; i++) {
+      int offset = i * blockSize;
+      System.arraycopy(blocks[i], 0, payload, offset, Math.min(blockSize, length - offset));
+    }
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    if ((int) crc.getValue() != checksum) {
+      throw FormatException.getFormatInstance();
+    }
+    return payload;
+  }
+
+  public void reset() {
+    length = -1;
+    blocks = null;
+    waiting = null;
+    distribution = null;
+    solved = 0;
+    received = 0;
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.google.zxing.qrcode.binary;
+
+import java.util.zip.CRC32;
+
+/**
+ * Produces an endless sequence of fountain coded frames for a payload. See {@link FountainCode}.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class FountainEncoder {
+
+  private final byte[] payload;
+  private final int blockSize;
+  private final int blockCount;
+  private final int checksum;
+  private final double[] distribution;
+
+  private int sequence = 0;
+
+  /**
+   * @param payload bytes to stream
+   * @param blockSize payload bytes per frame, see {@link FountainCode#getBlockSize(int, com.google.zxing.qrcode.decoder.ErrorCorrectionLevel)}
+   */
+  public FountainEncoder(byte[] payload, int blockSize) {
+    if (blockSize < 1 || blockSize > FountainCode.MAX_BLOCK_SIZE) {
+      throw new IllegalArgumentException("Block size " + blockSize);
+    }
+    this.payload = payload;
+    this.blockSize = blockSize;
+    this.blockCount = FountainCode.getBlockCount(payload.length, blockSize);
+    this.distribution = FountainCode.getDegreeDistribution(blockCount);
+
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    this.checksum = (int) crc.getValue();
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * @return number of source blocks, i.e. the minimum number of frames needed for decoding
+   */
+  public int getBlockCount() {
+    return blockCount;
+  }
+
+  /**
+   * @return the next frame, starting with the systematic frames
+   */
+  public byte[] nextFrame() {
+    return getFrame(sequence++);
+  }
+
+  public byte[] getFrame(int sequence) {
+    if (sequence < 0) {
+      throw new IllegalArgumentException("Negative sequence " + sequence);
+    }
+    byte[] frame = new byte[FountainCode.HEADER_BYTES + blockSize];
+    FountainCode.writeInt(frame, 0, sequence);
+    FountainCode.writeInt(frame, 4, payload.length);
+    frame[8] = (byte) (blockSize >>> 8);
+    frame[9] = (byte) blockSize;
+    FountainCode.writeInt(frame, 10, checksum);
+
+    for (int index : FountainCode.getNeighbours(sequence, blockCount, distribution)) {
+      int offset = index * blockSize;
+      int length = Math.min(blockSize, payload.length - offset);
+      for (int i = 0; i < length; i++) {
+        frame[FountainCode.HEADER_BYTES + i] ^= payload[offset + i];
+      }
+    }
+    return frame;
+  }
+
+  public void reset() {
+    sequence = 0;
+  }
+
+}
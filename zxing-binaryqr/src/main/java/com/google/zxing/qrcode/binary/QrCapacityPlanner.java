@@ -0,0 +1,191 @@
+package com.google.zxing.qrcode.binary;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+
+/**
+ * Precomputed binary (BYTE mode) capacity of all QR code versions and error correction levels, so that
+ * the version and error correction level for a payload can be looked up without trial encoding.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class QrCapacityPlanner {
+
+  public static final int MIN_VERSION = 1;
+  public static final int MAX_VERSION = 40;
+
+  /** Error correction levels from weakest to strongest */
+  private static final ErrorCorrectionLevel[] LEVELS = {
+      ErrorCorrectionLevel.L, ErrorCorrectionLevel.M, ErrorCorrectionLevel.Q, ErrorCorrectionLevel.H
+  };
+
+  /** Payload capacity in bytes, per error correction level and version */
+  private static final int[][] CAPACITY = new int[LEVELS.length][MAX_VERSION + 1];
+
+  /** Payload capacity in bytes when preceded by a structured append header, per error correction level and version */
+  private static final int[][] STRUCTURED_APPEND_CAPACITY = new int[LEVELS.length][MAX_VERSION + 1];
+
+  /** Smallest version per error correction level and payload length */
+  private static final byte[][] VERSION_FOR_LENGTH = new byte[LEVELS.length][];
+
+  static {
+    for (int level = 0; level < LEVELS.length; level++) {
+      for (int versionNum = MIN_VERSION; versionNum <= MAX_VERSION; versionNum++) {
+        Version version = Version.getVersionForNumber(versionNum);
+        CAPACITY[level][versionNum] = computeCapacity(version, LEVELS[level], 0);
+        STRUCTURED_APPEND_CAPACITY[level][versionNum] = computeCapacity(version, LEVELS[level], StructuredAppend.HEADER_BITS);
+      }
+
+      byte[] versions = new byte[CAPACITY[level][MAX_VERSION] + 1];
+      int versionNum = MIN_VERSION;
+      for (int length = 0; length < versions.length; length++) {
+        while (CAPACITY[level][versionNum] < length) {
+          versionNum++;
+        }
+        versions[length] = (byte) versionNum;
+      }
+      VERSION_FOR_LENGTH[level] = versions;
+    }
+  }
+
+  /** The largest binary payload a single QR code can hold (version 40, level L) */
+  public static final int MAX_PAYLOAD = CAPACITY[0][MAX_VERSION];
+
+  private QrCapacityPlanner() {
+  }
+
+  /**
+   * Number of payload bytes left when the (optional) extra header, the mode and character count header are
+   * subtracted from the data codewords.
+   */
+  private static int computeCapacity(Version version, ErrorCorrectionLevel ecLevel, int extraHeaderBits) {
+    int numDataBytes = version.getTotalCodewords() - version.getECBlocksForLevel(ecLevel).getTotalECCodewords();
+    int headerBits = extraHeaderBits + 4 + Mode.BYTE.getCharacterCountBits(version);
+    return (numDataBytes * 8 - headerBits) / 8;
+  }
+
+  private static int indexOf(ErrorCorrectionLevel ecLevel) {
+    return ecLevel.ordinal();
+  }
+
+  /**
+   * @return payload capacity in bytes of the given version and error correction level
+   */
+  public static int getCapacity(int versionNumber, ErrorCorrectionLevel ecLevel) {
+    if (versionNumber < MIN_VERSION || versionNumber > MAX_VERSION) {
+      throw new IllegalArgumentException("Unknown version " + versionNumber);
+    }
+    return CAPACITY[indexOf(ecLevel)][versionNumber];
+  }
+
+  /**
+   * @return payload capacity in bytes of the largest version for the given error correction level
+   */
+  public static int getMaxPayload(ErrorCorrectionLevel ecLevel) {
+    return CAPACITY[indexOf(ecLevel)][MAX_VERSION];
+  }
+
+  /**
+   * @return payload capacity in bytes of a single symbol in a structured append sequence
+   */
+  public static int getStructuredAppendCapacity(int versionNumber, ErrorCorrectionLevel ecLevel) {
+    if (versionNumber < MIN_VERSION || versionNumber > MAX_VERSION) {
+      throw new IllegalArgumentException("Unknown version " + versionNumber);
+    }
+    return STRUCTURED_APPEND_CAPACITY[indexOf(ecLevel)][versionNumber];
+  }
+
+  /**
+   * @return smallest version which holds the payload at the given error correction level, or null if none does
+   */
+  public static Version getVersion(int length, ErrorCorrectionLevel ecLevel) {
+    byte[] versions = VERSION_FOR_LENGTH[indexOf(ecLevel)];
+    if (length < 0 || length >= versions.length) {
+      return null;
+    }
+    return Version.getVersionForNumber(versions[length]);
+  }
+
+  /**
+   * Find the smallest version which holds the payload using any of the allowed error correction levels, then
+   * the strongest of the allowed levels which still fits in that version.
+   *
+   * @param length payload length in bytes
+   * @param ecLevels allowed error correction levels, or none for all levels
+   * @return the plan, or null if the payload does not fit in a single QR code
+   */
+  public static Plan plan(int length, ErrorCorrectionLevel... ecLevels) {
+    if (ecLevels == null || ecLevels.length == 0) {
+      ecLevels = LEVELS;
+    }
+    if (length < 0) {
+      throw new IllegalArgumentException("Negative length " + length);
+    }
+
+    int bestVersion = Integer.MAX_VALUE;
+    for (ErrorCorrectionLevel ecLevel : ecLevels) {
+      byte[] versions = VERSION_FOR_LENGTH[indexOf(ecLevel)];
+      if (length < versions.length && versions[length] < bestVersion) {
+        bestVersion = versions[length];
+      }
+    }
+    if (bestVersion == Integer.MAX_VALUE) {
+      return null;
+    }
+
+    ErrorCorrectionLevel bestLevel = null;
+    for (ErrorCorrectionLevel ecLevel : ecLevels) {
+      if (CAPACITY[indexOf(ecLevel)][bestVersion] >= length) {
+        if (bestLevel == null || indexOf(ecLevel) > indexOf(bestLevel)) {
+          bestLevel = ecLevel;
+        }
+      }
+    }
+    int capacity = CAPACITY[indexOf(bestLevel)][bestVersion];
+
+    return new Plan(Version.getVersionForNumber(bestVersion), bestLevel, capacity, capacity - length);
+  }
+
+  /**
+   * Result of capacity planning.
+   */
+  public static final class Plan {
+
+    private final Version version;
+    private final ErrorCorrectionLevel ecLevel;
+    private final int capacity;
+    private final int remaining;
+
+    Plan(Version version, ErrorCorrectionLevel ecLevel, int capacity, int remaining) {
+      this.version = version;
+      this.ecLevel = ecLevel;
+      this.capacity = capacity;
+      this.remaining = remaining;
+    }
+
+    public Version getVersion() {
+      return version;
+    }
+
+    public ErrorCorrectionLevel getErrorCorrectionLevel() {
+      return ecLevel;
+    }
+
+    /** Payload capacity in bytes of the chosen version and error correction level */
+    public int getCapacity() {
+      return capacity;
+    }
+
+    /** Unused payload bytes in the chosen version and error correction level */
+    public int getRemainingBytes() {
+      return remaining;
+    }
+
+    @Override
+    public String toString() {
+      return version.getVersionNumber() + "-" + ecLevel;
+    }
+  }
+
+}
@@ -0,0 +1,83 @@
+package com.google.zxing.qrcode.binary;
+
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+/**
+ * Structured append splits a payload over up to 16 QR code symbols. Each symbol starts with a header
+ * holding its position, the total number of symbols and the parity (XOR) of the complete payload.
+ * See 9.2 of JISX0510:2004.
+ *
+ * @author Thomas Skjolberg
+ */
+public final class StructuredAppend {
+
+  public static final int MAX_SYMBOLS = 16;
+
+  /** Mode indicator, symbol sequence indicator and parity */
+  public static final int HEADER_BITS = 4 + 8 + 8;
+
+  private StructuredAppend() {
+  }
+
+  /**
+   * @return the largest payload which can be split over {@link #MAX_SYMBOLS} symbols
+   */
+  public static int getMaxPayload(ErrorCorrectionLevel ecLevel) {
+    return MAX_SYMBOLS * QrCapacityPlanner.getStructuredAppendCapacity(QrCapacityPlanner.MAX_VERSION, ecLevel);
+  }
+
+  /**
+   * @return the number of symbols needed for the payload, or -1 if more than {@link #MAX_SYMBOLS} would be needed
+   */
+  public static int getSymbolCount(int length, ErrorCorrectionLevel ecLevel) {
+    int capacity = QrCapacityPlanner.getStructuredAppendCapacity(QrCapacityPlanner.MAX_VERSION, ecLevel);
+    int count = Math.max(1, (length + capacity - 1) / capacity);
+    if (count > MAX_SYMBOLS) {
+      return -1;
+    }
+    return count;
+  }
+
+  /**
+   * Split a payload into (nearly) equally sized parts, so that all symbols get roughly the same version.
+   *
+   * @return offsets into the payload, one per symbol plus the payload length
+   */
+  public static int[] split(int length, int count) {
+    int[] offsets = new int[count + 1];
+    for (int i = 0; i <= count; i++) {
+      offsets[i] = (int) ((long) length * i / count);
+    }
+    return offsets;
+  }
+
+  /**
+   * @return parity data, i.e. all payload bytes XOR'ed together
+   */
+  public static int parity(byte[] content) {
+    int parity = 0;
+    for (byte b : content) {
+      parity ^= b;
+    }
+    return parity & 0xFF;
+  }
+
+  /**
+   * @return the symbol sequence indicator: position in the high nibble and total - 1 in the low nibble
+   */
+  public static int toSequence(int index, int total) {
+    if (total < 1 || total > MAX_SYMBOLS || index < 0 || index >= total) {
+      throw new IllegalArgumentException("Symbol " + index + " of " + total);
+    }
+    return (index << 4) | (total - 1);
+  }
+
+  public static int getIndex(int sequence) {
+    return (sequence >> 4) & 0x0F;
+  }
+
+  public static int getTotal(int sequence) {
+    return (sequence & 0x0F) + 1;
+  }
+
+}
@@ -0,0 +1,100 @@
+package com.google.zxing.qrcode.binary;
+
+import com.google.zxing.FormatException;
+import com.google.zxing.common.DecoderResult;
+
+/**
+ * Collects the symbols of a structured append sequence, in any order, and reassembles the payload.
+ *
+ * @author Thomas Skjolberg
+ */
+public class StructuredAppendAssembler {
+
+  private byte[][] parts;
+  private int parity = -1;
+  private int received = 0;
+
+  /**
+   * Add a decoded symbol. Duplicates are ignored.
+   *
+   * @return true if all symbols of the sequence have been added
+   * @throws FormatException if the symbol is not part of a structured append sequence, or belongs to another sequence
+   */
+  public boolean add(DecoderResult result) throws FormatException {
+    if (!result.hasStructuredAppend()) {
+      throw FormatException.getFormatInstance();
+    }
+    return add(result.getStructuredAppendSequenceNumber(), result.getStructuredAppendParity(), result.getRawBytes());
+  }
+
+  public boolean add(int sequence, int parity, byte[] bytes) throws FormatException {
+    int index = StructuredAppend.getIndex(sequence);
+    int total = StructuredAppend.getTotal(sequence);
+
+    if (parts == null) {
+      parts = new byte[total][];
+      this.parity = parity;
+    } else if (parts.length != total || this.parity != parity) {
+      throw FormatException.getFormatInstance();
+    }
+    if (index >= total) {
+      throw FormatException.getFormatInstance();
+    }
+
+    if (parts[index] == null) {
+      parts[index] = bytes;
+      received++;
+    }
+
+    return isComplete();
+  }
+
+  public boolean isComplete() {
+    return parts != null && received == parts.length;
+  }
+
+  /**
+   * @return number of symbols in the sequence, or -1 if no symbols have been added yet
+   */
+  public int getTotal() {
+    if (parts == null) {
+      return -1;
+    }
+    return parts.length;
+  }
+
+  public int getReceived() {
+    return received;
+  }
+
+  /**
+   * @return the reassembled payload
+   * @throws FormatException if symbols are missing or the parity does not match
+   */
+  public byte[] getPayload() throws FormatException {
+    if (!isComplete()) {
+      throw FormatException.getFormatInstance();
+    }
+    int length = 0;
+    for (byte[] part : parts) {
+      length += part.length;
+    }
+    byte[] payload = new byte[length];
+    int offset = 0;
+    for (byte[] part : parts) {
+      System.arraycopy(part, 0, payload, offset, part.length);
+      offset += part.length;
+    }
+    if (StructuredAppend.parity(payload) != parity) {
+      throw FormatException.getFormatInstance();
+    }
+    return payload;
+  }
+
+  public void reset() {
+    parts = null;
+    parity = -1;
+    received = 0;
+  }
+
+}
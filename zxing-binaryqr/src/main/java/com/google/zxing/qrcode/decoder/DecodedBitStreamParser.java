@@ -17,15 +17,10 @@ package com.google.zxing.qrcode.decoder;
 
 
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 
 import com.google.zxing.DecodeHintType;
 import com.google.zxing.FormatException;
-import com.google.zxing.common.BitSource;
 import com.google.zxing.common.DecoderResult;
 import com.google.zxing.qrcode.decoder.Mode;
 import com.google.zxing.qrcode.decoder.Version;
@@ -46,60 +41,125 @@ public final class DecodedBitStreamParser {
 	}
 
 	public static DecoderResult decode(byte[] bytes, Version version, ErrorCorrectionLevel ecLevel, Map<DecodeHintType, ?> hints) throws FormatException {
-		BitSource bits = new BitSource(bytes);
-		
-		List<byte[]> byteSegments = new ArrayList<byte[]>(1);
+		// first pass validates and sizes the payload, second pass copies the segments straight into it
+		int[] structuredAppend = new int[] {-1, -1};
+		byte[] payload = new byte[parse(bytes, version, null, 0, structuredAppend)];
+		parse(bytes, version, payload, 0, null);
+
+		return new DecoderResult(payload, "", null, null, structuredAppend[0], structuredAppend[1]);
+	}
+
+	/**
+	 * Decode the payload into a caller-supplied buffer, so that no memory is allocated per symbol.
+	 * The buffer contents beyond the offset are undefined if decoding fails.
+	 * 
+	 * @return payload length
+	 * @throws FormatException if the bit stream is malformed
+	 * @throws IllegalArgumentException if the payload does not fit in the buffer, see {@link #getPayloadLength(byte[], Version)}
+	 */
+	public static int decode(byte[] bytes, Version version, byte[] buffer, int offset) throws FormatException {
+		if (buffer == null) {
+			throw new IllegalArgumentException("No buffer");
+		}
+		return parse(bytes, version, buffer, offset, null);
+	}
+
+	/**
+	 * @return payload length, without decoding the payload
+	 * @throws FormatException if the bit stream is malformed
+	 */
+	public static int getPayloadLength(byte[] bytes, Version version) throws FormatException {
+		return parse(bytes, version, null, 0, null);
+	}
+
+	/**
+	 * Walk the segments, copying byte segments into the buffer if any.
+	 * 
+	 * @param buffer target buffer, or null to only validate and count
+	 * @param structuredAppend receives the structured append sequence number and parity, or null
+	 * @return payload length
+	 */
+	private static int parse(byte[] bytes, Version version, byte[] buffer, int offset, int[] structuredAppend) throws FormatException {
+		int size = bytes.length << 3;
+		int position = 0;
+		int length = 0;
 		Mode mode;
 		do {
 			// While still another segment to read...
-			if (bits.available() < 4) {
+			if (size - position < 4) {
 				// OK, assume we're done. Really, a TERMINATOR mode should have been recorded here
 				mode = Mode.TERMINATOR;
 			} else {
 				try {
-					mode = Mode.forBits(bits.readBits(4)); // mode is encoded by 4 bits
+					mode = Mode.forBits(readBits(bytes, position, 4)); // mode is encoded by 4 bits
 				} catch (IllegalArgumentException iae) {
 					throw FormatException.getFormatInstance();
 				}
+				position += 4;
 			}
-			if (mode != Mode.TERMINATOR) {
+			if (mode == Mode.STRUCTURED_APPEND) {
+				if (size - position < 16) {
+					throw FormatException.getFormatInstance();
+				}
+				// sequence number and parity is added later to the result metadata
+				// Read next 8 bits (symbol sequence #) and 8 bits (parity data), then continue
+				if (structuredAppend != null) {
+					structuredAppend[0] = readBits(bytes, position, 8);
+					structuredAppend[1] = readBits(bytes, position + 8, 8);
+				}
+				position += 16;
+			} else if (mode != Mode.TERMINATOR) {
 				// "Normal" QR code modes:
 				// How many characters will follow, encoded in this mode?
-				int count = bits.readBits(mode.getCharacterCountBits(version));
-				if (mode == Mode.BYTE) {
-					byteSegments.add(decodeByteSegment(bits, count));
-				} else {
+				int countBits = mode.getCharacterCountBits(version);
+				if (size - position < countBits) {
 					throw FormatException.getFormatInstance();
 				}
+				int count = readBits(bytes, position, countBits);
+				position += countBits;
+				if (mode != Mode.BYTE) {
+					throw FormatException.getFormatInstance();
+				}
+				// Don't crash trying to read more bits than we have available.
+				if (count << 3 > size - position) {
+					throw FormatException.getFormatInstance();
+				}
+				if (buffer != null) {
+					if (offset + length + count > buffer.length) {
+						throw new IllegalArgumentException("Payload does not fit in buffer of " + buffer.length + " bytes at offset " + offset);
+					}
+					copyBytes(bytes, position, buffer, offset + length, count);
+				}
+				position += count << 3;
+				length += count;
 			}
 		} while (mode != Mode.TERMINATOR);
 
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		for(byte[] bs : byteSegments) {
-			try {
-				bout.write(bs);
-			} catch (IOException e) {
-				throw new RuntimeException();
-			}
-		}
-
-		DecoderResult result = new DecoderResult(bout.toByteArray(), "", null, null);
-		
-		return result;
+		return length;
 	}
 
-	private static byte[] decodeByteSegment(BitSource bits, int count) throws FormatException {
-		// Don't crash trying to read more bits than we have available.
-		if (count << 3 > bits.available()) {
-			throw FormatException.getFormatInstance();
+	private static int readBits(byte[] bytes, int position, int count) {
+		int value = 0;
+		for (int i = position; i < position + count; i++) {
+			value = (value << 1) | ((bytes[i >> 3] >>> (7 - (i & 0x07))) & 0x01);
 		}
+		return value;
+	}
 
-		byte[] readBytes = new byte[count];
-		for (int i = 0; i < count; i++) {
-			readBytes[i] = (byte) bits.readBits(8);
+	/**
+	 * Copy whole bytes starting at an arbitrary bit position; byte aligned segments are copied in bulk.
+	 */
+	private static void copyBytes(byte[] bytes, int position, byte[] buffer, int offset, int count) {
+		int index = position >> 3;
+		int shift = position & 0x07;
+		if (shift == 0) {
+			System.arraycopy(bytes, index, buffer, offset, count);
+		} else {
+			// the last byte of the segment always has a successor, as it ends mid-byte
+			for (int i = 0; i < count; i++, index++) {
+				buffer[offset + i] = (byte) ((bytes[index] << shift) | ((bytes[index + 1] & 0xFF) >>> (8 - shift)));
+			}
 		}
-
-		return readBytes;
 	}
 
 }
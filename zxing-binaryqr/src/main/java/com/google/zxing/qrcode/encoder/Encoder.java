@@ -22,6 +22,8 @@ import com.google.zxing.common.BitArray;
 import com.google.zxing.common.CharacterSetECI;
 import com.google.zxing.common.reedsolomon.GenericGF;
 import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.binary.StructuredAppend;
 import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
 import com.google.zxing.qrcode.decoder.Mode;
 import com.google.zxing.qrcode.decoder.Version;
@@ -61,6 +63,13 @@ public final class Encoder {
         + MaskUtil.applyMaskPenaltyRule4(matrix);
   }
 
+  // Cheap approximation of the mask penalty for draft symbols: skips the run length and finder-like
+  // pattern rules, which make up most of the penalty calculation time.
+  private static int calculateDraftMaskPenalty(ByteMatrix matrix) {
+    return MaskUtil.applyMaskPenaltyRule2(matrix)
+        + MaskUtil.applyMaskPenaltyRule4(matrix);
+  }
+
   /**
    * @param content text to encode
    * @param ecLevel error correction level to use
@@ -75,6 +84,61 @@ public final class Encoder {
   public static QRCode encode(byte[] content,
                               ErrorCorrectionLevel ecLevel,
                               Map<EncodeHintType,?> hints) throws WriterException {
+    return encode(content, ecLevel, hints, 0, 0, false, null);
+  }
+
+  /**
+   * Encode a draft symbol for interactive previews: the full mask penalty search is skipped in favour of
+   * the mask of the previous symbol (if it has the same version and error correction level), or else a cheap
+   * penalty heuristic. The symbol is valid, but not necessarily optimal; encode again using
+   * {@link #encode(byte[], ErrorCorrectionLevel, Map)} once there is time for it.
+   *
+   * @param previous previously encoded symbol, or null
+   * @return {@link QRCode} representing the encoded QR code
+   * @throws WriterException if encoding can't succeed
+   */
+  public static QRCode encodeDraft(byte[] content,
+                                   ErrorCorrectionLevel ecLevel,
+                                   Map<EncodeHintType,?> hints,
+                                   QRCode previous) throws WriterException {
+    return encode(content, ecLevel, hints, 0, 0, true, previous);
+  }
+
+  /**
+   * Encode one symbol of a structured append sequence.
+   *
+   * @param content the part of the payload to encode in this symbol
+   * @param index position of this symbol in the sequence, starting at 0
+   * @param total number of symbols in the sequence, at most 16
+   * @param parity parity of the complete payload, see {@link StructuredAppend#parity(byte[])}
+   * @param ecLevel error correction level to use
+   * @return {@link QRCode} representing the encoded QR code
+   * @throws WriterException if encoding can't succeed
+   */
+  public static QRCode encodeStructuredAppend(byte[] content,
+                                              int index,
+                                              int total,
+                                              int parity,
+                                              ErrorCorrectionLevel ecLevel,
+                                              Map<EncodeHintType,?> hints) throws WriterException {
+    int sequence;
+    try {
+      sequence = StructuredAppend.toSequence(index, total);
+    } catch (IllegalArgumentException e) {
+      throw new WriterException(e.getMessage());
+    }
+    long header = (((long) Mode.STRUCTURED_APPEND.getBits() << 8) | sequence) << 8 | (parity & 0xFF);
+
+    return encode(content, ecLevel, hints, header, StructuredAppend.HEADER_BITS, false, null);
+  }
+
+  private static QRCode encode(byte[] content,
+                               ErrorCorrectionLevel ecLevel,
+                               Map<EncodeHintType,?> hints,
+                               long prefix,
+                               int prefixBits,
+                               boolean draft,
+                               QRCode previous) throws WriterException {
 
     // Determine what character encoding has been specified by the caller, if any
     String encoding = hints == null ? null : (String) hints.get(EncodeHintType.CHARACTER_SET);
@@ -82,67 +146,75 @@ public final class Encoder {
       encoding = DEFAULT_BYTE_MODE_ENCODING;
     }
 
-    // Pick an encoding mode appropriate for the content. Note that this will not attempt to use
-    // multiple modes / segments even if that were more efficient. Twould be nice.
+    // Binary content is always encoded as a single BYTE mode segment, so the codewords are built
+    // directly as bytes: a short header (optional ECI, mode and length) followed by the payload.
     Mode mode = Mode.BYTE;
 
-    // This will store the header information, like mode and
-    // length, as well as "header" segments like an ECI segment.
-    BitArray headerBits = new BitArray();
+    // Header bits, like structured append and ECI segments and mode marker, but not the length
+    // (which depends on version).
+    long header = prefix;
+    int headerBits = prefixBits;
 
     // Append ECI segment if applicable
     if (mode == Mode.BYTE && !DEFAULT_BYTE_MODE_ENCODING.equals(encoding)) {
       CharacterSetECI eci = CharacterSetECI.getCharacterSetECIByName(encoding);
       if (eci != null) {
-        appendECI(eci, headerBits);
+        // This is correct for values up to 127, which is all we need now.
+        header = (header << 4) | Mode.ECI.getBits();
+        header = (header << 8) | eci.getValue();
+        headerBits += 12;
       }
     }
 
     // (With ECI in place,) Write the mode marker
-    appendModeInfo(mode, headerBits);
-
-    // Collect data within the main segment, separately, to count its size if needed. Don't add it to
-    // main payload yet.
-    BitArray dataBits = new BitArray();
-    
-    append8BitBytes(content, dataBits, encoding);
-    
-    // Hard part: need to know version to know how many bits length takes. But need to know how many
-    // bits it takes to know version. First we take a guess at version by assuming version will be
-    // the minimum, 1:
-
-    int provisionalBitsNeeded = headerBits.getSize()
-        + mode.getCharacterCountBits(Version.getVersionForNumber(1))
-        + dataBits.getSize();
-    Version provisionalVersion = chooseVersion(provisionalBitsNeeded, ecLevel);
-
-    // Use that guess to calculate the right version. I am still not sure this works in 100% of cases.
-
-    int bitsNeeded = headerBits.getSize()
-        + mode.getCharacterCountBits(provisionalVersion)
-        + dataBits.getSize();
-    Version version = chooseVersion(bitsNeeded, ecLevel);
-
-    BitArray headerAndDataBits = new BitArray();
-    headerAndDataBits.appendBitArray(headerBits);
+    header = (header << 4) | mode.getBits();
+    headerBits += 4;
+
+    Version version;
+    if (headerBits == 4) {
+      // Plain BYTE mode header: the version can be looked up directly
+      version = QrCapacityPlanner.getVersion(content.length, ecLevel);
+      if (version == null) {
+        throw new WriterException("Data too big");
+      }
+    } else {
+      // Hard part: need to know version to know how many bits length takes. But need to know how many
+      // bits it takes to know version. First we take a guess at version by assuming version will be
+      // the minimum, 1:
+
+      int provisionalBitsNeeded = headerBits
+          + mode.getCharacterCountBits(Version.getVersionForNumber(1))
+          + 8 * content.length;
+      Version provisionalVersion = chooseVersion(provisionalBitsNeeded, ecLevel);
+
+      // Use that guess to calculate the right version. I am still not sure this works in 100% of cases.
+
+      int bitsNeeded = headerBits
+          + mode.getCharacterCountBits(provisionalVersion)
+          + 8 * content.length;
+      version = chooseVersion(bitsNeeded, ecLevel);
+    }
+
     // Find "length" of main segment and write it
-    int numLetters = dataBits.getSizeInBytes();
-    
-    appendLengthInfo(numLetters, version, mode, headerAndDataBits);
-    // Put data together into the overall payload
-    headerAndDataBits.appendBitArray(dataBits);
+    int numLengthBits = mode.getCharacterCountBits(version);
+    if (content.length >= (1 << numLengthBits)) {
+      throw new WriterException(content.length + " is bigger than " + ((1 << numLengthBits) - 1));
+    }
+    header = (header << numLengthBits) | content.length;
+    headerBits += numLengthBits;
 
     Version.ECBlocks ecBlocks = version.getECBlocksForLevel(ecLevel);
     int numDataBytes = version.getTotalCodewords() - ecBlocks.getTotalECCodewords();
 
-    // Terminate the bits properly.
-    terminateBits(numDataBytes, headerAndDataBits);
+    // Put header and data together into the overall payload, then terminate it properly.
+    byte[] dataBytes = new byte[numDataBytes];
+    appendHeaderAndData(header, headerBits, content, numDataBytes, dataBytes);
 
-    // Interleave data bits with error correction code.
-    BitArray finalBits = interleaveWithECBytes(headerAndDataBits,
-                                               version.getTotalCodewords(),
-                                               numDataBytes,
-                                               ecBlocks.getNumBlocks());
+    // Interleave data bytes with error correction code.
+    BitArray finalBits = toBitArray(interleaveWithECBytes(dataBytes,
+                                                          version.getTotalCodewords(),
+                                                          numDataBytes,
+                                                          ecBlocks.getNumBlocks()));
 
     QRCode qrCode = new QRCode();
 
@@ -153,7 +225,15 @@ public final class Encoder {
     //  Choose the mask pattern and set to "qrCode".
     int dimension = version.getDimensionForVersion();
     ByteMatrix matrix = new ByteMatrix(dimension, dimension);
-    int maskPattern = chooseMaskPattern(finalBits, ecLevel, version, matrix);
+    int maskPattern;
+    if (!draft) {
+      maskPattern = chooseMaskPattern(finalBits, ecLevel, version, matrix);
+    } else if (previous != null && previous.getVersion() == version && previous.getECLevel() == ecLevel
+        && QRCode.isValidMaskPattern(previous.getMaskPattern())) {
+      maskPattern = previous.getMaskPattern();
+    } else {
+      maskPattern = chooseDraftMaskPattern(finalBits, ecLevel, version, matrix);
+    }
     qrCode.setMaskPattern(maskPattern);
 
     // Build the matrix and set it to "qrCode".
@@ -174,10 +254,10 @@ public final class Encoder {
     return -1;
   }
 
-  private static int chooseMaskPattern(BitArray bits,
-                                       ErrorCorrectionLevel ecLevel,
-                                       Version version,
-                                       ByteMatrix matrix) throws WriterException {
+  static int chooseMaskPattern(BitArray bits,
+                               ErrorCorrectionLevel ecLevel,
+                               Version version,
+                               ByteMatrix matrix) throws WriterException {
 
     int minPenalty = Integer.MAX_VALUE;  // Lower penalty is better.
     int bestMaskPattern = -1;
@@ -193,6 +273,24 @@ public final class Encoder {
     return bestMaskPattern;
   }
 
+  static int chooseDraftMaskPattern(BitArray bits,
+                                    ErrorCorrectionLevel ecLevel,
+                                    Version version,
+                                    ByteMatrix matrix) throws WriterException {
+
+    int minPenalty = Integer.MAX_VALUE;
+    int bestMaskPattern = -1;
+    for (int maskPattern = 0; maskPattern < QRCode.NUM_MASK_PATTERNS; maskPattern++) {
+      MatrixUtil.buildMatrix(bits, ecLevel, version, maskPattern, matrix);
+      int penalty = calculateDraftMaskPenalty(matrix);
+      if (penalty < minPenalty) {
+        minPenalty = penalty;
+        bestMaskPattern = maskPattern;
+      }
+    }
+    return bestMaskPattern;
+  }
+
   private static Version chooseVersion(int numInputBits, ErrorCorrectionLevel ecLevel) throws WriterException {
     // In the following comments, we use numbers of Version 7-H.
     for (int versionNum = 1; versionNum <= 40; versionNum++) {
@@ -213,32 +311,52 @@ public final class Encoder {
   }
 
   /**
-   * Terminate bits as described in 8.4.8 and 8.4.9 of JISX0510:2004 (p.24).
+   * Write the header bits (always a multiple of 4), the 8-bit payload and the termination and padding
+   * described in 8.4.8 and 8.4.9 of JISX0510:2004 (p.24) into "dataBytes". When the header is byte
+   * aligned, the payload is copied in bulk; otherwise every payload byte is shifted by a half byte.
    */
-  static void terminateBits(int numDataBytes, BitArray bits) throws WriterException {
+  static void appendHeaderAndData(long header,
+                                  int headerBits,
+                                  byte[] content,
+                                  int numDataBytes,
+                                  byte[] dataBytes) throws WriterException {
     int capacity = numDataBytes * 8;
-    if (bits.getSize() > capacity) {
-      throw new WriterException("data bits cannot fit in the QR Code" + bits.getSize() + " > " +
-          capacity);
-    }
-    for (int i = 0; i < 4 && bits.getSize() < capacity; ++i) {
-      bits.appendBit(false);
-    }
-    // Append termination bits. See 8.4.8 of JISX0510:2004 (p.24) for details.
-    // If the last byte isn't 8-bit aligned, we'll add padding bits.
-    int numBitsInLastByte = bits.getSize() & 0x07;    
-    if (numBitsInLastByte > 0) {
-      for (int i = numBitsInLastByte; i < 8; i++) {
-        bits.appendBit(false);
+    int size = headerBits + 8 * content.length;
+    if (size > capacity) {
+      throw new WriterException("data bits cannot fit in the QR Code" + size + " > " + capacity);
+    }
+    if ((headerBits & 0x03) != 0) {
+      throw new WriterException("Header is not nibble aligned: " + headerBits);
+    }
+
+    // Whole header bytes
+    int offset = 0;
+    for (int shift = headerBits - 8; shift >= 0; shift -= 8) {
+      dataBytes[offset++] = (byte) (header >>> shift);
+    }
+
+    if ((headerBits & 0x07) == 0) {
+      System.arraycopy(content, 0, dataBytes, offset, content.length);
+      offset += content.length;
+      if (offset < numDataBytes) {
+        // The terminator (four zero bits, 8.4.8) and zero bits up to the byte boundary
+        dataBytes[offset++] = 0;
+      }
+    } else {
+      // The last header nibble goes into the high half of the first payload byte. The terminator
+      // (four zero bits, 8.4.8) then ends up in the low half of the last byte.
+      int carry = (int) (header & 0x0F);
+      for (byte b : content) {
+        dataBytes[offset++] = (byte) ((carry << 4) | ((b & 0xFF) >>> 4));
+        carry = b & 0x0F;
       }
+      // Since capacity is a whole number of bytes, there is always room for the last half byte.
+      dataBytes[offset++] = (byte) (carry << 4);
     }
+
     // If we have more space, we'll fill the space with padding patterns defined in 8.4.9 (p.24).
-    int numPaddingBytes = numDataBytes - bits.getSizeInBytes();
-    for (int i = 0; i < numPaddingBytes; ++i) {
-      bits.appendBits((i & 0x01) == 0 ? 0xEC : 0x11, 8);
-    }
-    if (bits.getSize() != capacity) {
-      throw new WriterException("Bits size does not equal capacity");
+    for (int i = 0; offset < numDataBytes; i++) {
+      dataBytes[offset++] = (byte) ((i & 0x01) == 0 ? 0xEC : 0x11);
     }
   }
 
@@ -300,16 +418,16 @@ public final class Encoder {
   }
 
   /**
-   * Interleave "bits" with corresponding error correction bytes. On success, store the result in
-   * "result". The interleave rule is complicated. See 8.6 of JISX0510:2004 (p.37) for details.
+   * Interleave "dataBytes" with corresponding error correction bytes. On success, return the result.
+   * The interleave rule is complicated. See 8.6 of JISX0510:2004 (p.37) for details.
    */
-  static BitArray interleaveWithECBytes(BitArray bits,
-                                        int numTotalBytes,
-                                        int numDataBytes,
-                                        int numRSBlocks) throws WriterException {
+  static byte[] interleaveWithECBytes(byte[] dataBytes,
+                                      int numTotalBytes,
+                                      int numDataBytes,
+                                      int numRSBlocks) throws WriterException {
 
-    // "bits" must have "getNumDataBytes" bytes of data.
-    if (bits.getSizeInBytes() != numDataBytes) {
+    // "dataBytes" must have "getNumDataBytes" bytes of data.
+    if (dataBytes.length != numDataBytes) {
       throw new WriterException("Number of bits and data bytes does not match");
     }
 
@@ -322,55 +440,88 @@ public final class Encoder {
     // Since, we know the number of reedsolmon blocks, we can initialize the vector with the number.
     Collection<BlockPair> blocks = new ArrayList<>(numRSBlocks);
 
+    int[] numDataBytesInBlock = new int[1];
+    int[] numEcBytesInBlock = new int[1];
     for (int i = 0; i < numRSBlocks; ++i) {
-      int[] numDataBytesInBlock = new int[1];
-      int[] numEcBytesInBlock = new int[1];
       getNumDataBytesAndNumECBytesForBlockID(
           numTotalBytes, numDataBytes, numRSBlocks, i,
           numDataBytesInBlock, numEcBytesInBlock);
 
       int size = numDataBytesInBlock[0];
-      byte[] dataBytes = new byte[size];
-      bits.toBytes(8*dataBytesOffset, dataBytes, 0, size);
-      byte[] ecBytes = generateECBytes(dataBytes, numEcBytesInBlock[0]);
-      blocks.add(new BlockPair(dataBytes, ecBytes));
+      byte[] blockBytes = new byte[size];
+      System.arraycopy(dataBytes, dataBytesOffset, blockBytes, 0, size);
+      byte[] ecBytes = generateECBytes(blockBytes, numEcBytesInBlock[0]);
+      blocks.add(new BlockPair(blockBytes, ecBytes));
 
       maxNumDataBytes = Math.max(maxNumDataBytes, size);
       maxNumEcBytes = Math.max(maxNumEcBytes, ecBytes.length);
-      dataBytesOffset += numDataBytesInBlock[0];
+      dataBytesOffset += size;
     }
     if (numDataBytes != dataBytesOffset) {
       throw new WriterException("Data bytes does not match offset");
     }
 
-    BitArray result = new BitArray();
+    byte[] result = new byte[numTotalBytes];
+    int offset = 0;
 
-    // First, place data blocks.
-    for (int i = 0; i < maxNumDataBytes; ++i) {
-      for (BlockPair block : blocks) {
-        byte[] dataBytes = block.getDataBytes();
-        if (i < dataBytes.length) {
-          result.appendBits(dataBytes[i], 8);
+    if (numRSBlocks == 1) {
+      // Nothing to interleave
+      BlockPair block = blocks.iterator().next();
+      System.arraycopy(block.getDataBytes(), 0, result, 0, numDataBytes);
+      System.arraycopy(block.getErrorCorrectionBytes(), 0, result, numDataBytes, maxNumEcBytes);
+      offset = numDataBytes + maxNumEcBytes;
+    } else {
+      // First, place data blocks.
+      for (int i = 0; i < maxNumDataBytes; ++i) {
+        for (BlockPair block : blocks) {
+          byte[] blockBytes = block.getDataBytes();
+          if (i < blockBytes.length) {
+            result[offset++] = blockBytes[i];
+          }
         }
       }
-    }
-    // Then, place error correction blocks.
-    for (int i = 0; i < maxNumEcBytes; ++i) {
-      for (BlockPair block : blocks) {
-        byte[] ecBytes = block.getErrorCorrectionBytes();
-        if (i < ecBytes.length) {
-          result.appendBits(ecBytes[i], 8);
+      // Then, place error correction blocks.
+      for (int i = 0; i < maxNumEcBytes; ++i) {
+        for (BlockPair block : blocks) {
+          byte[] ecBytes = block.getErrorCorrectionBytes();
+          if (i < ecBytes.length) {
+            result[offset++] = ecBytes[i];
+          }
         }
       }
     }
-    if (numTotalBytes != result.getSizeInBytes()) {  // Should be same.
+    if (numTotalBytes != offset) {  // Should be same.
       throw new WriterException("Interleaving error: " + numTotalBytes + " and " +
-          result.getSizeInBytes() + " differ.");
+          offset + " differ.");
     }
 
     return result;
   }
 
+  /**
+   * Copy whole codewords into a {@link BitArray}, 32 bits at a time. Bit i of the array is bit
+   * (7 - i % 8) of byte i / 8, i.e. the bytes are read most significant bit first.
+   */
+  static BitArray toBitArray(byte[] bytes) {
+    BitArray bits = new BitArray(bytes.length * 8);
+    int i = 0;
+    for (; i + 4 <= bytes.length; i += 4) {
+      int word = ((bytes[i] & 0xFF) << 24)
+          | ((bytes[i + 1] & 0xFF) << 16)
+          | ((bytes[i + 2] & 0xFF) << 8)
+          | (bytes[i + 3] & 0xFF);
+      bits.setBulk(i * 8, Integer.reverse(word));
+    }
+    if (i < bytes.length) {
+      int word = 0;
+      for (int k = 0; i + k < bytes.length; k++) {
+        word |= (bytes[i + k] & 0xFF) << (24 - 8 * k);
+      }
+      bits.setBulk(i * 8, Integer.reverse(word));
+    }
+    return bits;
+  }
+
   static byte[] generateECBytes(byte[] dataBytes, int numEcBytesInBlock) {
     int numDataBytes = dataBytes.length;
     int[] toEncode = new int[numDataBytes + numEcBytesInBlock];
@@ -453,12 +604,6 @@ public final class Encoder {
     }
   }
 
-  static void append8BitBytes(byte[] bytes, BitArray bits, String encoding) throws WriterException {
-    for (byte b : bytes) {
-      bits.appendBits(b, 8);
-    }
-  }
-
   static void appendKanjiBytes(String content, BitArray bits) throws WriterException {
     byte[] bytes;
     try {
@@ -485,11 +630,5 @@ public final class Encoder {
     }
   }
 
-  private static void appendECI(CharacterSetECI eci, BitArray bits) {
-    bits.appendBits(Mode.ECI.getBits(), 4);
-    // This is correct for values up to 127, which is all we need now.
-    bits.appendBits(eci.getValue(), 8);
-  }
-
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package org.nfc.eclipse.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.zxing.client.j2se.MatrixToImageWriter;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.binary.BinaryQRBatchDecoder;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+
+public class TestBinaryQRBatchDecoder {
+
+	@Test
+	public void testBatch() throws Exception {
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		
+		List<byte[]> contents = new ArrayList<byte[]>();
+		List<BinaryQRBatchDecoder.Source> sources = new ArrayList<BinaryQRBatchDecoder.Source>();
+		for(int i = 0; i < 40; i++) {
+			byte[] bytes = new byte[10 + i * 5];
+			for(int k = 0; k < bytes.length; k++) {
+				bytes[k] = (byte)(i + k);
+			}
+			contents.add(bytes);
+			
+			BitMatrix matrix = writer.encode(bytes, com.google.zxing.BarcodeFormat.QR_CODE, 300, 300);
+			sources.add(BinaryQRBatchDecoder.fromImage("qr" + i, MatrixToImageWriter.toBufferedImage(matrix)));
+		}
+		// blank image
+		sources.add(BinaryQRBatchDecoder.fromImage("blank", new BufferedImage(100, 100, BufferedImage.TYPE_INT_RGB)));
+
+		BinaryQRBatchDecoder decoder = new BinaryQRBatchDecoder(4);
+		decoder.setPureBarcode(true);
+		try {
+			List<BinaryQRBatchDecoder.Result> results = decoder.decode(sources);
+			assertEquals(sources.size(), results.size());
+			
+			for(int i = 0; i < contents.size(); i++) {
+				BinaryQRBatchDecoder.Result result = results.get(i);
+				assertEquals(i, result.getIndex());
+				assertEquals("qr" + i, result.getName());
+				assertTrue(result.toString(), result.isSuccess());
+				Assert.assertArrayEquals(contents.get(i), result.getBytes());
+			}
+			
+			BinaryQRBatchDecoder.Result blank = results.get(contents.size());
+			assertFalse(blank.isSuccess());
+			assertNotNull(blank.getFailure());
+		} finally {
+			decoder.shutdown();
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package org.nfc.eclipse.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.zxing.qrcode.binary.BinaryQRBatchDecoder;
+import com.google.zxing.qrcode.binary.BinaryQRExporter;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+public class TestBinaryQRExporter {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<byte[]> contents = new ArrayList<byte[]>();
+	
+	private List<File> createInputs() throws Exception {
+		File inputs = folder.newFolder("in");
+		
+		List<File> files = new ArrayList<File>();
+		for(int i = 0; i < 12; i++) {
+			byte[] bytes = new byte[10 + i * 37];
+			new Random(i).nextBytes(bytes);
+			contents.add(bytes);
+			
+			File file = new File(inputs, "message" + i + ".ndef");
+			FileOutputStream out = new FileOutputStream(file);
+			out.write(bytes);
+			out.close();
+			
+			files.add(file);
+		}
+		return files;
+	}
+	
+	@Test
+	public void testPng() throws Exception {
+		List<File> inputs = createInputs();
+		
+		// too large
+		File large = new File(inputs.get(0).getParentFile(), "large.ndef");
+		FileOutputStream out = new FileOutputStream(large);
+		out.write(new byte[QrCapacityPlanner.MAX_PAYLOAD + 1]);
+		out.close();
+		inputs.add(large);
+		
+		BinaryQRExporter exporter = new BinaryQRExporter(3);
+		exporter.setModuleSize(3);
+		
+		List<BinaryQRExporter.Result> results = exporter.export(inputs, folder.newFolder("out"));
+		assertEquals(inputs.size(), results.size());
+		assertFalse(results.get(inputs.size() - 1).isSuccess());
+		
+		List<File> outputs = new ArrayList<File>();
+		for(int i = 0; i < contents.size(); i++) {
+			BinaryQRExporter.Result result = results.get(i);
+			assertTrue(result.toString(), result.isSuccess());
+			assertEquals("message" + i + ".png", result.getOutput().getName());
+			
+			outputs.add(result.getOutput());
+		}
+
+		// round trip
+		BinaryQRBatchDecoder decoder = new BinaryQRBatchDecoder(2);
+		decoder.setPureBarcode(true);
+		try {
+			List<BinaryQRBatchDecoder.Result> decoded = decoder.decode(BinaryQRBatchDecoder.fromFiles(outputs));
+			for(int i = 0; i < contents.size(); i++) {
+				assertTrue(decoded.get(i).toString(), decoded.get(i).isSuccess());
+				org.junit.Assert.assertArrayEquals(contents.get(i), decoded.get(i).getBytes());
+			}
+		} finally {
+			decoder.shutdown();
+		}
+	}
+	
+	@Test
+	public void testPbmAndSvg() throws Exception {
+		List<File> inputs = createInputs().subList(0, 1);
+		
+		BinaryQRExporter exporter = new BinaryQRExporter(1);
+		exporter.setModuleSize(2);
+		exporter.setQuietZone(4);
+		exporter.setErrorCorrectionLevel(ErrorCorrectionLevel.H);
+		
+		exporter.setFormat(BinaryQRExporter.Format.PBM);
+		BinaryQRExporter.Result result = exporter.export(inputs, folder.newFolder("pbm")).get(0);
+		assertEquals(ErrorCorrectionLevel.H, result.getECLevel());
+		
+		int size = (result.getVersion().getDimensionForVersion() + 8) * 2;
+		String header = "P4\n" + size + " " + size + "\n";
+		byte[] pbm = Files.readAllBytes(result.getOutput().toPath());
+		assertEquals(header.length() + size * ((size + 7) / 8), pbm.length);
+		assertEquals(header, new String(pbm, 0, header.length(), Charset.forName("US-ASCII")));
+		
+		exporter.setFormat(BinaryQRExporter.Format.SVG);
+		result = exporter.export(inputs, folder.newFolder("svg")).get(0);
+		String svg = new String(Files.readAllBytes(result.getOutput().toPath()), Charset.forName("US-ASCII"));
+		assertTrue(svg.contains("<svg") && svg.contains("width=\"" + size + "\""));
+	}
+
+	@Test
+	public void testCollisionAndCancel() throws Exception {
+		List<File> inputs = createInputs().subList(0, 3);
+		
+		// same name in another folder
+		File other = new File(folder.newFolder("other"), inputs.get(0).getName());
+		Files.copy(inputs.get(1).toPath(), other.toPath());
+		
+		List<File> all = new ArrayList<File>(inputs);
+		all.add(other);
+		
+		BinaryQRExporter exporter = new BinaryQRExporter(2);
+		List<BinaryQRExporter.Result> results = exporter.export(all, folder.newFolder("flat"));
+		assertTrue(results.get(0).isSuccess());
+		assertFalse(results.get(3).isSuccess());
+		
+		// the first file keeps its output
+		BinaryQRBatchDecoder decoder = new BinaryQRBatchDecoder(1);
+		decoder.setPureBarcode(true);
+		try {
+			List<File> outputs = new ArrayList<File>();
+			outputs.add(results.get(0).getOutput());
+			org.junit.Assert.assertArrayEquals(contents.get(0), decoder.decode(BinaryQRBatchDecoder.fromFiles(outputs)).get(0).getBytes());
+		} finally {
+			decoder.shutdown();
+		}
+		
+		// mirrored folders do not collide
+		File out = folder.newFolder("mirror");
+		List<File> outputs = new ArrayList<File>();
+		for(int i = 0; i < all.size(); i++) {
+			outputs.add(exporter.getOutputFile(all.get(i), new File(out, all.get(i).getParentFile().getName())));
+		}
+		final List<BinaryQRExporter.Result> reported = new ArrayList<BinaryQRExporter.Result>();
+		results = exporter.export(all, outputs, new BinaryQRExporter.Progress() {
+			@Override
+			public boolean isCanceled() {
+				return false;
+			}
+			
+			@Override
+			public void exported(BinaryQRExporter.Result result) {
+				reported.add(result);
+			}
+		});
+		assertEquals(results, reported);
+		for(BinaryQRExporter.Result result : results) {
+			assertTrue(result.toString(), result.isSuccess());
+		}
+		
+		results = exporter.export(all, outputs, new BinaryQRExporter.Progress() {
+			@Override
+			public boolean isCanceled() {
+				return true;
+			}
+			
+			@Override
+			public void exported(BinaryQRExporter.Result result) {
+			}
+		});
+		for(BinaryQRExporter.Result result : results) {
+			assertEquals("Canceled", result.getFailure());
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.nfc.eclipse.plugin;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.zxing.FormatException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.binary.BinaryQRCodeReader;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.binary.CompressedPayload;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+public class TestCompressedPayload {
+
+	private static byte[] getText() {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < 40; i++) {
+			builder.append("BEGIN:VCARD\nVERSION:3.0\nN:Doe;John\nTEL;TYPE=CELL:+4712345" + i + "\nEND:VCARD\n");
+		}
+		return builder.toString().getBytes(Charset.forName("UTF-8"));
+	}
+	
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] text = getText();
+		
+		byte[] compressed = CompressedPayload.compressIfSmaller(text, ErrorCorrectionLevel.L);
+		assertTrue(CompressedPayload.isCompressed(compressed));
+		assertTrue(QrCapacityPlanner.getVersion(compressed.length, ErrorCorrectionLevel.L).getVersionNumber() < QrCapacityPlanner.getVersion(text.length, ErrorCorrectionLevel.L).getVersionNumber());
+		Assert.assertArrayEquals(text, CompressedPayload.decompress(compressed));
+
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		writer.setCompression(true);
+		BitMatrix matrix = writer.encode(text, com.google.zxing.BarcodeFormat.QR_CODE, 400, 400);
+
+		BinaryQRCodeReader reader = new BinaryQRCodeReader();
+		reader.setCompression(true);
+		Assert.assertArrayEquals(text, reader.decode(TestEncoderDecoder.toBinaryBitmap(matrix)));
+	}
+
+	@Test
+	public void testNotSmaller() throws Exception {
+		byte[] random = new byte[500];
+		new Random(5).nextBytes(random);
+		assertSame(random, CompressedPayload.compressIfSmaller(random));
+
+		// compresses, but not enough to save a version
+		byte[] small = "aaaaaaaaaaaaaaaa".getBytes(Charset.forName("UTF-8"));
+		assertSame(small, CompressedPayload.compressIfSmaller(small, ErrorCorrectionLevel.L));
+		
+		assertFalse(CompressedPayload.isCompressed(small));
+		assertSame(small, CompressedPayload.decompress(small));
+	}
+
+	@Test(expected=FormatException.class)
+	public void testCorrupt() throws Exception {
+		byte[] compressed = CompressedPayload.compress(getText());
+		
+		byte[] truncated = new byte[compressed.length / 2];
+		System.arraycopy(compressed, 0, truncated, 0, truncated.length);
+		
+		CompressedPayload.decompress(truncated);
+	}
+
+	@Test(expected=FormatException.class)
+	public void testOversizedLength() throws Exception {
+		byte[] compressed = CompressedPayload.compress(getText());
+		
+		// declares 2 GB, far more than the stream can inflate to
+		compressed[2] = 0x7F;
+		compressed[3] = (byte)0xFF;
+		compressed[4] = (byte)0xFF;
+		compressed[5] = (byte)0xFF;
+		
+		CompressedPayload.decompress(compressed);
+	}
+
+	@Test(expected=FormatException.class)
+	public void testShortLength() throws Exception {
+		byte[] compressed = CompressedPayload.compress(getText());
+		
+		// declares one byte less than the stream holds
+		int length = getText().length - 1;
+		compressed[2] = (byte)(length >>> 24);
+		compressed[3] = (byte)(length >>> 16);
+		compressed[4] = (byte)(length >>> 8);
+		compressed[5] = (byte)length;
+		
+		CompressedPayload.decompress(compressed);
+	}
+
+	@Test(expected=FormatException.class)
+	public void testTrailingData() throws Exception {
+		byte[] compressed = CompressedPayload.compress(getText());
+		
+		byte[] trailing = new byte[compressed.length + 4];
+		System.arraycopy(compressed, 0, trailing, 0, compressed.length);
+		
+		CompressedPayload.decompress(trailing);
+	}
+}
@@ -36,8 +36,10 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Random;
 
 import javax.imageio.ImageIO;
 
@@ -45,12 +47,20 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import com.google.zxing.BinaryBitmap;
+import com.google.zxing.FormatException;
 import com.google.zxing.LuminanceSource;
 import com.google.zxing.client.j2se.BufferedImageLuminanceSource;
+import com.google.zxing.common.BitArray;
 import com.google.zxing.common.BitMatrix;
 import com.google.zxing.common.HybridBinarizer;
 import com.google.zxing.qrcode.binary.BinaryQRCodeReader;
 import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.decoder.DecodedBitStreamParser;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.decoder.Mode;
+import com.google.zxing.qrcode.decoder.Version;
+import com.google.zxing.qrcode.encoder.Encoder;
+import com.google.zxing.qrcode.encoder.QRCode;
 
 public class TestEncoderDecoder {
 
@@ -119,6 +129,142 @@ public class TestEncoderDecoder {
 		}
 	}
 
+	@Test
+	public void testStructuredAppend() throws Exception {
+		byte[] bytes = new byte[5000];
+		new Random(1).nextBytes(bytes);
+		
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		BitMatrix[] matrices = writer.encodeStructuredAppend(bytes, com.google.zxing.BarcodeFormat.QR_CODE, 400, 400, null);
+		assertEquals(2, matrices.length);
+
+		// decode in reverse order
+		List<BinaryBitmap> bitmaps = new ArrayList<BinaryBitmap>();
+		for(int i = matrices.length - 1; i >= 0; i--) {
+			bitmaps.add(toBinaryBitmap(matrices[i]));
+		}
+
+		BinaryQRCodeReader reader = new BinaryQRCodeReader();
+		Assert.assertArrayEquals(bytes, reader.decodeStructuredAppend(bitmaps));
+		
+		// incomplete sequence
+		try {
+			reader.decodeStructuredAppend(bitmaps.subList(0, 1));
+			Assert.fail();
+		} catch(FormatException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testDraft() throws Exception {
+		byte[] bytes = new byte[1000];
+		new Random(6).nextBytes(bytes);
+
+		QRCode optimal = Encoder.encode(bytes, ErrorCorrectionLevel.L);
+		
+		// draft of a slightly edited message reuses the mask of the previous symbol 
+		QRCode previous = Encoder.encodeDraft(bytes, ErrorCorrectionLevel.L, null, optimal);
+		assertEquals(optimal.getMaskPattern(), previous.getMaskPattern());
+		
+		bytes[0]++;
+		QRCode draft = Encoder.encodeDraft(bytes, ErrorCorrectionLevel.L, null, previous);
+		assertEquals(previous.getMaskPattern(), draft.getMaskPattern());
+		
+		// no previous symbol
+		draft = Encoder.encodeDraft(bytes, ErrorCorrectionLevel.L, null, null);
+		Assert.assertTrue(QRCode.isValidMaskPattern(draft.getMaskPattern()));
+
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		writer.setDraft(true);
+		
+		BitMatrix matrix = writer.encode(bytes, com.google.zxing.BarcodeFormat.QR_CODE, 400, 400);
+		Assert.assertArrayEquals(bytes, new BinaryQRCodeReader().decode(toBinaryBitmap(matrix)));
+	}
+
+	@Test
+	public void testPureBarcode() throws Exception {
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		
+		BinaryQRCodeReader reader = new BinaryQRCodeReader();
+		reader.setPureBarcode(true);
+		
+		// random payloads trip up the finder pattern search every now and then
+		for(int i = 0; i < 50; i++) {
+			byte[] bytes = new byte[20 + i * 29];
+			new Random(i).nextBytes(bytes);
+			
+			BitMatrix matrix = writer.encode(bytes, com.google.zxing.BarcodeFormat.QR_CODE, 400, 400);
+			Assert.assertArrayEquals(bytes, reader.decode(toBinaryBitmap(matrix)));
+		}
+	}
+
+	@Test
+	public void testParserBuffer() throws Exception {
+		Version version = Version.getVersionForNumber(10);
+		
+		byte[] first = new byte[37];
+		new Random(7).nextBytes(first);
+		byte[] second = new byte[100];
+		new Random(8).nextBytes(second);
+		
+		// 20 bit segment header, so the first segment is not byte aligned, but the second segment is
+		BitArray bits = new BitArray();
+		for(byte[] segment : new byte[][]{first, second}) {
+			bits.appendBits(Mode.BYTE.getBits(), 4);
+			bits.appendBits(segment.length, Mode.BYTE.getCharacterCountBits(version));
+			for(byte b : segment) {
+				bits.appendBits(b & 0xFF, 8);
+			}
+		}
+		bits.appendBits(Mode.TERMINATOR.getBits(), 4);
+		
+		byte[] bytes = new byte[(bits.getSize() + 7) / 8];
+		bits.toBytes(0, bytes, 0, bytes.length);
+		
+		byte[] expected = new byte[first.length + second.length];
+		System.arraycopy(first, 0, expected, 0, first.length);
+		System.arraycopy(second, 0, expected, first.length, second.length);
+
+		assertEquals(expected.length, DecodedBitStreamParser.getPayloadLength(bytes, version));
+		Assert.assertArrayEquals(expected, DecodedBitStreamParser.decode(bytes, version).getRawBytes());
+		
+		byte[] buffer = new byte[3 + expected.length];
+		assertEquals(expected.length, DecodedBitStreamParser.decode(bytes, version, buffer, 3));
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], buffer[3 + i]);
+		}
+		
+		try {
+			DecodedBitStreamParser.decode(bytes, version, new byte[expected.length - 1], 0);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+		
+		try {
+			DecodedBitStreamParser.decode(Arrays.copyOf(bytes, 50), version);
+			Assert.fail();
+		} catch(FormatException e) {
+			// expected
+		}
+	}
+
+	static BinaryBitmap toBinaryBitmap(BitMatrix matrix) {
+		int width = matrix.getWidth(); 
+		int height = matrix.getHeight(); 
+
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) { 
+			for (int x = 0; x < width; x++) { 
+				image.setRGB(x, y, matrix.get(x, y) ? 0 : 0xFFFFFF);
+			}
+		}
+
+		LuminanceSource source = new BufferedImageLuminanceSource(image);
+		return new BinaryBitmap(new HybridBinarizer(source));
+	}
+
     /**
      * Converts the byte array to HEX string.
      * 
@@ -0,0 +1,104 @@
+package org.nfc.eclipse.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.zxing.EncodeHintType;
+import com.google.zxing.FormatException;
+import com.google.zxing.ReaderException;
+import com.google.zxing.common.BitMatrix;
+import com.google.zxing.qrcode.binary.BinaryQRCodeReader;
+import com.google.zxing.qrcode.binary.BinaryQRCodeWriter;
+import com.google.zxing.qrcode.binary.FountainCode;
+import com.google.zxing.qrcode.binary.FountainDecoder;
+import com.google.zxing.qrcode.binary.FountainEncoder;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+
+public class TestFountainCode {
+
+	@Test
+	public void testLossyStream() throws Exception {
+		byte[] payload = new byte[20000];
+		new Random(2).nextBytes(payload);
+
+		FountainEncoder encoder = new FountainEncoder(payload, 250);
+		assertEquals(80, encoder.getBlockCount());
+
+		Random loss = new Random(3);
+
+		FountainDecoder decoder = new FountainDecoder();
+		int frames = 0;
+		do {
+			byte[] frame = encoder.nextFrame();
+			frames++;
+			// drop a third of the frames
+			if(loss.nextInt(3) != 0) {
+				decoder.add(frame);
+			}
+		} while(!decoder.isComplete() && frames < 1000);
+
+		assertTrue(decoder.isComplete());
+		Assert.assertArrayEquals(payload, decoder.getPayload());
+	}
+
+	@Test
+	public void testRenderedFrames() throws Exception {
+		byte[] payload = new byte[5000];
+		new Random(4).nextBytes(payload);
+
+		int blockSize = FountainCode.getBlockSize(10, ErrorCorrectionLevel.L);
+		FountainEncoder encoder = new FountainEncoder(payload, blockSize);
+
+		Map<EncodeHintType, Object> hints = new EnumMap<EncodeHintType, Object>(EncodeHintType.class);
+		hints.put(EncodeHintType.ERROR_CORRECTION, ErrorCorrectionLevel.L);
+
+		BinaryQRCodeWriter writer = new BinaryQRCodeWriter();
+		BinaryQRCodeReader reader = new BinaryQRCodeReader();
+		FountainDecoder decoder = new FountainDecoder();
+
+		// skip the systematic frames altogether
+		for(int i = 0; i < encoder.getBlockCount(); i++) {
+			encoder.nextFrame();
+		}
+
+		int frames = 0;
+		do {
+			BitMatrix matrix = writer.encode(encoder.nextFrame(), com.google.zxing.BarcodeFormat.QR_CODE, 400, 400, hints);
+			byte[] frame;
+			try {
+				frame = reader.decode(TestEncoderDecoder.toBinaryBitmap(matrix));
+			} catch(ReaderException e) {
+				// the detector misses a few symbols, which is just another lost frame
+				frame = null;
+			}
+			if(frame != null) {
+				decoder.add(frame);
+			}
+			frames++;
+		} while(!decoder.isComplete() && frames < 200);
+
+		assertTrue(decoder.isComplete());
+		Assert.assertArrayEquals(payload, decoder.getPayload());
+	}
+
+	@Test
+	public void testMixedStreams() throws Exception {
+		FountainDecoder decoder = new FountainDecoder();
+		decoder.add(new FountainEncoder(new byte[100], 10).nextFrame());
+		assertFalse(decoder.isComplete());
+		try {
+			decoder.add(new FountainEncoder(new byte[101], 10).nextFrame());
+			Assert.fail();
+		} catch(FormatException e) {
+			// expected
+		}
+	}
+}
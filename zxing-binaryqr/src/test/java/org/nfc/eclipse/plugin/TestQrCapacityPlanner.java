@@ -0,0 +1,57 @@
+package org.nfc.eclipse.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import com.google.zxing.WriterException;
+import com.google.zxing.qrcode.binary.QrCapacityPlanner;
+import com.google.zxing.qrcode.decoder.ErrorCorrectionLevel;
+import com.google.zxing.qrcode.encoder.Encoder;
+
+public class TestQrCapacityPlanner {
+
+	@Test
+	public void testMaxPayload() {
+		assertEquals(2953, QrCapacityPlanner.MAX_PAYLOAD);
+		assertEquals(1273, QrCapacityPlanner.getMaxPayload(ErrorCorrectionLevel.H));
+		assertEquals(17, QrCapacityPlanner.getCapacity(1, ErrorCorrectionLevel.L));
+
+		assertNull(QrCapacityPlanner.plan(QrCapacityPlanner.MAX_PAYLOAD + 1));
+		assertNull(QrCapacityPlanner.getVersion(QrCapacityPlanner.getMaxPayload(ErrorCorrectionLevel.M) + 1, ErrorCorrectionLevel.M));
+	}
+
+	@Test
+	public void testVersionMatchesEncoder() throws WriterException {
+		for(ErrorCorrectionLevel ecLevel : ErrorCorrectionLevel.values()) {
+			for(int length = 0; length <= QrCapacityPlanner.getMaxPayload(ecLevel); length += 13) {
+				int version = Encoder.encode(new byte[length], ecLevel).getVersion().getVersionNumber();
+
+				assertEquals(version, QrCapacityPlanner.getVersion(length, ecLevel).getVersionNumber());
+			}
+		}
+	}
+
+	@Test
+	public void testStrongestLevelInSmallestVersion() {
+		// 17 bytes is exactly 1-L, 14 bytes fits 1-M
+		QrCapacityPlanner.Plan plan = QrCapacityPlanner.plan(14);
+		assertEquals(1, plan.getVersion().getVersionNumber());
+		assertEquals(ErrorCorrectionLevel.M, plan.getErrorCorrectionLevel());
+		assertEquals(0, plan.getRemainingBytes());
+
+		plan = QrCapacityPlanner.plan(7);
+		assertEquals(ErrorCorrectionLevel.H, plan.getErrorCorrectionLevel());
+		assertEquals(0, plan.getRemainingBytes());
+
+		// restricted levels
+		plan = QrCapacityPlanner.plan(7, ErrorCorrectionLevel.L, ErrorCorrectionLevel.M);
+		assertEquals(ErrorCorrectionLevel.M, plan.getErrorCorrectionLevel());
+		assertEquals(7, plan.getRemainingBytes());
+
+		plan = QrCapacityPlanner.plan(20, ErrorCorrectionLevel.H);
+		assertEquals(3, plan.getVersion().getVersionNumber());
+		assertEquals(ErrorCorrectionLevel.H, plan.getErrorCorrectionLevel());
+	}
+}